@@ -0,0 +1,42 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Throwables;
+import org.embulk.EmbulkEmbed;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An embedded Embulk and its {@link ExecSession}, for benchmarks that need {@link Exec}.
+ */
+class BenchmarkSession
+        implements AutoCloseable
+{
+    private final EmbulkEmbed embed;
+    private final ExecSession session;
+
+    public BenchmarkSession()
+    {
+        this.embed = new EmbulkEmbed.Bootstrap().initializeCloseable();
+        this.session = ExecSession.builder(embed.getInjector()).build();
+    }
+
+    public <T> T run(ExecAction<T> action)
+    {
+        try {
+            return Exec.doWith(session, action);
+        }
+        catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        session.cleanup();
+        embed.destroy();
+    }
+}
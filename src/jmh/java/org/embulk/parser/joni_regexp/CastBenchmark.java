@@ -0,0 +1,177 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.cast.BytesCast;
+import org.embulk.parser.joni_regexp.cast.StringCast;
+import org.embulk.spi.json.JsonParser;
+import org.msgpack.value.StringValue;
+import org.msgpack.value.ValueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each conversion of a captured value, from a msgpack value ({@link ColumnCaster}), from a
+ * String ({@link StringCast}) and from the raw bytes ({@link BytesCast}), and of a JSON capture by
+ * Embulk's {@link JsonParser} and by {@link JsonBytesParser}. One operation is one value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CastBenchmark
+{
+    private static final int VALUES = 1024;
+
+    private Values longs;
+    private Values doubles;
+    private Values booleans;
+    private Values jsons;
+    private final JsonBytesParser jsonParser = new JsonBytesParser();
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        String[] longStrings = new String[VALUES];
+        String[] doubleStrings = new String[VALUES];
+        String[] booleanStrings = new String[VALUES];
+        String[] jsonStrings = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            longStrings[i] = String.valueOf(random.nextInt(Integer.MAX_VALUE) - random.nextInt(Integer.MAX_VALUE));
+            doubleStrings[i] = random.nextInt(100000) + "." + random.nextInt(1000);
+            booleanStrings[i] = random.nextBoolean() ? "true" : "false";
+            jsonStrings[i] = String.format("{\"id\":%d,\"user\":\"user%d\",\"score\":%s,\"tags\":[\"a\",\"b\"],\"ok\":%s}",
+                    random.nextInt(), random.nextInt(1000), doubleStrings[i], booleanStrings[i]);
+        }
+        longs = new Values(longStrings);
+        doubles = new Values(doubleStrings);
+        booleans = new Values(booleanStrings);
+        jsons = new Values(jsonStrings);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void longFromValue(Blackhole blackhole)
+    {
+        for (StringValue value : longs.values) {
+            blackhole.consume(ColumnCaster.asLong(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void longFromString(Blackhole blackhole)
+    {
+        for (String value : longs.strings) {
+            blackhole.consume(StringCast.asLong(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void longFromBytes(Blackhole blackhole)
+    {
+        for (byte[] value : longs.bytes) {
+            blackhole.consume(BytesCast.asLong(value, 0, value.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void doubleFromValue(Blackhole blackhole)
+    {
+        for (StringValue value : doubles.values) {
+            blackhole.consume(ColumnCaster.asDouble(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void doubleFromString(Blackhole blackhole)
+    {
+        for (String value : doubles.strings) {
+            blackhole.consume(StringCast.asDouble(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void doubleFromBytes(Blackhole blackhole)
+    {
+        for (byte[] value : doubles.bytes) {
+            blackhole.consume(BytesCast.asDouble(value, 0, value.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void booleanFromValue(Blackhole blackhole)
+    {
+        for (StringValue value : booleans.values) {
+            blackhole.consume(ColumnCaster.asBoolean(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void booleanFromString(Blackhole blackhole)
+    {
+        for (String value : booleans.strings) {
+            blackhole.consume(StringCast.asBoolean(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void booleanFromBytes(Blackhole blackhole)
+    {
+        for (byte[] value : booleans.bytes) {
+            blackhole.consume(BytesCast.asBoolean(value, 0, value.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void jsonFromString(Blackhole blackhole)
+    {
+        for (String value : jsons.strings) {
+            blackhole.consume(new JsonParser().parse(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void jsonFromBytes(Blackhole blackhole)
+    {
+        for (byte[] value : jsons.bytes) {
+            blackhole.consume(jsonParser.parse(value, 0, value.length));
+        }
+    }
+
+    private static class Values
+    {
+        final String[] strings;
+        final StringValue[] values;
+        final byte[][] bytes;
+
+        Values(String[] strings)
+        {
+            this.strings = strings;
+            this.values = new StringValue[strings.length];
+            this.bytes = new byte[strings.length][];
+            for (int i = 0; i < strings.length; i++) {
+                values[i] = ValueFactory.newString(strings[i]);
+                bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.joni.Regex;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generated input for the benchmarks: a pattern, its columns and {@link #LINES} matching lines.
+ * Timestamps advance by a few hundred milliseconds per line, like a real log.
+ */
+enum Corpus
+{
+    APACHE("^(?<host>[^ ]*) [^ ]* (?<user>[^ ]*) \\[(?<time>[^\\]]*)\\] \"(?<method>\\S+)(?: +(?<path>[^ ]*) +\\S*)?\" (?<code>[^ ]*) (?<size>[^ ]*)(?: \"(?<referer>[^\\\"]*)\" \"(?<agent>[^\\\"]*)\")?$",
+            "%d/%b/%Y:%H:%M:%S %z",
+            new String[] {"host", "user", "time", "method", "path", "code", "size", "referer", "agent"},
+            new Type[] {Types.STRING, Types.STRING, Types.TIMESTAMP, Types.STRING, Types.STRING, Types.LONG, Types.LONG, Types.STRING, Types.STRING})
+    {
+        @Override
+        String line(Random random, long epochMillis)
+        {
+            return String.format(Locale.ENGLISH, "%d.%d.%d.%d - %s [%s] \"%s /category/%s HTTP/1.1\" %d %d \"%s\" \"%s\"",
+                    random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(4) == 0 ? "bob" : "-",
+                    format("dd/MMM/yyyy:HH:mm:ss Z", epochMillis),
+                    random.nextInt(10) == 0 ? "POST" : "GET",
+                    pick(random, CATEGORIES),
+                    random.nextInt(20) == 0 ? 404 : 200,
+                    random.nextInt(100000),
+                    random.nextBoolean() ? "-" : "/category/" + pick(random, CATEGORIES) + "?from=" + random.nextInt(100),
+                    pick(random, AGENTS));
+        }
+    },
+
+    /**
+     * The lines of {@link #APACHE} with the format of the apache_combined preset.
+     */
+    APACHE_PRESET(Preset.APACHE_COMBINED.getFormat(ImmutableList.<String>of()),
+            "%d/%b/%Y:%H:%M:%S %z",
+            new String[] {"host", "user", "time", "method", "path", "code", "size", "referer", "agent"},
+            new Type[] {Types.STRING, Types.STRING, Types.TIMESTAMP, Types.STRING, Types.STRING, Types.LONG, Types.LONG, Types.STRING, Types.STRING})
+    {
+        @Override
+        String line(Random random, long epochMillis)
+        {
+            return APACHE.line(random, epochMillis);
+        }
+    },
+
+    CSV("^(?<id>[^,]*),(?<name>[^,]*),(?<price>[^,]*),(?<active>[^,]*),(?<created_at>[^,]*)$",
+            "%Y-%m-%d %H:%M:%S.%N %z",
+            new String[] {"id", "name", "price", "active", "created_at"},
+            new Type[] {Types.LONG, Types.STRING, Types.DOUBLE, Types.BOOLEAN, Types.TIMESTAMP})
+    {
+        @Override
+        String line(Random random, long epochMillis)
+        {
+            return String.format(Locale.ENGLISH, "%d,%s %d,%d.%02d,%s,%s",
+                    random.nextInt(Integer.MAX_VALUE),
+                    pick(random, CATEGORIES), random.nextInt(1000),
+                    random.nextInt(10000), random.nextInt(100),
+                    random.nextBoolean() ? "true" : "false",
+                    format("yyyy-MM-dd HH:mm:ss.SSS Z", epochMillis));
+        }
+    },
+
+    WIDE(wideFormat(), "%Y-%m-%d %H:%M:%S.%N %z", wideNames(), wideTypes())
+    {
+        @Override
+        String line(Random random, long epochMillis)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < WIDE_COLUMNS; i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                switch (i % 3) {
+                    case 0:
+                        sb.append(random.nextInt(1000000));
+                        break;
+                    case 1:
+                        sb.append(pick(random, CATEGORIES));
+                        break;
+                    default:
+                        sb.append(random.nextInt(1000)).append('.').append(random.nextInt(1000));
+                        break;
+                }
+            }
+            return sb.toString();
+        }
+    };
+
+    public static final int LINES = 10000;
+
+    private static final int WIDE_COLUMNS = 30;
+    private static final String[] CATEGORIES = {"games", "health", "electronics", "books", "toys", "software", "music"};
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/535.11 (KHTML, like Gecko) Chrome/17.0.963.56 Safari/535.11",
+            "Mozilla/5.0 (Windows NT 6.0; rv:10.0.1) Gecko/20100101 Firefox/10.0.1",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_7_3) AppleWebKit/534.53.11 (KHTML, like Gecko) Version/5.1.3 Safari/534.53.10",
+    };
+    private static final long START_MILLIS = 1486983892000L;
+
+    private final String format;
+    private final String timestampFormat;
+    private final String[] names;
+    private final Type[] types;
+
+    Corpus(String format, String timestampFormat, String[] names, Type[] types)
+    {
+        this.format = format;
+        this.timestampFormat = timestampFormat;
+        this.names = names;
+        this.types = types;
+    }
+
+    abstract String line(Random random, long epochMillis);
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Returns the "columns" option of this corpus.
+     */
+    public List<ImmutableMap<String, String>> getColumns()
+    {
+        ImmutableList.Builder<ImmutableMap<String, String>> columns = ImmutableList.builder();
+        for (int i = 0; i < names.length; i++) {
+            if (types[i] == Types.TIMESTAMP) {
+                columns.add(ImmutableMap.of("name", names[i], "type", types[i].getName(), "format", timestampFormat));
+            }
+            else {
+                columns.add(ImmutableMap.of("name", names[i], "type", types[i].getName()));
+            }
+        }
+        return columns.build();
+    }
+
+    public Schema getSchema()
+    {
+        ImmutableList.Builder<Column> columns = ImmutableList.builder();
+        for (int i = 0; i < names.length; i++) {
+            columns.add(new Column(i, names[i], types[i]));
+        }
+        return new Schema(columns.build());
+    }
+
+    public Regex newRegex()
+    {
+        return JoniRegexpParserPlugin.buildRegex(format);
+    }
+
+    /**
+     * Returns {@link #LINES} lines generated from a fixed seed.
+     */
+    public String[] lines()
+    {
+        Random random = new Random(42);
+        String[] lines = new String[LINES];
+        long epochMillis = START_MILLIS;
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = line(random, epochMillis);
+            epochMillis += random.nextInt(500);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns {@link #lines()} as UTF-8, each terminated by LF.
+     */
+    public byte[] text()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines()) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String format(String pattern, long epochMillis)
+    {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern, Locale.ENGLISH);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("Asia/Tokyo"));
+        return dateFormat.format(new Date(epochMillis));
+    }
+
+    private static String pick(Random random, String[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String wideFormat()
+    {
+        StringBuilder sb = new StringBuilder("^");
+        for (int i = 0; i < WIDE_COLUMNS; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append("(?<c").append(i).append(">\\S*)");
+        }
+        return sb.append('$').toString();
+    }
+
+    private static String[] wideNames()
+    {
+        String[] names = new String[WIDE_COLUMNS];
+        for (int i = 0; i < WIDE_COLUMNS; i++) {
+            names[i] = "c" + i;
+        }
+        return names;
+    }
+
+    private static Type[] wideTypes()
+    {
+        Type[] types = new Type[WIDE_COLUMNS];
+        for (int i = 0; i < WIDE_COLUMNS; i++) {
+            types[i] = i % 3 == 0 ? Types.LONG : i % 3 == 1 ? Types.STRING : Types.DOUBLE;
+        }
+        return types;
+    }
+}
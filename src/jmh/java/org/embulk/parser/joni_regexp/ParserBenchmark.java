@@ -0,0 +1,130 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.ParserPlugin;
+import org.embulk.spi.Schema;
+import org.embulk.spi.util.ListFileInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link JoniRegexpParserPlugin} end to end over a {@link Corpus}. One operation is one line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark
+{
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    @Param({"APACHE", "APACHE_PRESET", "CSV", "WIDE"})
+    public Corpus corpus;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private BenchmarkSession session;
+    private byte[] text;
+    private ConfigSource config;
+
+    @Setup
+    public void setup()
+    {
+        session = new BenchmarkSession();
+        text = corpus.text();
+        config = session.run(new ExecAction<ConfigSource>()
+        {
+            @Override
+            public ConfigSource run()
+            {
+                return Exec.newConfigSource()
+                        .set("type", "joni_regexp")
+                        .set("newline", "LF")
+                        .set("format", corpus.getFormat())
+                        .set("columns", corpus.getColumns())
+                        .set("parallelism", parallelism);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.LINES)
+    public long parse()
+    {
+        return session.run(new ExecAction<Long>()
+        {
+            @Override
+            public Long run()
+            {
+                final JoniRegexpParserPlugin plugin = new JoniRegexpParserPlugin();
+                final CountingPageOutput output = new CountingPageOutput();
+                plugin.transaction(config, new ParserPlugin.Control()
+                {
+                    @Override
+                    public void run(TaskSource taskSource, Schema schema)
+                    {
+                        plugin.run(taskSource, schema, new ListFileInput(ImmutableList.of(buffers())), output);
+                    }
+                });
+                return output.pages;
+            }
+        });
+    }
+
+    private List<Buffer> buffers()
+    {
+        List<Buffer> buffers = new ArrayList<>();
+        for (int offset = 0; offset < text.length; offset += BUFFER_SIZE) {
+            buffers.add(Buffer.wrap(text, offset, Math.min(BUFFER_SIZE, text.length - offset)));
+        }
+        return buffers;
+    }
+
+    private static class CountingPageOutput
+            implements PageOutput
+    {
+        long pages;
+
+        @Override
+        public void add(Page page)
+        {
+            pages++;
+            page.release();
+        }
+
+        @Override
+        public void finish()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.embulk.parser.joni_regexp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the regex search and the capture extraction of each line on their own. One operation
+ * is one line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StageBenchmark
+{
+    @Param({"APACHE", "APACHE_PRESET", "CSV", "WIDE"})
+    public Corpus corpus;
+
+    private byte[][] lines;
+    private MatchContext context;
+    private CapturePlan plan;
+
+    @Setup
+    public void setup()
+    {
+        String[] strings = corpus.lines();
+        lines = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            lines[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+        context = new MatchContext(corpus.newRegex(), corpus.getFormat());
+        plan = CapturePlan.build(context.getRegex(), corpus.getSchema());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.LINES)
+    public void search(Blackhole blackhole)
+    {
+        for (byte[] line : lines) {
+            blackhole.consume(context.search(line, 0, line.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.LINES)
+    public void captureOffsets(Blackhole blackhole)
+    {
+        for (byte[] line : lines) {
+            context.search(line, 0, line.length);
+            for (int i = 0; i < plan.size(); i++) {
+                int group = plan.getGroup(i);
+                blackhole.consume(context.captureBegin(group));
+                blackhole.consume(context.captureEnd(group));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.LINES)
+    public void captureStrings(Blackhole blackhole)
+    {
+        for (byte[] line : lines) {
+            context.search(line, 0, line.length);
+            byte[] bytes = context.getBytes();
+            for (int i = 0; i < plan.size(); i++) {
+                int group = plan.getGroup(i);
+                int begin = context.captureBegin(group);
+                if (begin >= 0) {
+                    blackhole.consume(new String(bytes, begin, context.captureEnd(group) - begin, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+}
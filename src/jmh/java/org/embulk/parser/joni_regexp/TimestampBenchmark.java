@@ -0,0 +1,113 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.time.TimestampParseException;
+import org.embulk.spi.time.TimestampParser;
+import org.joda.time.DateTimeZone;
+import org.jruby.embed.ScriptingContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the time-ordered timestamps of a log with the generic {@link TimestampParser},
+ * the {@link FastTimestampParser} and the {@link TimestampCache}. One operation is one value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimestampBenchmark
+{
+    private static final int VALUES = 1024;
+    private static final String FORMAT = "%d/%b/%Y:%H:%M:%S %z";
+    private static final int CACHE_SIZE = 8;
+
+    private BenchmarkSession session;
+    private String[] strings;
+    private byte[][] bytes;
+    private TimestampParser parser;
+
+    @Setup
+    public void setup()
+    {
+        session = new BenchmarkSession();
+        parser = session.run(new ExecAction<TimestampParser>()
+        {
+            @Override
+            public TimestampParser run()
+            {
+                ScriptingContainer jruby = Exec.getInjector().getInstance(ScriptingContainer.class);
+                return new TimestampParser(jruby, FORMAT, DateTimeZone.UTC);
+            }
+        });
+
+        Random random = new Random(42);
+        strings = new String[VALUES];
+        bytes = new byte[VALUES][];
+        int seconds = 0;
+        for (int i = 0; i < VALUES; i++) {
+            seconds += random.nextInt(2);
+            strings[i] = String.format(Locale.ENGLISH, "13/Feb/2017:20:%02d:%02d +0900", 4 + seconds / 60, seconds % 60);
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void generic(Blackhole blackhole)
+            throws TimestampParseException
+    {
+        for (String value : strings) {
+            blackhole.consume(parser.parse(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void fast(Blackhole blackhole)
+    {
+        FastTimestampParser fastParser = FastTimestampParser.of(FORMAT, DateTimeZone.UTC);
+        for (byte[] value : bytes) {
+            blackhole.consume(fastParser.parse(value, 0, value.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void cacheWithGeneric(Blackhole blackhole)
+    {
+        TimestampCache cache = new TimestampCache(parser, null, CACHE_SIZE, FORMAT);
+        for (byte[] value : bytes) {
+            blackhole.consume(cache.parse(value, 0, value.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void cacheWithFast(Blackhole blackhole)
+    {
+        TimestampCache cache = new TimestampCache(parser, FastTimestampParser.of(FORMAT, DateTimeZone.UTC), CACHE_SIZE, FORMAT);
+        for (byte[] value : bytes) {
+            blackhole.consume(cache.parse(value, 0, value.length));
+        }
+    }
+}
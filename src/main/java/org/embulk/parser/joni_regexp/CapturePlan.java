@@ -0,0 +1,135 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.joni.NameEntry;
+import org.joni.Regex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maps the named groups of a compiled {@link Regex} to the schema columns they are written to.
+ *
+ * Group names are resolved once per task, so that the per-record loop walks flat arrays instead
+ * of the name table of the regex.
+ */
+class CapturePlan
+{
+    private final int[] groups;
+    private final Column[] columns;
+
+    private CapturePlan(int[] groups, Column[] columns)
+    {
+        this.groups = groups;
+        this.columns = columns;
+    }
+
+    /**
+     * @throws org.embulk.spi.SchemaConfigException if a named group has no column
+     */
+    public static CapturePlan build(Regex regex, Schema schema)
+    {
+        List<Integer> groups = new ArrayList<>();
+        List<Column> columns = new ArrayList<>();
+        for (Iterator<NameEntry> entry = regex.namedBackrefIterator(); entry.hasNext(); ) {
+            NameEntry e = entry.next();
+            String name = captureName(e);
+            groups.add(e.getBackRefs()[0]);
+            columns.add(schema.lookupColumn(name)); // throw SchemaConfigException;
+        }
+
+        int[] groupArray = new int[groups.size()];
+        for (int i = 0; i < groupArray.length; i++) {
+            groupArray[i] = groups.get(i);
+        }
+        return new CapturePlan(groupArray, columns.toArray(new Column[columns.size()]));
+    }
+
+    /**
+     * Rewrites the named groups of {@code names} in {@code format} to non-capturing groups, so
+     * that Joni does not record where they matched on each line. Unnamed groups are not captured
+     * already when a regex has named groups.
+     *
+     * @throws ConfigException if {@code format} refers to one of {@code names} with {@code \k} or
+     * {@code \g}
+     */
+    static String skipGroups(String format, Set<String> names)
+    {
+        StringBuilder sb = new StringBuilder(format.length());
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c == '\\') {
+                String reference = groupName(format, i + 2, "kg");
+                if (reference != null && names.contains(reference)) {
+                    throw new ConfigException(String.format("Group \"%s\" in skip_groups is referred to by the regex: %s", reference, format));
+                }
+                int end = Math.min(i + 2, format.length());
+                sb.append(format, i, end);
+                i = end;
+            }
+            else if (c == '[') {
+                int end = MatchContext.classEnd(format, i + 1);
+                end = end < 0 ? format.length() : end + 1;
+                sb.append(format, i, end);
+                i = end;
+            }
+            else if (format.startsWith("(?", i) && names.contains(groupName(format, i + 2, null))) {
+                sb.append("(?:");
+                i = format.indexOf(format.charAt(i + 2) == '<' ? '>' : '\'', i + 3) + 1;
+            }
+            else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the name of {@code <name>} or {@code 'name'} at {@code index}, which follows one of
+     * {@code prefixes} unless it is null, without a {@code +n} or {@code -n} level
+     */
+    private static String groupName(String format, int index, String prefixes)
+    {
+        if (prefixes != null) {
+            if (index < 1 || index > format.length() || prefixes.indexOf(format.charAt(index - 1)) < 0) {
+                return null;
+            }
+        }
+        if (index >= format.length() || (format.charAt(index) != '<' && format.charAt(index) != '\'')) {
+            return null;
+        }
+        int end = format.indexOf(format.charAt(index) == '<' ? '>' : '\'', index + 1);
+        if (end < 0) {
+            return null;
+        }
+        String name = format.substring(index + 1, end);
+        int level = Math.max(name.indexOf('+'), name.indexOf('-'));
+        return level > 0 ? name.substring(0, level) : name;
+    }
+
+    static String captureName(NameEntry e)
+    {
+        return new String(e.name, e.nameP, e.nameEnd - e.nameP);
+    }
+
+    public int size()
+    {
+        return groups.length;
+    }
+
+    public int getGroup(int index)
+    {
+        return groups[index];
+    }
+
+    public Column getColumn(int index)
+    {
+        return columns[index];
+    }
+}
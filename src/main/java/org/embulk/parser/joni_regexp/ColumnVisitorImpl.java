@@ -1,8 +1,9 @@
 package org.embulk.parser.joni_regexp;
 
-import com.google.common.base.Optional;
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.DictionaryColumnOption;
 import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
 import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.TypecastColumnOption;
+import org.embulk.parser.joni_regexp.cast.BytesCast;
 
 import org.embulk.spi.Column;
 import org.embulk.spi.ColumnConfig;
@@ -10,11 +11,12 @@ import org.embulk.spi.ColumnVisitor;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
 import org.embulk.spi.SchemaConfig;
-import org.embulk.spi.json.JsonParser;
 import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.time.TimestampParser;
-import org.msgpack.core.MessageTypeException;
-import org.msgpack.value.Value;
+import org.embulk.spi.time.TimestampParser.TimestampColumnOption;
+import org.joda.time.DateTimeZone;
+
+import java.nio.charset.Charset;
 
 public class ColumnVisitorImpl implements ColumnVisitor
 {
@@ -22,18 +24,48 @@ public class ColumnVisitorImpl implements ColumnVisitor
     protected final Schema schema;
     protected final PageBuilder pageBuilder;
     protected final TimestampParser[] timestampParsers;
+    protected final TimestampCache[] timestampCaches;
     protected final Boolean[] autoTypecasts;
+    protected final ValueDictionary[] dictionaries;
+    protected final Charset charset;
+    protected final JsonBytesParser jsonParser;
 
-    protected Value value;
+    protected byte[] bytes;
+    protected int begin = -1;
+    protected int end = -1;
 
-    public ColumnVisitorImpl(PluginTask task, Schema schema, PageBuilder pageBuilder, TimestampParser[] timestampParsers)
+    /**
+     * @param counter counts the dictionary lookups into the task metrics
+     */
+    public ColumnVisitorImpl(PluginTask task, Schema schema, PageBuilder pageBuilder, TimestampParser[] timestampParsers, ParserMetrics.Counter counter)
     {
         this.task = task;
         this.schema = schema;
         this.pageBuilder = pageBuilder;
         this.timestampParsers = timestampParsers.clone();
+        this.timestampCaches = new TimestampCache[timestampParsers.length];
         this.autoTypecasts = new Boolean[schema.size()];
+        this.dictionaries = new ValueDictionary[schema.size()];
+        this.charset = LineEncoding.of(task).getCharset();
+        this.jsonParser = new JsonBytesParser(charset);
+        buildTimestampCaches();
         buildAutoTypecasts();
+        buildDictionaries(counter);
+    }
+
+    private void buildTimestampCaches()
+    {
+        SchemaConfig schemaConfig = task.getColumns();
+
+        for (int i = 0; i < timestampParsers.length; i++) {
+            if (timestampParsers[i] != null) {
+                TimestampColumnOption columnOption = schemaConfig.getColumn(i).getOption().loadConfig(TimestampColumnOption.class);
+                String format = columnOption.getFormat().or(task.getDefaultTimestampFormat());
+                DateTimeZone timeZone = columnOption.getTimeZone().or(task.getDefaultTimeZone());
+                FastTimestampParser fastParser = FastTimestampParser.of(format, timeZone);
+                timestampCaches[i] = new TimestampCache(timestampParsers[i], fastParser, task.getTimestampCacheSize(), format, charset);
+            }
+        }
     }
 
     private void buildAutoTypecasts()
@@ -52,116 +84,186 @@ public class ColumnVisitorImpl implements ColumnVisitor
         }
     }
 
-    public void setValue(Value value)
+    private void buildDictionaries(ParserMetrics.Counter counter)
+    {
+        SchemaConfig schemaConfig = task.getColumns();
+
+        for (ColumnConfig columnConfig : schemaConfig.getColumns()) {
+            DictionaryColumnOption columnOption = columnConfig.getOption().loadConfig(DictionaryColumnOption.class);
+            if (columnOption.getDictionary().or(task.getDefaultDictionary())) {
+                Column column = schema.lookupColumn(columnConfig.getName());
+                this.dictionaries[column.getIndex()] = new ValueDictionary(task.getDictionarySize(), task.getDictionaryMinHitRatio(), counter);
+            }
+        }
+    }
+
+    /**
+     * Sets the bytes {@code bytes[begin, end)} in the line charset as the next value. A negative {@code begin} means null.
+     */
+    public void setValue(byte[] bytes, int begin, int end)
     {
-        this.value = value;
+        this.bytes = bytes;
+        this.begin = begin;
+        this.end = end;
     }
 
     @Override
     public void booleanColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
-        else {
-            try {
-                boolean booleanValue = autoTypecasts[column.getIndex()] ? ColumnCaster.asBoolean(value) : value.asBooleanValue().getBoolean();
-                pageBuilder.setBoolean(column, booleanValue);
+        else if (autoTypecasts[column.getIndex()]) {
+            ValueDictionary dictionary = dictionaries[column.getIndex()];
+            Object cached = dictionary == null ? null : dictionary.get(bytes, begin, end);
+            boolean value;
+            if (cached != null) {
+                value = (Boolean) cached;
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Boolean", value), e);
+            else {
+                value = BytesCast.asBoolean(bytes, begin, end, charset);
+                if (dictionary != null) {
+                    dictionary.put(bytes, begin, end, value);
+                }
             }
+            pageBuilder.setBoolean(column, value);
+        }
+        else {
+            throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Boolean", valueString()));
         }
     }
 
     @Override
     public void longColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
-        else {
-            try {
-                long longValue = autoTypecasts[column.getIndex()] ? ColumnCaster.asLong(value) : value.asIntegerValue().toLong();
-                pageBuilder.setLong(column, longValue);
+        else if (autoTypecasts[column.getIndex()]) {
+            ValueDictionary dictionary = dictionaries[column.getIndex()];
+            Object cached = dictionary == null ? null : dictionary.get(bytes, begin, end);
+            long value;
+            if (cached != null) {
+                value = (Long) cached;
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Long", value), e);
+            else {
+                value = BytesCast.asLong(bytes, begin, end, charset);
+                if (dictionary != null) {
+                    dictionary.put(bytes, begin, end, value);
+                }
             }
+            pageBuilder.setLong(column, value);
+        }
+        else {
+            throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Long", valueString()));
         }
     }
 
     @Override
     public void doubleColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
-        else {
-            try {
-                double doubleValue = autoTypecasts[column.getIndex()] ? ColumnCaster.asDouble(value) : value.asFloatValue().toDouble();
-                pageBuilder.setDouble(column, doubleValue);
+        else if (autoTypecasts[column.getIndex()]) {
+            ValueDictionary dictionary = dictionaries[column.getIndex()];
+            Object cached = dictionary == null ? null : dictionary.get(bytes, begin, end);
+            double value;
+            if (cached != null) {
+                value = (Double) cached;
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed get \"%s\" as Double", value), e);
+            else {
+                value = BytesCast.asDouble(bytes, begin, end, charset);
+                if (dictionary != null) {
+                    dictionary.put(bytes, begin, end, value);
+                }
             }
+            pageBuilder.setDouble(column, value);
+        }
+        else {
+            throw new JsonRecordValidateException(String.format("failed get \"%s\" as Double", valueString()));
         }
     }
 
     @Override
     public void stringColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
         else {
-            try {
-                String string = autoTypecasts[column.getIndex()] ? ColumnCaster.asString(value) : value.asStringValue().toString();
-                pageBuilder.setString(column, string);
+            ValueDictionary dictionary = dictionaries[column.getIndex()];
+            Object cached = dictionary == null ? null : dictionary.get(bytes, begin, end);
+            String value;
+            if (cached != null) {
+                value = (String) cached;
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as String", value), e);
+            else {
+                value = valueString();
+                if (dictionary != null) {
+                    dictionary.put(bytes, begin, end, value);
+                }
             }
+            pageBuilder.setString(column, value);
         }
     }
 
     @Override
     public void timestampColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
         else {
-            try {
-                Timestamp timestamp = ColumnCaster.asTimestamp(value, timestampParsers[column.getIndex()]);
-                pageBuilder.setTimestamp(column, timestamp);
+            ValueDictionary dictionary = dictionaries[column.getIndex()];
+            Object cached = dictionary == null ? null : dictionary.get(bytes, begin, end);
+            Timestamp timestamp;
+            if (cached != null) {
+                timestamp = (Timestamp) cached;
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Timestamp", value), e);
+            else {
+                timestamp = timestampCaches[column.getIndex()].parse(bytes, begin, end);
+                if (dictionary != null) {
+                    dictionary.put(bytes, begin, end, timestamp);
+                }
             }
+            pageBuilder.setTimestamp(column, timestamp);
         }
     }
 
     @Override
     public void jsonColumn(Column column)
     {
-        if (isNil(value)) {
+        if (isNil()) {
             pageBuilder.setNull(column);
         }
         else {
             try {
-                JsonParser parser = new JsonParser();
-                Value json = parser.parse(value.toString());
-                pageBuilder.setJson(column, json);
+                pageBuilder.setJson(column, jsonParser.parse(bytes, begin, end));
             }
-            catch (MessageTypeException e) {
-                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Json", value), e);
+            catch (JsonRecordValidateException e) {
+                throw new JsonRecordValidateException(String.format("failed to get \"%s\" as Json", valueString()), e);
             }
         }
     }
 
-    protected boolean isNil(Value v)
+    TimestampCache getTimestampCache(Column column)
+    {
+        return timestampCaches[column.getIndex()];
+    }
+
+    ValueDictionary getDictionary(Column column)
+    {
+        return dictionaries[column.getIndex()];
+    }
+
+    protected String valueString()
+    {
+        return new String(bytes, begin, end - begin, charset);
+    }
+
+    protected boolean isNil()
     {
-        return v == null || v.isNilValue();
+        return begin < 0;
     }
 }
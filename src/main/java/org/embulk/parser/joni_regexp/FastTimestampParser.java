@@ -0,0 +1,285 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Fixed-layout parsers for the most common timestamp formats.
+ *
+ * Each parser reads the digits at their fixed positions and computes the epoch seconds
+ * arithmetically. Any value that does not fit the layout exactly, including a day or time out of
+ * range and a zone other than a numeric offset, makes {@link #parse(byte[], int, int)} return null
+ * so that the caller can fall back to the generic {@link org.embulk.spi.time.TimestampParser}.
+ */
+abstract class FastTimestampParser
+{
+    public static final String APACHE_FORMAT = "%d/%b/%Y:%H:%M:%S %z";
+    public static final String ISO8601_FORMAT = "%Y-%m-%dT%H:%M:%S%z";
+    public static final String DEFAULT_FORMAT = "%Y-%m-%d %H:%M:%S.%N %z";
+    public static final String SYSLOG_FORMAT = "%b %d %H:%M:%S";
+
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final int[] FRACTION_SCALES = {
+            1000000000, 100000000, 10000000, 1000000, 100000, 10000, 1000, 100, 10, 1,
+    };
+    private static final int[] DAYS_IN_MONTH = {0, 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+
+    // the last numeric zone seen, "+0900" or "+09:00"
+    private final byte[] zoneBytes = new byte[6];
+    private int zoneLength = -1;
+    private int zoneOffset;
+
+    /**
+     * Returns a parser for the given format, or null if the format has no specialized parser.
+     */
+    public static FastTimestampParser of(String format, DateTimeZone defaultTimeZone)
+    {
+        switch (format) {
+            case APACHE_FORMAT:
+                return new ApacheParser();
+            case ISO8601_FORMAT:
+                return new Iso8601Parser();
+            case DEFAULT_FORMAT:
+                return new DefaultParser();
+            case SYSLOG_FORMAT:
+                // a year-less local time needs the zone rules of that year, so only fixed zones
+                if (defaultTimeZone.isFixed()) {
+                    return new SyslogParser(defaultTimeZone.getOffset(0L) / 1000);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the parsed timestamp, or null if the value does not fit the layout
+     */
+    public abstract Timestamp parse(byte[] bytes, int begin, int end);
+
+    // %d/%b/%Y:%H:%M:%S %z, e.g. "10/Oct/2016:13:55:36 -0700"
+    private static class ApacheParser
+            extends FastTimestampParser
+    {
+        @Override
+        public Timestamp parse(byte[] bytes, int begin, int end)
+        {
+            if (end - begin < 26 || bytes[begin + 2] != '/' || bytes[begin + 6] != '/' || bytes[begin + 11] != ':'
+                    || bytes[begin + 14] != ':' || bytes[begin + 17] != ':' || bytes[begin + 20] != ' ') {
+                return null;
+            }
+            int day = digits(bytes, begin, 2);
+            int month = month(bytes, begin + 3);
+            int year = digits(bytes, begin + 7, 4);
+            int hour = digits(bytes, begin + 12, 2);
+            int minute = digits(bytes, begin + 15, 2);
+            int second = digits(bytes, begin + 18, 2);
+            if (!zone(bytes, begin + 21, end)) {
+                return null;
+            }
+            return toTimestamp(year, month, day, hour, minute, second, 0, zoneOffset());
+        }
+    }
+
+    // %Y-%m-%dT%H:%M:%S%z, e.g. "2016-10-10T13:55:36+0900"
+    private static class Iso8601Parser
+            extends FastTimestampParser
+    {
+        @Override
+        public Timestamp parse(byte[] bytes, int begin, int end)
+        {
+            if (end - begin < 24 || !dateTime(bytes, begin, 'T') || !zone(bytes, begin + 19, end)) {
+                return null;
+            }
+            return toTimestamp(bytes, begin, 0, zoneOffset());
+        }
+    }
+
+    // %Y-%m-%d %H:%M:%S.%N %z, e.g. "2016-10-10 13:55:36.123456 +0900"
+    private static class DefaultParser
+            extends FastTimestampParser
+    {
+        @Override
+        public Timestamp parse(byte[] bytes, int begin, int end)
+        {
+            if (end - begin < 27 || !dateTime(bytes, begin, ' ') || bytes[begin + 19] != '.') {
+                return null;
+            }
+            int fractionBegin = begin + 20;
+            int fractionEnd = fractionBegin;
+            int fraction = 0;
+            while (fractionEnd < end && fractionEnd - fractionBegin < 9 && isDigit(bytes[fractionEnd])) {
+                fraction = fraction * 10 + (bytes[fractionEnd++] - '0');
+            }
+            if (fractionEnd == fractionBegin || fractionEnd >= end || bytes[fractionEnd] != ' ' || !zone(bytes, fractionEnd + 1, end)) {
+                return null;
+            }
+            return toTimestamp(bytes, begin, fraction * FRACTION_SCALES[fractionEnd - fractionBegin], zoneOffset());
+        }
+    }
+
+    // %b %d %H:%M:%S, e.g. "Oct 10 13:55:36" or "Oct  9 13:55:36" in 1970
+    private static class SyslogParser
+            extends FastTimestampParser
+    {
+        private final int offset;
+
+        SyslogParser(int offset)
+        {
+            this.offset = offset;
+        }
+
+        @Override
+        public Timestamp parse(byte[] bytes, int begin, int end)
+        {
+            if (end - begin != 15 || bytes[begin + 3] != ' ' || bytes[begin + 6] != ' '
+                    || bytes[begin + 9] != ':' || bytes[begin + 12] != ':') {
+                return null;
+            }
+            int month = month(bytes, begin);
+            int day = bytes[begin + 4] == ' ' ? digits(bytes, begin + 5, 1) : digits(bytes, begin + 4, 2);
+            int hour = digits(bytes, begin + 7, 2);
+            int minute = digits(bytes, begin + 10, 2);
+            int second = digits(bytes, begin + 13, 2);
+            return toTimestamp(1970, month, day, hour, minute, second, 0, offset);
+        }
+    }
+
+    // %Y-%m-%d?%H:%M:%S
+    static boolean dateTime(byte[] bytes, int begin, char separator)
+    {
+        return bytes[begin + 4] == '-' && bytes[begin + 7] == '-' && bytes[begin + 10] == separator
+                && bytes[begin + 13] == ':' && bytes[begin + 16] == ':';
+    }
+
+    private static Timestamp toTimestamp(byte[] bytes, int begin, int nano, int offset)
+    {
+        int year = digits(bytes, begin, 4);
+        int month = digits(bytes, begin + 5, 2);
+        int day = digits(bytes, begin + 8, 2);
+        int hour = digits(bytes, begin + 11, 2);
+        int minute = digits(bytes, begin + 14, 2);
+        int second = digits(bytes, begin + 17, 2);
+        return toTimestamp(year, month, day, hour, minute, second, nano, offset);
+    }
+
+    private static Timestamp toTimestamp(int year, int month, int day, int hour, int minute, int second, int nano, int offset)
+    {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month]
+                || (month == 2 && day == 29 && !isLeapYear(year))
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        long epochSecond = daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600 + minute * 60 + second - offset;
+        return Timestamp.ofEpochSecond(epochSecond, nano);
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date (Howard Hinnant's days_from_civil).
+     */
+    static long daysFromCivil(int year, int month, int day)
+    {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static boolean isLeapYear(int year)
+    {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Reads a numeric zone, "+HHMM" or "+HH:MM", that ends the value. The last zone is cached.
+     */
+    boolean zone(byte[] bytes, int begin, int end)
+    {
+        int length = end - begin;
+        if (length == zoneLength && regionEquals(zoneBytes, bytes, begin, length)) {
+            return true;
+        }
+        if (length != 5 && length != 6) {
+            return false;
+        }
+        byte sign = bytes[begin];
+        if (sign != '+' && sign != '-') {
+            return false;
+        }
+        int hours = digits(bytes, begin + 1, 2);
+        int minutes;
+        if (length == 5) {
+            minutes = digits(bytes, begin + 3, 2);
+        }
+        else if (bytes[begin + 3] == ':') {
+            minutes = digits(bytes, begin + 4, 2);
+        }
+        else {
+            return false;
+        }
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+            return false;
+        }
+        int offset = hours * 3600 + minutes * 60;
+        System.arraycopy(bytes, begin, zoneBytes, 0, length);
+        zoneLength = length;
+        zoneOffset = sign == '-' ? -offset : offset;
+        return true;
+    }
+
+    int zoneOffset()
+    {
+        return zoneOffset;
+    }
+
+    /**
+     * Returns 1 to 12 for a case-insensitive English month abbreviation, or -1.
+     */
+    static int month(byte[] bytes, int begin)
+    {
+        int c0 = bytes[begin] | 0x20;
+        int c1 = bytes[begin + 1] | 0x20;
+        int c2 = bytes[begin + 2] | 0x20;
+        for (int i = 0; i < 12; i++) {
+            if (MONTHS.charAt(i * 3) == c0 && MONTHS.charAt(i * 3 + 1) == c1 && MONTHS.charAt(i * 3 + 2) == c2) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of {@code count} ASCII digits, or -1.
+     */
+    static int digits(byte[] bytes, int begin, int count)
+    {
+        int value = 0;
+        for (int i = begin; i < begin + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean regionEquals(byte[] a, byte[] b, int bOffset, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
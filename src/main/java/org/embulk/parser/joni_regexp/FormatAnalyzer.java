@@ -0,0 +1,924 @@
+package org.embulk.parser.joni_regexp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Looks for constructs in a {@code format} that make Joni backtrack a lot, and rewrites the ones
+ * that can be rewritten without changing any match.
+ *
+ * A greedy repeat of one character set, such as {@code [^ ]*}, that is always followed by a
+ * character outside that set, such as the space in {@code [^ ]* }, can never give back what it
+ * consumed to let the rest match. It is made possessive ({@code [^ ]*+ }), or atomic for
+ * {@code {n,m}} repeats, so that a failing line does not retry every shorter repeat. Which
+ * characters can follow is computed through groups, alternatives, optional atoms and the loop of
+ * a repeated group. Anything the analysis does not understand can be followed by any character,
+ * and blocks the rewrite.
+ *
+ * Warnings are given for nested repeats that stay backtracking, for an unanchored leading
+ * {@code .*} that is not rewritten, and for adjacent repeats of overlapping sets that can split the same text in many
+ * ways.
+ *
+ * Character sets are exact for ASCII and conservative beyond it: any set that may contain a
+ * non-ASCII character is assumed to overlap with any other such set. Formats with inline options,
+ * back references, subexpression calls or nested character classes are not analysed at all.
+ */
+class FormatAnalyzer
+{
+    private final String format;
+    private final List<String> warnings = new ArrayList<>();
+    private final List<Insertion> insertions = new ArrayList<>();
+    private int pos;
+
+    private FormatAnalyzer(String format)
+    {
+        this.format = format;
+    }
+
+    public static Result analyze(String format)
+    {
+        FormatAnalyzer analyzer = new FormatAnalyzer(format);
+        List<List<Item>> alternatives;
+        try {
+            alternatives = analyzer.alternation();
+            if (analyzer.pos != format.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+        }
+        catch (UnsupportedSyntaxException ex) {
+            return new Result(format, format, Collections.<String>emptyList());
+        }
+
+        for (List<Item> sequence : alternatives) {
+            analyzer.rewrite(sequence, CharSet.END_ONLY);
+        }
+        analyzer.warn(alternatives);
+        return new Result(format, analyzer.applyInsertions(), analyzer.warnings);
+    }
+
+    public static class Result
+    {
+        private final String format;
+        private final String optimized;
+        private final List<String> warnings;
+
+        Result(String format, String optimized, List<String> warnings)
+        {
+            this.format = format;
+            this.optimized = optimized;
+            this.warnings = Collections.unmodifiableList(new ArrayList<>(warnings));
+        }
+
+        public String getFormat()
+        {
+            return format;
+        }
+
+        /**
+         * Returns the rewritten format, or the format itself when nothing was rewritten.
+         */
+        public String getOptimized()
+        {
+            return optimized;
+        }
+
+        public boolean isRewritten()
+        {
+            return !optimized.equals(format);
+        }
+
+        public List<String> getWarnings()
+        {
+            return warnings;
+        }
+    }
+
+    // rewrites
+
+    /**
+     * Makes the repeats in {@code sequence} possessive where the characters that can follow them,
+     * {@code follow} being what can follow the whole sequence, are outside their set.
+     */
+    private void rewrite(List<Item> sequence, CharSet follow)
+    {
+        CharSet rest = follow;
+        for (int i = sequence.size() - 1; i >= 0; i--) {
+            Item item = sequence.get(i);
+            if (item.atom.set != null) {
+                if (item.greedy && item.max > item.min && !item.atom.set.overlaps(rest)) {
+                    makePossessive(item);
+                }
+            }
+            else if (item.atom.alternatives != null && !isAtomicRepeat(item.atom)) {
+                // a repeated group can be followed by itself
+                CharSet innerFollow = item.max > 1 ? rest.union(item.atom.first()) : rest;
+                for (List<Item> inner : item.atom.alternatives) {
+                    rewrite(inner, innerFollow);
+                }
+            }
+            rest = item.nullable() ? item.first().union(rest) : item.first();
+        }
+    }
+
+    // (?>[0-9]{1,3}) gives nothing back already
+    private static boolean isAtomicRepeat(Atom atom)
+    {
+        return atom.atomic && atom.alternatives.size() == 1 && atom.alternatives.get(0).size() == 1;
+    }
+
+    private void makePossessive(Item item)
+    {
+        item.possessive = true;
+        if (item.interval) {
+            // {n,m}+ is not possessive in the Ruby syntax
+            insertions.add(new Insertion(item.atomStart, "(?>", true));
+            insertions.add(new Insertion(item.end, ")", false));
+        }
+        else {
+            insertions.add(new Insertion(item.end, "+", false));
+        }
+    }
+
+    private String applyInsertions()
+    {
+        List<Insertion> sorted = new ArrayList<>(insertions);
+        Collections.sort(sorted, new Comparator<Insertion>()
+        {
+            @Override
+            public int compare(Insertion a, Insertion b)
+            {
+                if (a.position != b.position) {
+                    return Integer.compare(a.position, b.position);
+                }
+                // the end of one item comes before the start of the next
+                return Boolean.compare(a.opening, b.opening);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        int copied = 0;
+        for (Insertion insertion : sorted) {
+            sb.append(format, copied, insertion.position).append(insertion.text);
+            copied = insertion.position;
+        }
+        return sb.append(format.substring(copied)).toString();
+    }
+
+    // warnings
+
+    private void warn(List<List<Item>> alternatives)
+    {
+        if (alternatives.size() == 1 && !alternatives.get(0).isEmpty()) {
+            Item first = headRepeat(alternatives.get(0).get(0));
+            if (first != null && first.atom.dot && !first.possessive) {
+                warnings.add(String.format(Locale.ENGLISH,
+                        "\"%s\" at offset %d: an unanchored leading .* takes the whole line and gives it back one character at a time until the rest matches. Start the format with ^ and use a character class that excludes what follows",
+                        source(first), first.atomStart));
+            }
+        }
+        for (List<Item> sequence : alternatives) {
+            warnSequence(sequence, false);
+        }
+    }
+
+    private void warnSequence(List<Item> sequence, boolean inRepeat)
+    {
+        for (int i = 0; i < sequence.size(); i++) {
+            Item item = sequence.get(i);
+            if (item.atom.alternatives != null) {
+                boolean repeated = item.max > 1 && !item.atom.atomic;
+                if (repeated && !inRepeat && containsBacktrackingRepeat(item.atom.alternatives)) {
+                    warnings.add(String.format(Locale.ENGLISH,
+                            "\"%s\" at offset %d: a repeat inside a repeat can backtrack exponentially on a line that does not match",
+                            source(item), item.atomStart));
+                    // one warning for the outermost repeat is enough
+                    repeated = true;
+                }
+                for (List<Item> inner : item.atom.alternatives) {
+                    warnSequence(inner, inRepeat || repeated);
+                }
+            }
+            if (i + 1 < sequence.size()) {
+                Item tail = tailRepeat(item);
+                Item head = headRepeat(sequence.get(i + 1));
+                if (tail != null && head != null && tail.atom.set.overlaps(head.atom.set)) {
+                    warnings.add(String.format(Locale.ENGLISH,
+                            "\"%s\" and \"%s\" at offsets %d and %d: adjacent repeats of overlapping characters can split the same text in many ways. Put a separator between them or make the sets disjoint",
+                            source(tail), source(head), tail.atomStart, head.atomStart));
+                }
+            }
+        }
+    }
+
+    private static boolean containsBacktrackingRepeat(List<List<Item>> alternatives)
+    {
+        for (List<Item> sequence : alternatives) {
+            for (Item item : sequence) {
+                if (item.max == Item.INFINITE && !item.possessive && !item.atom.atomic) {
+                    return true;
+                }
+                if (item.atom.alternatives != null && !item.atom.atomic && containsBacktrackingRepeat(item.atom.alternatives)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the unbounded backtracking repeat of one character set that {@code item} ends with, if any.
+     */
+    private static Item tailRepeat(Item item)
+    {
+        if (item.atom.set != null) {
+            return item.max == Item.INFINITE && !item.possessive ? item : null;
+        }
+        if (item.atom.alternatives != null && item.atom.alternatives.size() == 1 && item.max == 1 && !item.atom.atomic) {
+            List<Item> inner = item.atom.alternatives.get(0);
+            return inner.isEmpty() ? null : tailRepeat(inner.get(inner.size() - 1));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the unbounded repeat of one character set that {@code item} starts with, if any.
+     */
+    private static Item headRepeat(Item item)
+    {
+        if (item.atom.set != null) {
+            return item.max == Item.INFINITE ? item : null;
+        }
+        if (item.atom.alternatives != null && item.atom.alternatives.size() == 1 && item.max == 1 && !item.atom.atomic) {
+            List<Item> inner = item.atom.alternatives.get(0);
+            return inner.isEmpty() ? null : headRepeat(inner.get(0));
+        }
+        return null;
+    }
+
+    private String source(Item item)
+    {
+        return format.substring(item.atomStart, item.end);
+    }
+
+    // parser, over the Ruby syntax of Joni
+
+    private List<List<Item>> alternation()
+    {
+        List<List<Item>> alternatives = new ArrayList<>();
+        alternatives.add(sequence());
+        while (peek('|')) {
+            pos++;
+            alternatives.add(sequence());
+        }
+        return alternatives;
+    }
+
+    private List<Item> sequence()
+    {
+        List<Item> items = new ArrayList<>();
+        while (pos < format.length() && !peek('|') && !peek(')')) {
+            int atomStart = pos;
+            Atom atom = atom();
+            Item item = new Item(atom, atomStart);
+            quantifier(item);
+            if (quantifierFollows()) {
+                // a repeat of a repeat
+                throw new UnsupportedSyntaxException();
+            }
+            item.end = pos;
+            items.add(item);
+        }
+        return items;
+    }
+
+    private Atom atom()
+    {
+        int c = format.codePointAt(pos);
+        pos += Character.charCount(c);
+        switch (c) {
+            case '(':
+                return group();
+            case '[':
+                return Atom.of(characterClass());
+            case '.':
+                Atom dot = Atom.of(CharSet.DOT);
+                dot.dot = true;
+                return dot;
+            case '^':
+                return Atom.opaque(CharSet.UNIVERSAL, true);
+            case '$':
+                return Atom.opaque(CharSet.END_OR_NEWLINE, false);
+            case '\\':
+                return escape();
+            case '*':
+            case '+':
+            case '?':
+                throw new UnsupportedSyntaxException();
+            default:
+                return Atom.of(CharSet.of(c));
+        }
+    }
+
+    private Atom group()
+    {
+        boolean atomic = false;
+        if (peek('?')) {
+            pos++;
+            if (peek(':')) {
+                pos++;
+            }
+            else if (peek('>')) {
+                pos++;
+                atomic = true;
+            }
+            else if (peek('=') || peek('!')) {
+                pos++;
+                skipGroup();
+                return Atom.opaque(CharSet.UNIVERSAL, true);
+            }
+            else if (peek('<') && pos + 1 < format.length() && (format.charAt(pos + 1) == '=' || format.charAt(pos + 1) == '!')) {
+                pos += 2;
+                skipGroup();
+                return Atom.opaque(CharSet.UNIVERSAL, true);
+            }
+            else if (peek('<') || peek('\'')) {
+                char close = peek('<') ? '>' : '\'';
+                int nameEnd = format.indexOf(close, pos + 1);
+                if (nameEnd < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                pos = nameEnd + 1;
+            }
+            else if (peek('#')) {
+                int commentEnd = format.indexOf(')', pos);
+                if (commentEnd < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                pos = commentEnd + 1;
+                return Atom.opaque(CharSet.EMPTY, true);
+            }
+            else {
+                // inline options and anything newer
+                throw new UnsupportedSyntaxException();
+            }
+        }
+
+        List<List<Item>> alternatives = alternation();
+        if (!peek(')')) {
+            throw new UnsupportedSyntaxException();
+        }
+        pos++;
+        Atom atom = Atom.group(alternatives);
+        atom.atomic = atomic;
+        return atom;
+    }
+
+    /**
+     * Skips the rest of a look-around, which is not analysed.
+     */
+    private void skipGroup()
+    {
+        alternation();
+        if (!peek(')')) {
+            throw new UnsupportedSyntaxException();
+        }
+        pos++;
+    }
+
+    private CharSet characterClass()
+    {
+        boolean negated = false;
+        if (peek('^')) {
+            pos++;
+            negated = true;
+        }
+        CharSet set = CharSet.EMPTY;
+        boolean first = true;
+        while (pos < format.length()) {
+            int c = format.codePointAt(pos);
+            if (c == ']' && !first) {
+                pos++;
+                return negated ? set.complement() : set;
+            }
+            first = false;
+            if (c == '[' || (c == '&' && pos + 1 < format.length() && format.charAt(pos + 1) == '&')) {
+                // nested classes and intersections
+                throw new UnsupportedSyntaxException();
+            }
+            pos += Character.charCount(c);
+
+            CharSet member;
+            int low;
+            if (c == '\\') {
+                member = classEscape();
+                low = member.single;
+            }
+            else {
+                member = CharSet.of(c);
+                low = c;
+            }
+            if (low >= 0 && peek('-') && pos + 1 < format.length() && format.charAt(pos + 1) != ']') {
+                pos++;
+                int high = format.codePointAt(pos);
+                pos += Character.charCount(high);
+                if (high == '\\') {
+                    high = classEscape().single;
+                }
+                else if (high == '[') {
+                    throw new UnsupportedSyntaxException();
+                }
+                if (high < low) {
+                    throw new UnsupportedSyntaxException();
+                }
+                member = CharSet.range(low, high);
+            }
+            set = set.union(member);
+        }
+        throw new UnsupportedSyntaxException();
+    }
+
+    private CharSet classEscape()
+    {
+        if (pos >= format.length()) {
+            throw new UnsupportedSyntaxException();
+        }
+        int c = format.codePointAt(pos);
+        pos += Character.charCount(c);
+        CharSet shorthand = shorthand(c);
+        if (shorthand != null) {
+            return shorthand;
+        }
+        if (c == 'b') {
+            // a backspace in a class
+            return CharSet.of(0x08);
+        }
+        int codePoint = escapedCodePoint(c);
+        return CharSet.of(codePoint);
+    }
+
+    private Atom escape()
+    {
+        if (pos >= format.length()) {
+            throw new UnsupportedSyntaxException();
+        }
+        int c = format.codePointAt(pos);
+        pos += Character.charCount(c);
+        switch (c) {
+            case 'A':
+            case 'b':
+            case 'B':
+            case 'G':
+                return Atom.opaque(CharSet.UNIVERSAL, true);
+            case 'z':
+                return Atom.opaque(CharSet.END_ONLY, false);
+            case 'Z':
+                return Atom.opaque(CharSet.END_OR_NEWLINE, false);
+            case 'R':
+            case 'X':
+                return Atom.opaque(CharSet.ANY_CHARACTER, false);
+            default:
+                CharSet shorthand = shorthand(c);
+                if (shorthand != null) {
+                    return Atom.of(shorthand);
+                }
+                return Atom.of(CharSet.of(escapedCodePoint(c)));
+        }
+    }
+
+    /**
+     * Returns the set of {@code \d}, {@code \w} and the like, or null.
+     */
+    private CharSet shorthand(int c)
+    {
+        switch (c) {
+            case 'd':
+                return CharSet.range('0', '9').withNonAscii();
+            case 'D':
+                return CharSet.range('0', '9').complement();
+            case 'w':
+                return CharSet.range('a', 'z').union(CharSet.range('A', 'Z')).union(CharSet.range('0', '9')).union(CharSet.of('_')).withNonAscii();
+            case 'W':
+                return CharSet.range('a', 'z').union(CharSet.range('A', 'Z')).union(CharSet.range('0', '9')).union(CharSet.of('_')).complement();
+            case 's':
+                return CharSet.range(0x09, 0x0d).union(CharSet.of(' ')).withNonAscii();
+            case 'S':
+                return CharSet.range(0x09, 0x0d).union(CharSet.of(' ')).complement();
+            case 'h':
+                return CharSet.range('0', '9').union(CharSet.range('a', 'f')).union(CharSet.range('A', 'F'));
+            case 'H':
+                return CharSet.range('0', '9').union(CharSet.range('a', 'f')).union(CharSet.range('A', 'F')).complement();
+            case 'p':
+            case 'P':
+                if (!peek('{')) {
+                    throw new UnsupportedSyntaxException();
+                }
+                int close = format.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                pos = close + 1;
+                return CharSet.ANY_CHARACTER;
+            default:
+                return null;
+        }
+    }
+
+    private int escapedCodePoint(int c)
+    {
+        switch (c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'v':
+                return 0x0b;
+            case 'a':
+                return 0x07;
+            case 'e':
+                return 0x1b;
+            case 'x':
+                if (peek('{')) {
+                    int close = format.indexOf('}', pos);
+                    if (close < 0) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    int value = hex(pos + 1, close);
+                    pos = close + 1;
+                    return value;
+                }
+                else {
+                    int end = pos;
+                    while (end < format.length() && end < pos + 2 && Character.digit(format.charAt(end), 16) >= 0) {
+                        end++;
+                    }
+                    int value = hex(pos, end);
+                    if (value >= 0x80) {
+                        // a raw byte, not a code point
+                        throw new UnsupportedSyntaxException();
+                    }
+                    pos = end;
+                    return value;
+                }
+            case 'u':
+                if (pos + 4 > format.length()) {
+                    throw new UnsupportedSyntaxException();
+                }
+                int value = hex(pos, pos + 4);
+                pos += 4;
+                return value;
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    // back references, \k, \g, \K and the like
+                    throw new UnsupportedSyntaxException();
+                }
+                return c;
+        }
+    }
+
+    private int hex(int begin, int end)
+    {
+        if (begin == end || end - begin > 8) {
+            throw new UnsupportedSyntaxException();
+        }
+        int value = 0;
+        for (int i = begin; i < end; i++) {
+            int digit = Character.digit(format.charAt(i), 16);
+            if (digit < 0) {
+                throw new UnsupportedSyntaxException();
+            }
+            value = value * 16 + digit;
+        }
+        if (!Character.isValidCodePoint(value)) {
+            throw new UnsupportedSyntaxException();
+        }
+        return value;
+    }
+
+    private void quantifier(Item item)
+    {
+        if (pos >= format.length()) {
+            return;
+        }
+        char c = format.charAt(pos);
+        if (c == '?') {
+            item.setRange(0, 1, false);
+            pos++;
+        }
+        else if (c == '*') {
+            item.setRange(0, Item.INFINITE, false);
+            pos++;
+        }
+        else if (c == '+') {
+            item.setRange(1, Item.INFINITE, false);
+            pos++;
+        }
+        else if (c == '{') {
+            long[] range = interval();
+            if (range == null) {
+                // not an interval, so a literal '{' comes next
+                return;
+            }
+            item.setRange(range[0], range[1], true);
+        }
+        else {
+            return;
+        }
+        if (peek('?') && item.interval && item.min == item.max) {
+            // {n}? is (?:x{n})? in the Ruby syntax, a repeat of a repeat
+            throw new UnsupportedSyntaxException();
+        }
+        else if (peek('?')) {
+            pos++;
+            item.greedy = false;
+        }
+        else if (peek('+') && !item.interval) {
+            pos++;
+            item.greedy = false;
+            item.possessive = true;
+        }
+    }
+
+    private boolean quantifierFollows()
+    {
+        if (pos >= format.length()) {
+            return false;
+        }
+        char c = format.charAt(pos);
+        if (c == '?' || c == '*' || c == '+') {
+            return true;
+        }
+        if (c == '{') {
+            int saved = pos;
+            boolean isInterval = interval() != null;
+            pos = saved;
+            return isInterval;
+        }
+        return false;
+    }
+
+    private long[] interval()
+    {
+        int close = format.indexOf('}', pos);
+        if (close < 0) {
+            return null;
+        }
+        String body = format.substring(pos + 1, close);
+        int comma = body.indexOf(',');
+        String low = comma < 0 ? body : body.substring(0, comma);
+        String high = comma < 0 ? body : body.substring(comma + 1);
+        if (!isDigits(low) && !(comma >= 0 && low.isEmpty() && isDigits(high))) {
+            return null;
+        }
+        if (!high.isEmpty() && !isDigits(high)) {
+            return null;
+        }
+        if (low.length() > 9 || high.length() > 9) {
+            throw new UnsupportedSyntaxException();
+        }
+        pos = close + 1;
+        long min = low.isEmpty() ? 0 : Long.parseLong(low);
+        long max = high.isEmpty() ? Item.INFINITE : Long.parseLong(high);
+        return new long[] {min, max};
+    }
+
+    private static boolean isDigits(String s)
+    {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean peek(char c)
+    {
+        return pos < format.length() && format.charAt(pos) == c;
+    }
+
+    private static class UnsupportedSyntaxException
+            extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class Insertion
+    {
+        final int position;
+        final String text;
+        final boolean opening;
+
+        Insertion(int position, String text, boolean opening)
+        {
+            this.position = position;
+            this.text = text;
+            this.opening = opening;
+        }
+    }
+
+    /**
+     * An atom with its quantifier.
+     */
+    private static class Item
+    {
+        static final long INFINITE = Long.MAX_VALUE;
+
+        final Atom atom;
+        final int atomStart;
+        int end;
+        long min = 1;
+        long max = 1;
+        boolean interval;
+        boolean greedy = true;
+        boolean possessive;
+
+        Item(Atom atom, int atomStart)
+        {
+            this.atom = atom;
+            this.atomStart = atomStart;
+        }
+
+        void setRange(long min, long max, boolean interval)
+        {
+            this.min = min;
+            this.max = max;
+            this.interval = interval;
+        }
+
+        boolean nullable()
+        {
+            return min == 0 || atom.nullable();
+        }
+
+        CharSet first()
+        {
+            return max == 0 ? CharSet.EMPTY : atom.first();
+        }
+    }
+
+    /**
+     * One character of a set, a group, or something else that is described by what can come first.
+     */
+    private static class Atom
+    {
+        CharSet set;
+        List<List<Item>> alternatives;
+        CharSet opaqueFirst;
+        boolean opaqueNullable;
+        boolean atomic;
+        boolean dot;
+
+        static Atom of(CharSet set)
+        {
+            Atom atom = new Atom();
+            atom.set = set;
+            return atom;
+        }
+
+        static Atom group(List<List<Item>> alternatives)
+        {
+            Atom atom = new Atom();
+            atom.alternatives = alternatives;
+            return atom;
+        }
+
+        static Atom opaque(CharSet first, boolean nullable)
+        {
+            Atom atom = new Atom();
+            atom.opaqueFirst = first;
+            atom.opaqueNullable = nullable;
+            return atom;
+        }
+
+        CharSet first()
+        {
+            if (set != null) {
+                return set;
+            }
+            if (alternatives == null) {
+                return opaqueFirst;
+            }
+            CharSet first = CharSet.EMPTY;
+            for (List<Item> sequence : alternatives) {
+                CharSet sequenceFirst = CharSet.EMPTY;
+                for (Item item : sequence) {
+                    sequenceFirst = sequenceFirst.union(item.first());
+                    if (!item.nullable()) {
+                        break;
+                    }
+                }
+                first = first.union(sequenceFirst);
+            }
+            return first;
+        }
+
+        boolean nullable()
+        {
+            if (set != null) {
+                return false;
+            }
+            if (alternatives == null) {
+                return opaqueNullable;
+            }
+            for (List<Item> sequence : alternatives) {
+                boolean sequenceNullable = true;
+                for (Item item : sequence) {
+                    if (!item.nullable()) {
+                        sequenceNullable = false;
+                        break;
+                    }
+                }
+                if (sequenceNullable) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A set of characters, exact for ASCII. {@code nonAscii} stands for some or all non-ASCII
+     * characters, and {@code end} for the end of the line.
+     */
+    static class CharSet
+    {
+        static final CharSet EMPTY = new CharSet(0L, 0L, false, false, -1);
+        static final CharSet END_ONLY = new CharSet(0L, 0L, false, true, -1);
+        static final CharSet END_OR_NEWLINE = new CharSet(1L << '\n', 0L, false, true, -1);
+        static final CharSet ANY_CHARACTER = new CharSet(-1L, -1L, true, false, -1);
+        static final CharSet UNIVERSAL = new CharSet(-1L, -1L, true, true, -1);
+        static final CharSet DOT = new CharSet(~(1L << '\n'), -1L, true, false, -1);
+
+        final long low; // bits of 0x00-0x3f
+        final long high; // bits of 0x40-0x7f
+        final boolean nonAscii;
+        final boolean end;
+        final int single; // the character of a one-character set, or -1
+
+        private CharSet(long low, long high, boolean nonAscii, boolean end, int single)
+        {
+            this.low = low;
+            this.high = high;
+            this.nonAscii = nonAscii;
+            this.end = end;
+            this.single = single;
+        }
+
+        static CharSet of(int codePoint)
+        {
+            if (codePoint >= 0x80) {
+                return new CharSet(0L, 0L, true, false, codePoint);
+            }
+            return codePoint < 0x40
+                    ? new CharSet(1L << codePoint, 0L, false, false, codePoint)
+                    : new CharSet(0L, 1L << (codePoint - 0x40), false, false, codePoint);
+        }
+
+        static CharSet range(int first, int last)
+        {
+            long low = 0L;
+            long high = 0L;
+            for (int c = first; c <= Math.min(last, 0x7f); c++) {
+                if (c < 0x40) {
+                    low |= 1L << c;
+                }
+                else {
+                    high |= 1L << (c - 0x40);
+                }
+            }
+            return new CharSet(low, high, last >= 0x80, false, first == last ? first : -1);
+        }
+
+        CharSet union(CharSet other)
+        {
+            return new CharSet(low | other.low, high | other.high, nonAscii || other.nonAscii, end || other.end, -1);
+        }
+
+        CharSet withNonAscii()
+        {
+            return new CharSet(low, high, true, end, -1);
+        }
+
+        /**
+         * The characters not in a class. It may contain any non-ASCII character.
+         */
+        CharSet complement()
+        {
+            return new CharSet(~low, ~high, true, false, -1);
+        }
+
+        boolean overlaps(CharSet other)
+        {
+            return (low & other.low) != 0 || (high & other.high) != 0 || (nonAscii && other.nonAscii) || (end && other.end);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.embulk.parser.joni_regexp;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.ImmutableList;
+import org.embulk.config.ConfigException;
+
+import java.util.List;
+
+/**
+ * The {@code format} option: one regex string, or a list of them tried in turn.
+ */
+public class FormatList
+{
+    private final List<String> formats;
+
+    public FormatList(List<String> formats)
+    {
+        if (formats.isEmpty()) {
+            throw new ConfigException("\"format\" must have at least one regex");
+        }
+        this.formats = ImmutableList.copyOf(formats);
+    }
+
+    @JsonCreator
+    public static FormatList of(Object value)
+    {
+        if (value instanceof String) {
+            return new FormatList(ImmutableList.of((String) value));
+        }
+        else if (value instanceof List) {
+            ImmutableList.Builder<String> formats = ImmutableList.builder();
+            for (Object format : (List<?>) value) {
+                if (!(format instanceof String)) {
+                    throw new ConfigException(String.format("\"format\" must be a string or a list of strings: %s", value));
+                }
+                formats.add((String) format);
+            }
+            return new FormatList(formats.build());
+        }
+        else {
+            throw new ConfigException(String.format("\"format\" must be a string or a list of strings: %s", value));
+        }
+    }
+
+    @JsonValue
+    public Object toJson()
+    {
+        return formats.size() == 1 ? formats.get(0) : formats;
+    }
+
+    public List<String> getFormats()
+    {
+        return formats;
+    }
+
+    public int size()
+    {
+        return formats.size();
+    }
+
+    public String get(int index)
+    {
+        return formats.get(index);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJson().toString();
+    }
+}
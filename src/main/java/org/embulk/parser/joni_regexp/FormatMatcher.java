@@ -0,0 +1,228 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches a line against the regexes of a {@link FormatList}, and the first one that matches wins.
+ *
+ * With {@code adaptive}, the regexes are tried in descending order of their hits so far, so that
+ * the most common line shape is tried first. A hit moves the regex up past those with fewer hits.
+ * Hits are halved every {@link #DECAY_INTERVAL} matches, so the order follows changes of the mix
+ * within a task. When one line can match several regexes, the winner then depends on the lines
+ * matched before it, so adaptive ordering is only for mutually exclusive formats and is off by
+ * default.
+ *
+ * With {@code prefilter}, each regex first checks the line with its {@link LiteralPrefilter}.
+ */
+class FormatMatcher
+{
+    static final int DECAY_INTERVAL = 1 << 16;
+
+    private final Candidate[] candidates; // in try order
+    private final boolean adaptive;
+    private int sinceDecay;
+
+    private Candidate matched;
+    private boolean timedOut;
+
+    private FormatMatcher(Candidate[] candidates, boolean adaptive)
+    {
+        this.candidates = candidates;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @throws org.embulk.spi.SchemaConfigException if a named group has no column
+     */
+    public static FormatMatcher build(PluginTask task, Schema schema)
+    {
+        return build(task.getFormat(), schema, LineEncoding.of(task), task.getMatchMode(), task.getFirstline().isPresent(), task.getAdaptiveFormatOrder(), task.getLiteralPrefilter());
+    }
+
+    static FormatMatcher build(FormatList formats, Schema schema, MatchMode mode, boolean adaptive, boolean prefilter)
+    {
+        return build(formats, schema, LineEncoding.UTF8, mode, false, adaptive, prefilter);
+    }
+
+    static FormatMatcher build(FormatList formats, Schema schema, LineEncoding encoding, MatchMode mode, boolean multiline, boolean adaptive, boolean prefilter)
+    {
+        Candidate[] candidates = new Candidate[formats.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            String format = formats.get(i);
+            RegexCache.CompiledRegex compiled = RegexCache.getInstance().get(format, encoding);
+            MatchContext context = new MatchContext(compiled.getRegex(), format, mode.isAnchored(format, multiline));
+            CapturePlan plan = compiled.getCapturePlan(schema);
+            LiteralPrefilter literalPrefilter = prefilter ? LiteralPrefilter.analyze(format, encoding.getCharset()) : null;
+            candidates[i] = new Candidate(i, context, plan, unmatchedColumns(plan, schema), literalPrefilter);
+        }
+        return new FormatMatcher(candidates, adaptive);
+    }
+
+    private static Column[] unmatchedColumns(CapturePlan plan, Schema schema)
+    {
+        boolean[] captured = new boolean[schema.size()];
+        for (int i = 0; i < plan.size(); i++) {
+            captured[plan.getColumn(i).getIndex()] = true;
+        }
+        List<Column> columns = new ArrayList<>();
+        for (Column column : schema.getColumns()) {
+            if (!captured[column.getIndex()]) {
+                columns.add(column);
+            }
+        }
+        return columns.toArray(new Column[columns.size()]);
+    }
+
+    /**
+     * Searches the regexes in {@code line[lineBegin, lineEnd)}.
+     * On success, the matched regex is available through the getters until the next call.
+     */
+    public boolean search(byte[] line, int lineBegin, int lineEnd)
+    {
+        for (int i = 0; i < candidates.length; i++) {
+            Candidate candidate = candidates[i];
+            if (candidate.prefilter != null && !candidate.prefilter.mayMatch(line, lineBegin, lineEnd)) {
+                candidate.rejected++;
+                continue;
+            }
+            if (candidate.context.search(line, lineBegin, lineEnd)) {
+                candidate.hits++;
+                candidate.totalHits++;
+                matched = candidate;
+                timedOut = false;
+                if (adaptive && candidates.length > 1) {
+                    promote(i);
+                }
+                return true;
+            }
+            if (candidate.context.isTimedOut()) {
+                // the line gets no further regexes
+                matched = null;
+                timedOut = true;
+                return false;
+            }
+        }
+        matched = null;
+        timedOut = false;
+        return false;
+    }
+
+    /**
+     * Returns true when the last {@link #search} gave up because a regex ran out of time.
+     */
+    public boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    /**
+     * Runs the regexes interruptibly under {@code guard}.
+     */
+    public void setGuard(MatchWatchdog.Guard guard)
+    {
+        for (Candidate candidate : candidates) {
+            candidate.context.setGuard(guard);
+        }
+    }
+
+    private void promote(int index)
+    {
+        Candidate candidate = candidates[index];
+        int i = index;
+        while (i > 0 && candidates[i - 1].hits < candidate.hits) {
+            candidates[i] = candidates[i - 1];
+            i--;
+        }
+        candidates[i] = candidate;
+
+        if (++sinceDecay == DECAY_INTERVAL) {
+            sinceDecay = 0;
+            for (Candidate c : candidates) {
+                c.hits >>>= 1;
+            }
+        }
+    }
+
+    public MatchContext getContext()
+    {
+        return matched.context;
+    }
+
+    public CapturePlan getPlan()
+    {
+        return matched.plan;
+    }
+
+    /**
+     * Returns the columns the matched regex has no named group for.
+     */
+    public Column[] getUnmatchedColumns()
+    {
+        return matched.unmatchedColumns;
+    }
+
+    /**
+     * Returns the index of the matched regex in the {@link FormatList}.
+     */
+    public int getFormatIndex()
+    {
+        return matched.formatIndex;
+    }
+
+    public int size()
+    {
+        return candidates.length;
+    }
+
+    /**
+     * Returns the number of lines the regex at {@code formatIndex} of the {@link FormatList} matched.
+     */
+    public long getHits(int formatIndex)
+    {
+        for (Candidate candidate : candidates) {
+            if (candidate.formatIndex == formatIndex) {
+                return candidate.totalHits;
+            }
+        }
+        throw new IndexOutOfBoundsException(String.valueOf(formatIndex));
+    }
+
+    /**
+     * Returns the number of lines the prefilter of the regex at {@code formatIndex} rejected.
+     */
+    public long getRejected(int formatIndex)
+    {
+        for (Candidate candidate : candidates) {
+            if (candidate.formatIndex == formatIndex) {
+                return candidate.rejected;
+            }
+        }
+        throw new IndexOutOfBoundsException(String.valueOf(formatIndex));
+    }
+
+    private static class Candidate
+    {
+        final int formatIndex;
+        final MatchContext context;
+        final CapturePlan plan;
+        final Column[] unmatchedColumns;
+        final LiteralPrefilter prefilter;
+        long hits; // decayed, for the order
+        long totalHits;
+        long rejected;
+
+        Candidate(int formatIndex, MatchContext context, CapturePlan plan, Column[] unmatchedColumns, LiteralPrefilter prefilter)
+        {
+            this.formatIndex = formatIndex;
+            this.context = context;
+            this.plan = plan;
+            this.unmatchedColumns = unmatchedColumns;
+            this.prefilter = prefilter;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.parser.joni_regexp.cast.BytesCast;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.GuessPlugin;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.embulk.spi.util.LineDecoder;
+import org.embulk.spi.util.ListFileInput;
+import org.joni.NameEntry;
+import org.joni.Regex;
+import org.joni.exception.JOniException;
+import org.slf4j.Logger;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Guesses the columns of a {@code format} by matching it with Joni, as the parser does, against
+ * the lines of the sample.
+ *
+ * Every named group becomes a column, in the order of the groups. Its type is the first of
+ * boolean, long, double, timestamp and json that every value captured from the matched lines
+ * converts to, and string otherwise. The match ratio of the sample is logged.
+ *
+ * Nothing is guessed unless the parser type is joni_regexp and it has a format or a preset, or
+ * when the format does not compile. The ltsv preset without columns takes the labels of the
+ * sample lines as its columns, in the order they first appear.
+ */
+public class JoniRegexpGuessPlugin
+        implements GuessPlugin
+{
+    private static final Logger logger = Exec.getLogger(JoniRegexpGuessPlugin.class);
+
+    private static final List<String> BOOLEAN_WORDS = ImmutableList.of(
+            "true", "True", "TRUE", "false", "False", "FALSE",
+            "yes", "Yes", "YES", "no", "No", "NO",
+            "on", "On", "ON", "off", "Off", "OFF");
+
+    public interface GuessTask
+            extends Task, LineDecoder.DecoderTask
+    {
+        @Config("format")
+        FormatList getFormat();
+
+        @Config("skip_groups")
+        @ConfigDefault("[]")
+        List<String> getSkipGroups();
+
+        @Config("match_encoding")
+        @ConfigDefault("\"native\"")
+        MatchEncoding getMatchEncoding();
+
+        @Config("match_mode")
+        @ConfigDefault("\"auto\"")
+        MatchMode getMatchMode();
+
+        @Config("firstline")
+        @ConfigDefault("null")
+        Optional<String> getFirstline();
+
+        @Config("max_lines_per_record")
+        @ConfigDefault("500")
+        int getMaxLinesPerRecord();
+    }
+
+    @Override
+    public ConfigDiff guess(ConfigSource config, Buffer sample)
+    {
+        ConfigDiff guessed = Exec.newConfigDiff();
+        ConfigSource parserConfig = config.getNestedOrGetEmpty("parser");
+        // leave the config to the other guess plugins, as the Ruby guess did
+        if (!"joni_regexp".equals(parserConfig.get(String.class, "type", null))) {
+            return guessed;
+        }
+        if (!parserConfig.has("format") && !parserConfig.has("preset")) {
+            return guessed;
+        }
+        if (isLtsvWithoutColumns(parserConfig)) {
+            List<Map<String, String>> labels = ltsvLabels(sample, Charset.forName(parserConfig.get(String.class, "charset", "utf-8")));
+            if (labels.isEmpty()) {
+                logger.warn("preset ltsv needs columns, and no label of the sample can be a column name, so nothing is guessed");
+                return guessed;
+            }
+            parserConfig = parserConfig.deepCopy().set("columns", labels);
+        }
+        GuessTask task = Preset.expand(parserConfig).loadConfig(GuessTask.class);
+
+        List<Map<String, String>> columns;
+        try {
+            columns = guessColumns(task, sample);
+        }
+        catch (JOniException ex) {
+            logger.warn(String.format("format is not a valid regex, so nothing is guessed: %s", ex.getMessage()));
+            return guessed;
+        }
+        guessed.getNestedOrSetEmpty("parser")
+                .set("type", "joni_regexp")
+                .set("columns", columns);
+        return guessed;
+    }
+
+    private static boolean isLtsvWithoutColumns(ConfigSource parserConfig)
+    {
+        return parserConfig.has("preset") && !parserConfig.has("format") && !parserConfig.has("columns")
+                && parserConfig.get(Preset.class, "preset") == Preset.LTSV;
+    }
+
+    /**
+     * @return a string column for each label of the LTSV sample lines that can be a column name
+     * of the ltsv preset, in the order they first appear
+     */
+    static List<Map<String, String>> ltsvLabels(Buffer sample, Charset charset)
+    {
+        String text = new String(sample.array(), sample.offset(), completeLinesLength(sample, charset), charset);
+        Set<String> labels = new LinkedHashSet<>();
+        for (String line : text.split("\r?\n|\r")) {
+            for (String field : line.split("\t")) {
+                int colon = field.indexOf(':');
+                if (colon > 0) {
+                    labels.add(field.substring(0, colon));
+                }
+            }
+        }
+
+        ImmutableList.Builder<Map<String, String>> columns = ImmutableList.builder();
+        for (String label : labels) {
+            if (Preset.isGroupName(label)) {
+                columns.add(ImmutableMap.of("name", label, "type", "string"));
+            }
+            else {
+                logger.warn(String.format("label \"%s\" can not be a column name of preset ltsv, so it is not guessed", label));
+            }
+        }
+        return columns.build();
+    }
+
+    static List<Map<String, String>> guessColumns(GuessTask task, Buffer sample)
+    {
+        LineEncoding encoding = LineEncoding.of(task.getCharset(), task.getMatchEncoding());
+
+        FormatList formats = task.getSkipGroups().isEmpty() ? task.getFormat() : JoniRegexpParserPlugin.skipGroups(task.getFormat(), task.getSkipGroups(), encoding);
+        Schema schema = captureSchema(formats, encoding);
+        FormatMatcher matcher = FormatMatcher.build(formats, schema, encoding, task.getMatchMode(), task.getFirstline().isPresent(), false, false);
+        List<List<String>> values = new ArrayList<>();
+        for (int i = 0; i < schema.size(); i++) {
+            values.add(new ArrayList<String>());
+        }
+
+        long lines = 0;
+        long matched = 0;
+        try (LineSource source = newLineSource(sample, task, encoding)) {
+            while (source.nextLine()) {
+                lines++;
+                if (!matcher.search(source.getBytes(), source.getBegin(), source.getEnd())) {
+                    continue;
+                }
+                matched++;
+                MatchContext context = matcher.getContext();
+                CapturePlan plan = matcher.getPlan();
+                for (int i = 0; i < plan.size(); i++) {
+                    int begin = context.captureBegin(plan.getGroup(i));
+                    if (begin >= 0) {
+                        values.get(plan.getColumn(i).getIndex()).add(encoding.decode(context.getBytes(), begin, context.captureEnd(plan.getGroup(i))));
+                    }
+                }
+            }
+        }
+
+        logger.info(String.format(Locale.ENGLISH, "format matched %d of %d sample lines (match ratio %.2f%%)",
+                matched, lines, lines == 0 ? 0.0 : matched * 100.0 / lines));
+        if (matched == 0) {
+            logger.warn("no sample line matched format, so every column is guessed as string");
+        }
+
+        ImmutableList.Builder<Map<String, String>> columns = ImmutableList.builder();
+        for (Column column : schema.getColumns()) {
+            columns.add(guessColumn(column.getName(), values.get(column.getIndex())));
+        }
+        return columns.build();
+    }
+
+    /**
+     * @return a string column for each named group of the formats, ordered by the first format
+     * that has the name and then by the group number
+     */
+    static Schema captureSchema(FormatList formats, LineEncoding encoding)
+    {
+        List<String> names = new ArrayList<>();
+        for (String format : formats.getFormats()) {
+            Regex regex = JoniRegexpParserPlugin.buildRegex(format, encoding);
+            Map<Integer, String> groups = new TreeMap<>();
+            for (Iterator<NameEntry> entry = regex.namedBackrefIterator(); entry.hasNext(); ) {
+                NameEntry e = entry.next();
+                groups.put(e.getBackRefs()[0], CapturePlan.captureName(e));
+            }
+            for (String name : groups.values()) {
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new ConfigException(String.format("The regex has no named capturing group: %s", formats.getFormats()));
+        }
+
+        ImmutableList.Builder<Column> columns = ImmutableList.builder();
+        for (int i = 0; i < names.size(); i++) {
+            columns.add(new Column(i, names.get(i), Types.STRING));
+        }
+        return new Schema(columns.build());
+    }
+
+    private static LineSource newLineSource(Buffer sample, GuessTask task, LineEncoding encoding)
+    {
+        // the line reader releases the buffers it reads, and the sample is shared by the guess plugins
+        Buffer copy = Buffer.copyOf(sample.array(), sample.offset(), completeLinesLength(sample, task.getCharset()));
+        ListFileInput input = new ListFileInput(ImmutableList.of(ImmutableList.of(copy)));
+        LineSource lineSource = new LineReader(input, task, encoding.getCharset());
+        if (task.getFirstline().isPresent()) {
+            lineSource = new MultilineLineSource(lineSource, task.getFirstline().get(), encoding, task.getMaxLinesPerRecord(), null);
+        }
+        return lineSource;
+    }
+
+    /**
+     * @return the length of the sample without the last line, which is likely cut short when the
+     * sample does not end with a newline. Charsets that are not ASCII compatible are not cut.
+     */
+    private static int completeLinesLength(Buffer sample, Charset charset)
+    {
+        byte[] bytes = sample.array();
+        int offset = sample.offset();
+        int length = sample.limit();
+        if (!LineReader.isAsciiCompatible(charset)) {
+            return length;
+        }
+        for (int i = length; i > 0; i--) {
+            byte b = bytes[offset + i - 1];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        // a single line
+        return length;
+    }
+
+    /**
+     * @return the column config of {@code name} for the captured {@code values}
+     */
+    static Map<String, String> guessColumn(String name, List<String> values)
+    {
+        if (!values.isEmpty()) {
+            if (BOOLEAN_WORDS.containsAll(values)) {
+                return ImmutableMap.of("name", name, "type", "boolean");
+            }
+            if (allLongs(values)) {
+                return ImmutableMap.of("name", name, "type", "long");
+            }
+            if (allDoubles(values)) {
+                return ImmutableMap.of("name", name, "type", "double");
+            }
+            String format = TimestampFormatGuess.guess(values);
+            if (format != null) {
+                return ImmutableMap.of("name", name, "type", "timestamp", "format", format);
+            }
+            if (allJson(values)) {
+                return ImmutableMap.of("name", name, "type", "json");
+            }
+        }
+        return ImmutableMap.of("name", name, "type", "string");
+    }
+
+    private static boolean allLongs(List<String> values)
+    {
+        for (String value : values) {
+            int digits = digitsStart(value);
+            if (!isDigits(value, digits, value.length()) || hasLeadingZero(value, digits, value.length())) {
+                return false;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            try {
+                BytesCast.asLong(bytes, 0, bytes.length);
+            }
+            catch (DataException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accepts plain decimal notation only, not the "NaN", "Infinity" or "1d" that
+     * {@link Double#parseDouble(String)} takes.
+     */
+    private static boolean allDoubles(List<String> values)
+    {
+        for (String value : values) {
+            int digits = digitsStart(value);
+            int end = value.length();
+            int exponent = Math.max(value.indexOf('e'), value.indexOf('E'));
+            if (exponent >= 0) {
+                int exponentDigits = exponent + 1 < end && (value.charAt(exponent + 1) == '+' || value.charAt(exponent + 1) == '-') ? exponent + 2 : exponent + 1;
+                if (!isDigits(value, exponentDigits, end)) {
+                    return false;
+                }
+                end = exponent;
+            }
+            int point = value.indexOf('.');
+            int integerEnd = point >= 0 && point < end ? point : end;
+            if (!isDigits(value, digits, integerEnd) || hasLeadingZero(value, digits, integerEnd)) {
+                return false;
+            }
+            if (integerEnd < end && !isDigits(value, integerEnd + 1, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean allJson(List<String> values)
+    {
+        JsonBytesParser parser = new JsonBytesParser();
+        for (String value : values) {
+            if (!(value.startsWith("{") || value.startsWith("["))) {
+                return false;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            try {
+                parser.parse(bytes, 0, bytes.length);
+            }
+            catch (JsonRecordValidateException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digitsStart(String value)
+    {
+        return !value.isEmpty() && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+    }
+
+    private static boolean isDigits(String value, int begin, int end)
+    {
+        if (begin >= end) {
+            return false;
+        }
+        for (int i = begin; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a zero padded number such as a zip code is kept as a string, so that it keeps its zeros
+    private static boolean hasLeadingZero(String value, int begin, int end)
+    {
+        return end - begin > 1 && value.charAt(begin) == '0';
+    }
+}
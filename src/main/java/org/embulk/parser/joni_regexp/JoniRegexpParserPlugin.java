@@ -1,6 +1,7 @@
 package org.embulk.parser.joni_regexp;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigException;
@@ -8,7 +9,6 @@ import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
 import org.embulk.spi.Column;
-import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.FileInput;
 import org.embulk.spi.PageBuilder;
@@ -18,27 +18,30 @@ import org.embulk.spi.Schema;
 import org.embulk.spi.SchemaConfig;
 import org.embulk.spi.time.TimestampParser;
 import org.embulk.spi.util.LineDecoder;
-import org.embulk.spi.util.Timestamps;
-import org.jcodings.specific.UTF8Encoding;
-import org.joni.Matcher;
 import org.joni.NameEntry;
-import org.joni.Option;
 import org.joni.Regex;
-import org.joni.Region;
-import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
 import org.slf4j.Logger;
 
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class JoniRegexpParserPlugin
         implements ParserPlugin
 {
     private static final Logger logger = Exec.getLogger(JoniRegexpParserPlugin.class);
 
+    /**
+     * Numbers the tasks run in this JVM, for the names of their MBeans and rejected line files.
+     */
+    private static final AtomicLong taskSequence = new AtomicLong();
+
+    static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
     public interface TypecastColumnOption
             extends Task
     {
@@ -47,6 +50,14 @@ public class JoniRegexpParserPlugin
         public Optional<Boolean> getTypecast();
     }
 
+    public interface DictionaryColumnOption
+            extends Task
+    {
+        @Config("dictionary")
+        @ConfigDefault("null")
+        public Optional<Boolean> getDictionary();
+    }
+
     public interface PluginTask
             extends Task, LineDecoder.DecoderTask, TimestampParser.Task
     {
@@ -57,22 +68,147 @@ public class JoniRegexpParserPlugin
         @ConfigDefault("false")
         boolean getStopOnInvalidRecord();
 
+        @Config("preset")
+        @ConfigDefault("null")
+        Optional<Preset> getPreset();
+
         @Config("format")
-        String getFormat();
+        FormatList getFormat();
+
+        void setFormat(FormatList format);
+
+        @Config("skip_groups")
+        @ConfigDefault("[]")
+        List<String> getSkipGroups();
+
+        @Config("where")
+        @ConfigDefault("[]")
+        List<WhereCondition> getWhere();
+
+        @Config("optimize_format")
+        @ConfigDefault("true")
+        boolean getOptimizeFormat();
+
+        @Config("match_encoding")
+        @ConfigDefault("\"native\"")
+        MatchEncoding getMatchEncoding();
+
+        @Config("match_mode")
+        @ConfigDefault("\"auto\"")
+        MatchMode getMatchMode();
+
+        @Config("adaptive_format_order")
+        @ConfigDefault("false")
+        boolean getAdaptiveFormatOrder();
+
+        @Config("literal_prefilter")
+        @ConfigDefault("true")
+        boolean getLiteralPrefilter();
+
+        @Config("firstline")
+        @ConfigDefault("null")
+        Optional<String> getFirstline();
+
+        @Config("max_lines_per_record")
+        @ConfigDefault("500")
+        int getMaxLinesPerRecord();
 
         @Config("default_typecast")
         @ConfigDefault("true")
         Boolean getDefaultTypecast();
+
+        @Config("timestamp_cache_size")
+        @ConfigDefault("8")
+        int getTimestampCacheSize();
+
+        @Config("default_dictionary")
+        @ConfigDefault("false")
+        boolean getDefaultDictionary();
+
+        @Config("dictionary_size")
+        @ConfigDefault("256")
+        int getDictionarySize();
+
+        @Config("dictionary_min_hit_ratio")
+        @ConfigDefault("0.5")
+        double getDictionaryMinHitRatio();
+
+        @Config("read_ahead")
+        @ConfigDefault("false")
+        boolean getReadAhead();
+
+        @Config("read_ahead_queue_size")
+        @ConfigDefault("16")
+        int getReadAheadQueueSize();
+
+        @Config("parallelism")
+        @ConfigDefault("1")
+        int getParallelism();
+
+        @Config("preserve_order")
+        @ConfigDefault("true")
+        boolean getPreserveOrder();
+
+        @Config("metrics_log_interval")
+        @ConfigDefault("60")
+        long getMetricsLogInterval();
+
+        @Config("metrics_jmx")
+        @ConfigDefault("true")
+        boolean getMetricsJmx();
+
+        @Config("max_warnings_per_minute")
+        @ConfigDefault("100")
+        int getMaxWarningsPerMinute();
+
+        @Config("rejected_lines_path")
+        @ConfigDefault("null")
+        Optional<String> getRejectedLinesPath();
+
+        @Config("skip_conversion_errors")
+        @ConfigDefault("false")
+        boolean getSkipConversionErrors();
+
+        @Config("match_timeout_ms")
+        @ConfigDefault("null")
+        Optional<Long> getMatchTimeoutMs();
     }
 
     @Override
     public void transaction(ConfigSource config, ParserPlugin.Control control)
     {
-        PluginTask task = config.loadConfig(PluginTask.class);
+        PluginTask task = Preset.expand(config).loadConfig(PluginTask.class);
 
         Schema schema = task.getColumns().toSchema();
 
+        skipGroups(task, schema);
         validateSchema(task, schema);
+        if (task.getReadAhead() && task.getReadAheadQueueSize() < 1) {
+            throw new ConfigException(String.format("read_ahead_queue_size must be positive but got %d", task.getReadAheadQueueSize()));
+        }
+        if (task.getMatchTimeoutMs().isPresent() && task.getMatchTimeoutMs().get() < 1) {
+            throw new ConfigException(String.format("match_timeout_ms must be positive but got %d", task.getMatchTimeoutMs().get()));
+        }
+        if (task.getTimestampCacheSize() < 0) {
+            throw new ConfigException(String.format("timestamp_cache_size must not be negative but got %d", task.getTimestampCacheSize()));
+        }
+        if (task.getDictionarySize() < 1 || task.getDictionarySize() > MAX_DICTIONARY_SIZE) {
+            throw new ConfigException(String.format("dictionary_size must be between 1 and %d but got %d", MAX_DICTIONARY_SIZE, task.getDictionarySize()));
+        }
+        if (task.getDictionaryMinHitRatio() < 0.0 || task.getDictionaryMinHitRatio() > 1.0) {
+            throw new ConfigException(String.format("dictionary_min_hit_ratio must be between 0 and 1 but got %s", task.getDictionaryMinHitRatio()));
+        }
+        if (task.getParallelism() < 1) {
+            throw new ConfigException(String.format("parallelism must be positive but got %d", task.getParallelism()));
+        }
+        if (task.getFirstline().isPresent()) {
+            if (task.getMaxLinesPerRecord() < 1) {
+                throw new ConfigException(String.format("max_lines_per_record must be positive but got %d", task.getMaxLinesPerRecord()));
+            }
+            buildRegex(task.getFirstline().get(), LineEncoding.of(task)); // throw org.joni.exception.SyntaxException if regex is invalid.
+        }
+        analyzeFormat(task);
+        RecordFilter.of(task, schema); // throw ConfigException if a where condition is invalid
 
         control.run(task.dump(), schema);
     }
@@ -82,88 +218,222 @@ public class JoniRegexpParserPlugin
             FileInput input, PageOutput output)
     {
         PluginTask task = taskSource.loadTask(PluginTask.class);
-        LineDecoder lineDecoder = new LineDecoder(input, task);
-        PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, output);
-        TimestampParser[] timestampParsers = Timestamps.newTimestampColumnParsers(task, task.getColumns());
-
-        ColumnVisitorImpl visitor = new ColumnVisitorImpl(task, schema, pageBuilder, timestampParsers);
+        long taskNumber = taskSequence.getAndIncrement();
+        List<RecordParser> parsers;
 
-        Regex regex = buildRegex(task);
-
-        while (input.nextFile()) {
-            while (true) {
-                String line = lineDecoder.poll();
-//                logger.debug(String.format(Locale.ENGLISH,"line = %s",line));
-                if (line == null) {
-                    break;
+        try (ParserMetrics metrics = ParserMetrics.start(task, taskNumber);
+                RejectedLines rejects = RejectedLines.of(task, taskNumber);
+                MatchWatchdog watchdog = task.getMatchTimeoutMs().isPresent() ? new MatchWatchdog(task.getMatchTimeoutMs().get()) : null) {
+            if (task.getParallelism() > 1) {
+                try (ParallelParser parallelParser = new ParallelParser(task, schema, metrics, rejects, watchdog, output, task.getParallelism(), task.getPreserveOrder());
+                        LineSource lineReader = newLineSource(input, task, watchdog)) {
+                    parallelParser.run(lineReader);
+                    parsers = parallelParser.getRecordParsers();
                 }
-                byte[] line_bytes = line.getBytes(StandardCharsets.UTF_8);
-                Matcher matcher = regex.matcher(line_bytes);
-                int result = matcher.search(0, line_bytes.length, Option.DEFAULT);
-
-                if (result != -1) {
-                    Region region = matcher.getEagerRegion();
-                    for (Iterator<NameEntry> entry = regex.namedBackrefIterator(); entry.hasNext(); ) {
-                        NameEntry e = entry.next();
-                        String name = captureName(e);
-
-                        int number = e.getBackRefs()[0];
-                        int begin = region.beg[number];
-                        int end = region.end[number];
-                        String strValue = new String(line_bytes, begin, end - begin, StandardCharsets.UTF_8);
-
-                        logger.debug(String.format(Locale.ENGLISH, "<%s> = %s", name, strValue));
-                        setValue(schema, visitor, name, strValue);
+            }
+            else {
+                PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, output);
+                RecordParser parser = new RecordParser(task, schema, pageBuilder, metrics, rejects, watchdog);
+
+                try (LineSource lineReader = newLineSource(input, task, watchdog)) {
+                    while (lineReader.nextLine()) {
+                        parser.parseLine(lineReader.getBytes(), lineReader.getBegin(), lineReader.getEnd());
                     }
-                    pageBuilder.addRecord();
                 }
-                else if (task.getStopOnInvalidRecord() == false) {
-                    logger.warn(String.format(Locale.ENGLISH, "skip unmatched line = %s", line));
-                }
-                else {
-                    throw new DataException(String.format("Invalid record at line %s", line));
+                finally {
+                    parser.flushMetrics();
                 }
+                pageBuilder.finish();
+                parsers = ImmutableList.of(parser);
             }
         }
-        pageBuilder.finish();
+        logFormatHits(task, parsers);
+        logTimestampCaches(schema, parsers);
+        logDictionaries(schema, parsers);
+        logRegexCache();
     }
 
-    private void setValue(Schema schema, ColumnVisitorImpl visitor, String name, String strValue)
+    /**
+     * Makes the groups of skip_groups non-capturing.
+     */
+    private void skipGroups(PluginTask task, Schema schema)
     {
-        try {
-            Value value = ValueFactory.newString(strValue);
-            Column column = schema.lookupColumn(name);
-            visitor.setValue(value);
-            column.visit(visitor);
+        if (task.getSkipGroups().isEmpty()) {
+            return;
+        }
+        for (Column column : schema.getColumns()) {
+            if (task.getSkipGroups().contains(column.getName())) {
+                throw new ConfigException(String.format("Group \"%s\" in skip_groups is a column", column.getName()));
+            }
         }
-        catch (Exception ex) {
-            throw new DataException(String.format(Locale.ENGLISH, "Set value failed. column = \"%s\" value = \"%s\", reason = \"%s\"", name, strValue, ex.getMessage()));
+        FormatList skipped = skipGroups(task.getFormat(), task.getSkipGroups(), LineEncoding.of(task));
+        for (int i = 0; i < skipped.size(); i++) {
+            if (!skipped.get(i).equals(task.getFormat().get(i))) {
+                logger.info(String.format(Locale.ENGLISH, "format[%d] without the captures of skip_groups: %s", i, skipped.get(i)));
+            }
         }
+        task.setFormat(skipped);
     }
 
-    private Regex buildRegex(PluginTask task)
+    /**
+     * @throws ConfigException if a name in {@code skipGroups} is not a named group of any format
+     */
+    static FormatList skipGroups(FormatList formats, List<String> skipGroups, LineEncoding encoding)
     {
-        String format = task.getFormat();
-        byte[] pattern = format.getBytes(StandardCharsets.UTF_8);
-        // throw org.joni.exception.SyntaxException if regex is invalid.
-        return new Regex(pattern, 0, pattern.length, Option.NONE, UTF8Encoding.INSTANCE);
+        Set<String> names = new HashSet<>(skipGroups);
+        Set<String> found = new HashSet<>();
+        ImmutableList.Builder<String> skipped = ImmutableList.builder();
+        for (String format : formats.getFormats()) {
+            for (Iterator<NameEntry> entry = buildRegex(format, encoding).namedBackrefIterator(); entry.hasNext(); ) {
+                found.add(CapturePlan.captureName(entry.next()));
+            }
+            skipped.add(CapturePlan.skipGroups(format, names));
+        }
+        for (String name : skipGroups) {
+            if (!found.contains(name)) {
+                throw new ConfigException(String.format("Group \"%s\" in skip_groups is not in the regex: %s", name, formats));
+            }
+        }
+        return new FormatList(skipped.build());
+    }
+
+    /**
+     * Warns about formats that can backtrack a lot, and rewrites them when optimize_format is true.
+     */
+    private void analyzeFormat(PluginTask task)
+    {
+        ImmutableList.Builder<String> optimized = ImmutableList.builder();
+        boolean rewritten = false;
+        for (int i = 0; i < task.getFormat().size(); i++) {
+            FormatAnalyzer.Result result = FormatAnalyzer.analyze(task.getFormat().get(i));
+            for (String warning : result.getWarnings()) {
+                logger.warn(String.format(Locale.ENGLISH, "format[%d]: %s", i, warning));
+            }
+            if (task.getOptimizeFormat() && result.isRewritten()) {
+                logger.info(String.format(Locale.ENGLISH, "format[%d] is rewritten to avoid backtracking: %s => %s",
+                        i, result.getFormat(), result.getOptimized()));
+                rewritten = true;
+            }
+            optimized.add(task.getOptimizeFormat() ? result.getOptimized() : result.getFormat());
+        }
+        if (rewritten) {
+            task.setFormat(new FormatList(optimized.build()));
+        }
+    }
+
+    private LineSource newLineSource(FileInput input, PluginTask task, MatchWatchdog watchdog)
+    {
+        LineEncoding encoding = LineEncoding.of(task);
+        LineSource lineSource = new LineReader(input, task, encoding.getCharset());
+        if (task.getFirstline().isPresent()) {
+            lineSource = new MultilineLineSource(lineSource, task.getFirstline().get(), encoding, task.getMaxLinesPerRecord(), watchdog);
+        }
+        if (task.getReadAhead()) {
+            return new ReadAheadLineReader(lineSource, task.getReadAheadQueueSize(), Exec.session());
+        }
+        return lineSource;
     }
 
-    private String captureName(NameEntry e)
+    private void logFormatHits(PluginTask task, List<RecordParser> parsers)
     {
-        return new String(e.name, e.nameP, e.nameEnd - e.nameP);
+        for (int i = 0; i < task.getFormat().size(); i++) {
+            long hits = 0;
+            long rejected = 0;
+            for (RecordParser parser : parsers) {
+                hits += parser.getMatcher().getHits(i);
+                rejected += parser.getMatcher().getRejected(i);
+            }
+            if (task.getFormat().size() > 1) {
+                logger.info(String.format(Locale.ENGLISH, "format[%d] matched %d lines: %s", i, hits, task.getFormat().get(i)));
+            }
+            if (rejected > 0) {
+                logger.info(String.format(Locale.ENGLISH, "literal prefilter of format[%d] rejected %d lines", i, rejected));
+            }
+        }
+    }
+
+    private void logTimestampCaches(Schema schema, List<RecordParser> parsers)
+    {
+        for (Column column : schema.getColumns()) {
+            long hits = 0;
+            long misses = 0;
+            for (RecordParser parser : parsers) {
+                TimestampCache cache = parser.getTimestampCache(column);
+                if (cache != null) {
+                    hits += cache.getHits();
+                    misses += cache.getMisses();
+                }
+            }
+            if (hits + misses > 0) {
+                logger.info(String.format(Locale.ENGLISH, "timestamp cache of column \"%s\": hits = %d, misses = %d",
+                        column.getName(), hits, misses));
+            }
+        }
+    }
+
+    private void logDictionaries(Schema schema, List<RecordParser> parsers)
+    {
+        for (Column column : schema.getColumns()) {
+            long hits = 0;
+            long lookups = 0;
+            int disabled = 0;
+            for (RecordParser parser : parsers) {
+                ValueDictionary dictionary = parser.getDictionary(column);
+                if (dictionary != null) {
+                    hits += dictionary.getHits();
+                    lookups += dictionary.getLookups();
+                    disabled += dictionary.isDisabled() ? 1 : 0;
+                }
+            }
+            if (lookups > 0) {
+                logger.info(String.format(Locale.ENGLISH, "dictionary of column \"%s\": hits = %d, lookups = %d (hit ratio %.2f%%)%s",
+                        column.getName(), hits, lookups, hits * 100.0 / lookups,
+                        disabled > 0 ? String.format(Locale.ENGLISH, ", disabled for a low hit ratio in %d of %d parsers", disabled, parsers.size()) : ""));
+            }
+        }
+    }
+
+    private void logRegexCache()
+    {
+        RegexCache cache = RegexCache.getInstance();
+        logger.debug(String.format(Locale.ENGLISH, "regex cache: hits = %d, misses = %d, evictions = %d, size = %d",
+                cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.size()));
+    }
+
+    static Regex buildRegex(String format)
+    {
+        return buildRegex(format, LineEncoding.UTF8);
+    }
+
+    static Regex buildRegex(String format, LineEncoding encoding)
+    {
+        // throw org.joni.exception.SyntaxException if regex is invalid.
+        return RegexCache.getInstance().get(format, encoding).getRegex();
     }
 
     private void validateSchema(PluginTask task, Schema schema)
     {
-        Regex regex = buildRegex(task);
-        if (regex.numberOfNames() < 1) {
-            throw new ConfigException("The regex has no named capturing group");
+        LineEncoding encoding = LineEncoding.of(task);
+        for (String format : task.getFormat().getFormats()) {
+            RegexCache.CompiledRegex compiled = RegexCache.getInstance().get(format, encoding);
+            if (compiled.getRegex().numberOfNames() < 1) {
+                throw new ConfigException(String.format("The regex has no named capturing group: %s", format));
+            }
+            compiled.getCapturePlan(schema); // throw SchemaConfigException;
+        }
+        if (task.getLiteralPrefilter()) {
+            logPrefilters(task.getFormat(), encoding);
         }
-        for (Iterator<NameEntry> entry = regex.namedBackrefIterator(); entry.hasNext(); ) {
-            NameEntry e = entry.next();
-            String captureName = captureName(e);
-            schema.lookupColumn(captureName); // throw SchemaConfigException;
+    }
+
+    private void logPrefilters(FormatList formats, LineEncoding encoding)
+    {
+        for (int i = 0; i < formats.size(); i++) {
+            LiteralPrefilter prefilter = LiteralPrefilter.analyze(formats.get(i), encoding.getCharset());
+            if (prefilter != null) {
+                logger.info(String.format(Locale.ENGLISH, "literal prefilter of format[%d]: literals = %s, min length = %d",
+                        i, prefilter.getLiterals(), prefilter.getMinLength()));
+            }
         }
     }
 }
@@ -0,0 +1,425 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.cast.BytesCast;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses JSON (RFC 7159) from a byte range, such as a regex capture, straight into a msgpack
+ * {@link Value}, without building a String of the whole text first.
+ *
+ * Strings without escapes or non-ASCII bytes are copied as they are, and other strings are
+ * decoded segment by segment between the escapes. Integers up to 18 digits are accumulated into a
+ * long, and numbers with a fraction or exponent go through {@link BytesCast#asDouble}. Objects
+ * keep duplicate keys in order, as Embulk's JsonParser does.
+ *
+ * It accepts the same input as Embulk's JsonParser, which enables Jackson's
+ * ALLOW_UNQUOTED_CONTROL_CHARS and ALLOW_NON_NUMERIC_NUMBERS: control characters may appear
+ * unescaped in strings, and {@code NaN}, {@code Infinity}, {@code -Infinity}, {@code +Infinity},
+ * {@code -INF} and {@code +INF} are parsed as floats.
+ *
+ * An instance keeps the element lists of the containers being parsed for reuse, so it is meant to
+ * be created once per task and is not thread safe. Input in a charset other than UTF-8 is
+ * transcoded to UTF-8 first, because bytes such as {@code \} can be part of a multibyte character
+ * in those charsets.
+ */
+class JsonBytesParser
+{
+    static final int MAX_DEPTH = 1000;
+
+    // the digits of any 18 digit number fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final boolean utf8;
+    private final Charset charset;
+    private final List<List<Value>> elements = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+
+    private byte[] bytes;
+    private int begin;
+    private int end;
+    private int pos;
+
+    public JsonBytesParser()
+    {
+        this(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param charset the charset of the bytes to parse
+     */
+    public JsonBytesParser(Charset charset)
+    {
+        this.charset = charset;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses {@code bytes[begin, end)} as one JSON value surrounded by optional whitespace.
+     *
+     * @throws JsonRecordValidateException if the bytes are not valid JSON
+     */
+    public Value parse(byte[] bytes, int begin, int end)
+    {
+        if (utf8) {
+            this.bytes = bytes;
+            this.begin = begin;
+            this.end = end;
+        }
+        else {
+            this.bytes = new String(bytes, begin, end - begin, charset).getBytes(StandardCharsets.UTF_8);
+            this.begin = 0;
+            this.end = this.bytes.length;
+        }
+        this.pos = this.begin;
+        try {
+            skipWhitespace();
+            Value value = parseValue(0);
+            skipWhitespace();
+            if (pos < this.end) {
+                throw error("unexpected character after the value");
+            }
+            return value;
+        }
+        finally {
+            this.bytes = null;
+        }
+    }
+
+    private Value parseValue(int depth)
+    {
+        if (pos == end) {
+            throw error("unexpected end of input");
+        }
+        switch (bytes[pos]) {
+            case '{':
+                return parseObject(depth + 1);
+            case '[':
+                return parseArray(depth + 1);
+            case '"':
+                return parseString();
+            case 't':
+                expectLiteral("true");
+                return ValueFactory.newBoolean(true);
+            case 'f':
+                expectLiteral("false");
+                return ValueFactory.newBoolean(false);
+            case 'n':
+                expectLiteral("null");
+                return ValueFactory.newNil();
+            case 'N':
+                expectLiteral("NaN");
+                return ValueFactory.newFloat(Double.NaN);
+            case 'I':
+                expectLiteral("Infinity");
+                return ValueFactory.newFloat(Double.POSITIVE_INFINITY);
+            default:
+                return parseNumber();
+        }
+    }
+
+    private Value parseObject(int depth)
+    {
+        List<Value> values = elementsAt(depth);
+        pos++;
+        skipWhitespace();
+        if (pos < end && bytes[pos] == '}') {
+            pos++;
+            return ValueFactory.newMap(new Value[0], true);
+        }
+        while (true) {
+            if (pos == end || bytes[pos] != '"') {
+                throw error("expected a string key");
+            }
+            values.add(parseString());
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            values.add(parseValue(depth));
+            skipWhitespace();
+            if (pos < end && bytes[pos] == ',') {
+                pos++;
+                skipWhitespace();
+            }
+            else if (pos < end && bytes[pos] == '}') {
+                pos++;
+                break;
+            }
+            else {
+                throw error("expected ',' or '}'");
+            }
+        }
+        Value[] keyValues = values.toArray(new Value[values.size()]);
+        values.clear();
+        return ValueFactory.newMap(keyValues, true);
+    }
+
+    private Value parseArray(int depth)
+    {
+        List<Value> values = elementsAt(depth);
+        pos++;
+        skipWhitespace();
+        if (pos < end && bytes[pos] == ']') {
+            pos++;
+            return ValueFactory.newArray(new Value[0], true);
+        }
+        while (true) {
+            values.add(parseValue(depth));
+            skipWhitespace();
+            if (pos < end && bytes[pos] == ',') {
+                pos++;
+                skipWhitespace();
+            }
+            else if (pos < end && bytes[pos] == ']') {
+                pos++;
+                break;
+            }
+            else {
+                throw error("expected ',' or ']'");
+            }
+        }
+        Value[] array = values.toArray(new Value[values.size()]);
+        values.clear();
+        return ValueFactory.newArray(array, true);
+    }
+
+    private List<Value> elementsAt(int depth)
+    {
+        if (depth > MAX_DEPTH) {
+            throw error(String.format("nested deeper than %d", MAX_DEPTH));
+        }
+        while (elements.size() < depth) {
+            elements.add(new ArrayList<Value>());
+        }
+        List<Value> values = elements.get(depth - 1);
+        // left over by a failed parse
+        values.clear();
+        return values;
+    }
+
+    private Value parseString()
+    {
+        int start = ++pos;
+        while (pos < end) {
+            byte b = bytes[pos];
+            if (b == '"') {
+                pos++;
+                // not newString(bytes, off, len), which takes len as the end index in msgpack 0.8
+                return ValueFactory.newString(Arrays.copyOfRange(bytes, start, pos - 1), true);
+            }
+            if (b == '\\' || b < 0) {
+                // an escape or a non-ASCII byte, which is negative
+                break;
+            }
+            pos++;
+        }
+        return parseEscapedString(start);
+    }
+
+    private Value parseEscapedString(int start)
+    {
+        text.setLength(0);
+        int segment = start;
+        while (pos < end) {
+            byte b = bytes[pos];
+            if (b == '"') {
+                appendSegment(segment, pos);
+                pos++;
+                return ValueFactory.newString(text.toString());
+            }
+            else if (b == '\\') {
+                appendSegment(segment, pos);
+                pos++;
+                text.append(parseEscape());
+                segment = pos;
+            }
+            else {
+                pos++;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private void appendSegment(int from, int to)
+    {
+        if (from < to) {
+            text.append(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        }
+    }
+
+    private char parseEscape()
+    {
+        if (pos == end) {
+            throw error("unterminated string");
+        }
+        byte b = bytes[pos++];
+        switch (b) {
+            case '"':
+                return '"';
+            case '\\':
+                return '\\';
+            case '/':
+                return '/';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                return parseHexChar();
+            default:
+                pos--;
+                throw error("invalid escape");
+        }
+    }
+
+    private char parseHexChar()
+    {
+        if (end - pos < 4) {
+            throw error("invalid \\u escape");
+        }
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(bytes[pos + i], 16);
+            if (digit < 0) {
+                throw error("invalid \\u escape");
+            }
+            c = c * 16 + digit;
+        }
+        pos += 4;
+        return (char) c;
+    }
+
+    private Value parseNumber()
+    {
+        int start = pos;
+        if (bytes[pos] == '-' || bytes[pos] == '+') {
+            pos++;
+            if (pos < end && bytes[pos] == 'I') {
+                return parseInfinity(bytes[start] == '-');
+            }
+            if (bytes[start] == '+') {
+                pos = start;
+                throw error("unexpected character");
+            }
+        }
+        int digitsStart = pos;
+        if (pos < end && bytes[pos] == '0') {
+            pos++;
+        }
+        else if (pos < end && isDigit(bytes[pos])) {
+            skipDigits();
+        }
+        else {
+            pos = start;
+            throw error("unexpected character");
+        }
+        int digits = pos - digitsStart;
+        boolean integral = true;
+        if (pos < end && bytes[pos] == '.') {
+            pos++;
+            requireDigits();
+            integral = false;
+        }
+        if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+            pos++;
+            if (pos < end && (bytes[pos] == '+' || bytes[pos] == '-')) {
+                pos++;
+            }
+            requireDigits();
+            integral = false;
+        }
+
+        if (!integral) {
+            return ValueFactory.newFloat(BytesCast.asDouble(bytes, start, pos));
+        }
+        if (digits > MAX_LONG_DIGITS) {
+            return ValueFactory.newInteger(new BigInteger(new String(bytes, start, pos - start, StandardCharsets.US_ASCII)));
+        }
+        long value = 0;
+        for (int i = digitsStart; i < pos; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return ValueFactory.newInteger(start < digitsStart ? -value : value);
+    }
+
+    private Value parseInfinity(boolean negative)
+    {
+        if (end - pos > 1 && bytes[pos + 1] == 'n') {
+            expectLiteral("Infinity");
+        }
+        else {
+            expectLiteral("INF");
+        }
+        return ValueFactory.newFloat(negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+    }
+
+    private void requireDigits()
+    {
+        if (pos == end || !isDigit(bytes[pos])) {
+            throw error("expected a digit");
+        }
+        skipDigits();
+    }
+
+    private void skipDigits()
+    {
+        while (pos < end && isDigit(bytes[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+
+    private void expectLiteral(String literal)
+    {
+        if (end - pos < literal.length()) {
+            throw error("unexpected character");
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (bytes[pos + i] != literal.charAt(i)) {
+                throw error("unexpected character");
+            }
+        }
+        pos += literal.length();
+    }
+
+    private void expect(char c)
+    {
+        if (pos == end || bytes[pos] != c) {
+            throw error(String.format("expected '%c'", c));
+        }
+        pos++;
+    }
+
+    private void skipWhitespace()
+    {
+        while (pos < end) {
+            byte b = bytes[pos];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private JsonRecordValidateException error(String message)
+    {
+        return new JsonRecordValidateException(String.format("invalid JSON at offset %d: %s", pos - begin, message));
+    }
+}
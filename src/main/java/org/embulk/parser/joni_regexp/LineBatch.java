@@ -0,0 +1,79 @@
+package org.embulk.parser.joni_regexp;
+
+import java.util.Arrays;
+
+/**
+ * Lines copied out of a {@link LineSource} into one byte array, so that they can be handed over
+ * to another thread. A batch holds up to {@link #MAX_LINES} lines, and more than
+ * {@link #MAX_BYTES} bytes only when a single line is longer than that.
+ */
+class LineBatch
+{
+    static final int MAX_LINES = 1024;
+    static final int MAX_BYTES = 64 * 1024;
+
+    private byte[] bytes;
+    private int length;
+    private final int[] begins = new int[MAX_LINES];
+    private final int[] ends = new int[MAX_LINES];
+    private final boolean[] fileStarts = new boolean[MAX_LINES];
+    private int size;
+
+    public LineBatch()
+    {
+        this.bytes = new byte[MAX_BYTES];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    public int getBegin(int index)
+    {
+        return begins[index];
+    }
+
+    public int getEnd(int index)
+    {
+        return ends[index];
+    }
+
+    public boolean isFileStart(int index)
+    {
+        return fileStarts[index];
+    }
+
+    /**
+     * @return true when a line of {@code lineLength} bytes does not fit in this batch any more
+     */
+    public boolean isFull(int lineLength)
+    {
+        return size == MAX_LINES || (size > 0 && length + lineLength > MAX_BYTES);
+    }
+
+    public void add(byte[] lineBytes, int lineBegin, int lineEnd, boolean fileStart)
+    {
+        int lineLength = lineEnd - lineBegin;
+        if (length + lineLength > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + lineLength));
+        }
+        System.arraycopy(lineBytes, lineBegin, bytes, length, lineLength);
+        begins[size] = length;
+        ends[size] = length + lineLength;
+        fileStarts[size] = fileStart;
+        length += lineLength;
+        size++;
+    }
+
+    public void clear()
+    {
+        length = 0;
+        size = 0;
+    }
+}
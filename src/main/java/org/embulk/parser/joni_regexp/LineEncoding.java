@@ -0,0 +1,137 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableMap;
+import org.embulk.config.ConfigException;
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.jcodings.Encoding;
+import org.jcodings.specific.BIG5Encoding;
+import org.jcodings.specific.EUCJPEncoding;
+import org.jcodings.specific.EUCKREncoding;
+import org.jcodings.specific.GB18030Encoding;
+import org.jcodings.specific.GBKEncoding;
+import org.jcodings.specific.ISO8859_15Encoding;
+import org.jcodings.specific.ISO8859_1Encoding;
+import org.jcodings.specific.ISO8859_2Encoding;
+import org.jcodings.specific.ISO8859_5Encoding;
+import org.jcodings.specific.ISO8859_7Encoding;
+import org.jcodings.specific.ISO8859_9Encoding;
+import org.jcodings.specific.KOI8REncoding;
+import org.jcodings.specific.KOI8UEncoding;
+import org.jcodings.specific.SJISEncoding;
+import org.jcodings.specific.USASCIIEncoding;
+import org.jcodings.specific.UTF8Encoding;
+import org.jcodings.specific.Windows_1250Encoding;
+import org.jcodings.specific.Windows_1251Encoding;
+import org.jcodings.specific.Windows_1252Encoding;
+import org.jcodings.specific.Windows_31JEncoding;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The encoding lines are matched in: the {@link Charset} of the line bytes a {@link LineSource}
+ * hands out, and the jcodings {@link Encoding} regexes are compiled with.
+ *
+ * By default the bytes are matched as read when Joni supports the {@code charset}, so that
+ * Shift_JIS or EUC-JP input is not transcoded line by line, and only the captured values are
+ * decoded. The patterns are encoded in the same charset. Input in a charset that is not ASCII
+ * compatible, such as UTF-16, is always transcoded to UTF-8 by {@link LineReader}.
+ */
+class LineEncoding
+{
+    public static final LineEncoding UTF8 = new LineEncoding(StandardCharsets.UTF_8, UTF8Encoding.INSTANCE);
+
+    // Java charset names to the Joni encodings of the same byte sequences
+    private static final Map<String, Encoding> ENCODINGS = ImmutableMap.<String, Encoding>builder()
+            .put("UTF-8", UTF8Encoding.INSTANCE)
+            .put("US-ASCII", USASCIIEncoding.INSTANCE)
+            .put("ISO-8859-1", ISO8859_1Encoding.INSTANCE)
+            .put("ISO-8859-2", ISO8859_2Encoding.INSTANCE)
+            .put("ISO-8859-5", ISO8859_5Encoding.INSTANCE)
+            .put("ISO-8859-7", ISO8859_7Encoding.INSTANCE)
+            .put("ISO-8859-9", ISO8859_9Encoding.INSTANCE)
+            .put("ISO-8859-15", ISO8859_15Encoding.INSTANCE)
+            .put("windows-1250", Windows_1250Encoding.INSTANCE)
+            .put("windows-1251", Windows_1251Encoding.INSTANCE)
+            .put("windows-1252", Windows_1252Encoding.INSTANCE)
+            .put("KOI8-R", KOI8REncoding.INSTANCE)
+            .put("KOI8-U", KOI8UEncoding.INSTANCE)
+            .put("Shift_JIS", SJISEncoding.INSTANCE)
+            .put("windows-31j", Windows_31JEncoding.INSTANCE)
+            .put("EUC-JP", EUCJPEncoding.INSTANCE)
+            .put("EUC-KR", EUCKREncoding.INSTANCE)
+            .put("Big5", BIG5Encoding.INSTANCE)
+            .put("GBK", GBKEncoding.INSTANCE)
+            .put("GB18030", GB18030Encoding.INSTANCE)
+            .build();
+
+    private final Charset charset;
+    private final Encoding encoding;
+
+    LineEncoding(Charset charset, Encoding encoding)
+    {
+        this.charset = charset;
+        this.encoding = encoding;
+    }
+
+    public static LineEncoding of(PluginTask task)
+    {
+        return of(task.getCharset(), task.getMatchEncoding());
+    }
+
+    static LineEncoding of(Charset inputCharset, MatchEncoding matchEncoding)
+    {
+        // LineReader hands out the lines of other charsets in UTF-8
+        Charset charset = LineReader.isAsciiCompatible(inputCharset) ? inputCharset : StandardCharsets.UTF_8;
+        switch (matchEncoding) {
+            case ASCII:
+                return new LineEncoding(charset, USASCIIEncoding.INSTANCE);
+            case NATIVE:
+                Encoding encoding = ENCODINGS.get(charset.name());
+                if (encoding != null) {
+                    return new LineEncoding(charset, encoding);
+                }
+                return UTF8;
+            default:
+                return UTF8;
+        }
+    }
+
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    public Encoding getEncoding()
+    {
+        return encoding;
+    }
+
+    /**
+     * @throws ConfigException if the charset cannot encode {@code format}, or if {@code format} is
+     * not ASCII when matching in ASCII
+     */
+    public byte[] encodePattern(String format)
+    {
+        // Joni cannot parse the bytes of multibyte characters as ASCII, and hangs on some of them
+        if (encoding == USASCIIEncoding.INSTANCE && !StandardCharsets.US_ASCII.newEncoder().canEncode(format)) {
+            throw new ConfigException(String.format("match_encoding: ascii needs a regex of ASCII characters only: %s", format));
+        }
+        if (!charset.newEncoder().canEncode(format)) {
+            throw new ConfigException(String.format("The regex contains characters that %s cannot encode: %s", charset.name(), format));
+        }
+        return format.getBytes(charset);
+    }
+
+    public String decode(byte[] bytes, int begin, int end)
+    {
+        return new String(bytes, begin, end - begin, charset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s (%s)", charset.name(), encoding);
+    }
+}
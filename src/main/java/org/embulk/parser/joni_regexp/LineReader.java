@@ -0,0 +1,288 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+import org.embulk.spi.util.LineDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a {@link FileInput} into lines directly on the bytes of its {@link Buffer}s.
+ *
+ * Like {@link LineDecoder}, any of LF, CR and CRLF terminates a line, a line never spans two files
+ * and a trailing line without a terminator is still returned. Each line is exposed as a
+ * {@code (bytes, begin, end)} slice of bytes in the line charset, UTF-8 by default, that stays
+ * valid until the next call of {@link #nextLine()}. Lines are transcoded only when the line charset
+ * differs from the input charset. Lines that lie inside one buffer are not copied at all; only lines that
+ * span buffers are assembled in a reusable carry buffer.
+ *
+ * Charsets that are not ASCII compatible (e.g. UTF-16) fall back to {@link LineDecoder}, and their
+ * lines are always in UTF-8.
+ */
+class LineReader
+        implements LineSource
+{
+    private static final int INITIAL_CARRY_SIZE = 256;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LF_WORD = 0x0a0a0a0a0a0a0a0aL;
+    private static final long CR_WORD = 0x0d0d0d0d0d0d0d0dL;
+
+    private final FileInput input;
+    private final Charset charset;
+    private final Charset lineCharset;
+    private final boolean transcode;
+    private final LineDecoder decoder;
+
+    private Buffer buffer;
+    private byte[] array;
+    private ByteBuffer words;
+    private int position;
+    private int limit;
+
+    private byte[] carry = new byte[INITIAL_CARRY_SIZE];
+    private int carryLength;
+    private boolean skipLf;
+    private boolean inFile;
+    private boolean fileStart;
+    private boolean lineFileStart;
+
+    private byte[] lineBytes;
+    private int lineBegin;
+    private int lineEnd;
+
+    public LineReader(FileInput input, LineDecoder.DecoderTask task)
+    {
+        this(input, task, StandardCharsets.UTF_8);
+    }
+
+    public LineReader(FileInput input, LineDecoder.DecoderTask task, Charset lineCharset)
+    {
+        this.input = input;
+        this.charset = task.getCharset();
+        this.lineCharset = lineCharset;
+        this.transcode = !lineCharset.equals(charset);
+        this.decoder = isAsciiCompatible(charset) ? null : new LineDecoder(input, task);
+    }
+
+    @Override
+    public byte[] getBytes()
+    {
+        return lineBytes;
+    }
+
+    @Override
+    public int getBegin()
+    {
+        return lineBegin;
+    }
+
+    @Override
+    public int getEnd()
+    {
+        return lineEnd;
+    }
+
+    @Override
+    public boolean isFileStart()
+    {
+        return lineFileStart;
+    }
+
+    /**
+     * Advances to the next line, moving on to the next file when the current one is exhausted.
+     *
+     * @return false when all files are consumed
+     */
+    @Override
+    public boolean nextLine()
+    {
+        if (decoder != null) {
+            return nextDecodedLine();
+        }
+        while (true) {
+            if (!inFile) {
+                if (!input.nextFile()) {
+                    return false;
+                }
+                inFile = true;
+                fileStart = true;
+                skipLf = false;
+                carryLength = 0;
+            }
+            if (position >= limit) {
+                if (!nextBuffer()) {
+                    inFile = false;
+                    if (carryLength > 0) {
+                        setLine(carry, 0, carryLength);
+                        carryLength = 0;
+                        return true;
+                    }
+                }
+                continue;
+            }
+            if (skipLf) {
+                skipLf = false;
+                if (array[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+
+            int eol = indexOfNewline(array, words, position, limit);
+            if (eol < 0) {
+                appendCarry(position, limit);
+                position = limit;
+                continue;
+            }
+
+            int begin = position;
+            position = eol + 1;
+            if (array[eol] == '\r') {
+                if (position < limit) {
+                    if (array[position] == '\n') {
+                        position++;
+                    }
+                }
+                else {
+                    skipLf = true;
+                }
+            }
+
+            if (carryLength > 0) {
+                appendCarry(begin, eol);
+                setLine(carry, 0, carryLength);
+                carryLength = 0;
+            }
+            else {
+                setLine(array, begin, eol);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        releaseBuffer();
+    }
+
+    private boolean nextDecodedLine()
+    {
+        while (true) {
+            if (!inFile) {
+                if (!decoder.nextFile()) {
+                    return false;
+                }
+                inFile = true;
+                fileStart = true;
+            }
+            String line = decoder.poll();
+            if (line == null) {
+                inFile = false;
+                continue;
+            }
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            lineBytes = bytes;
+            lineBegin = 0;
+            lineEnd = bytes.length;
+            lineFileStart = fileStart;
+            fileStart = false;
+            return true;
+        }
+    }
+
+    private boolean nextBuffer()
+    {
+        releaseBuffer();
+        Buffer next = input.poll();
+        if (next == null) {
+            return false;
+        }
+        buffer = next;
+        array = next.array();
+        words = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+        position = next.offset();
+        limit = next.offset() + next.limit();
+        return true;
+    }
+
+    private void releaseBuffer()
+    {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+            array = null;
+            words = null;
+            position = 0;
+            limit = 0;
+        }
+    }
+
+    private void appendCarry(int begin, int end)
+    {
+        int length = end - begin;
+        if (carryLength + length > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + length));
+        }
+        System.arraycopy(array, begin, carry, carryLength, length);
+        carryLength += length;
+    }
+
+    private void setLine(byte[] bytes, int begin, int end)
+    {
+        lineFileStart = fileStart;
+        fileStart = false;
+        if (!transcode) {
+            lineBytes = bytes;
+            lineBegin = begin;
+            lineEnd = end;
+        }
+        else {
+            byte[] encoded = new String(bytes, begin, end - begin, charset).getBytes(lineCharset);
+            lineBytes = encoded;
+            lineBegin = 0;
+            lineEnd = encoded.length;
+        }
+    }
+
+    /**
+     * Returns the index of the first CR or LF in {@code array[from, to)}, or -1.
+     * Eight bytes are tested at a time with the classic "has zero byte" bit trick.
+     */
+    static int indexOfNewline(byte[] array, ByteBuffer words, int from, int to)
+    {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = words.getLong(i);
+            long found = zeroBytes(word ^ LF_WORD) | zeroBytes(word ^ CR_WORD);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte b = array[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long zeroBytes(long word)
+    {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    static boolean isAsciiCompatible(Charset charset)
+    {
+        String probe = "\r\n azAZ09";
+        return charset.canEncode()
+                && Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+    }
+}
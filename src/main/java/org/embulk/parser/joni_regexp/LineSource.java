@@ -0,0 +1,28 @@
+package org.embulk.parser.joni_regexp;
+
+/**
+ * A sequence of lines, each exposed as a {@code (bytes, begin, end)} slice of bytes in the line charset that
+ * stays valid until the next call of {@link #nextLine()}.
+ */
+interface LineSource
+        extends AutoCloseable
+{
+    /**
+     * @return false when there are no more lines
+     */
+    boolean nextLine();
+
+    byte[] getBytes();
+
+    int getBegin();
+
+    int getEnd();
+
+    /**
+     * @return true when the current line is the first line of a file
+     */
+    boolean isFileStart();
+
+    @Override
+    void close();
+}
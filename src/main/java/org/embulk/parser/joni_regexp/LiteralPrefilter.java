@@ -0,0 +1,614 @@
+package org.embulk.parser.joni_regexp;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rejects lines that cannot match a regex before Joni runs.
+ *
+ * The {@code format} string is analysed for literal substrings that every match contains, and for
+ * the minimum number of bytes a match needs, both in the charset of the lines. A line shorter than
+ * that, or missing one of the longest literals, is rejected with a Boyer-Moore-Horspool search.
+ *
+ * The analysis is conservative: alternatives, optional atoms and anything it does not understand,
+ * such as back references and inline options, contribute no literal. A format it cannot read at
+ * all gets no prefilter.
+ */
+class LiteralPrefilter
+{
+    static final int MAX_LITERALS = 2;
+
+    private final Horspool[] literals;
+    private final int minLength;
+    private final Charset charset;
+
+    private LiteralPrefilter(Horspool[] literals, int minLength, Charset charset)
+    {
+        this.literals = literals;
+        this.minLength = minLength;
+        this.charset = charset;
+    }
+
+    /**
+     * Returns a prefilter for the format, or null if the analysis found nothing to filter on.
+     */
+    public static LiteralPrefilter analyze(String format)
+    {
+        return analyze(format, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param charset the charset of the lines to filter
+     */
+    public static LiteralPrefilter analyze(String format, Charset charset)
+    {
+        Analysis analysis;
+        try {
+            analysis = new Analyzer(format, charset).parse();
+        }
+        catch (UnsupportedSyntaxException ex) {
+            return null;
+        }
+
+        List<byte[]> found = new ArrayList<>();
+        for (String literal : analysis.literals) {
+            found.add(literal.getBytes(charset));
+        }
+        Collections.sort(found, new Comparator<byte[]>()
+        {
+            @Override
+            public int compare(byte[] a, byte[] b)
+            {
+                return b.length - a.length;
+            }
+        });
+
+        List<Horspool> literals = new ArrayList<>();
+        for (byte[] literal : found) {
+            if (literals.size() == MAX_LITERALS) {
+                break;
+            }
+            literals.add(new Horspool(literal));
+        }
+        int minLength = (int) Math.min(analysis.minLength, Integer.MAX_VALUE);
+        if (literals.isEmpty() && minLength == 0) {
+            return null;
+        }
+        return new LiteralPrefilter(literals.toArray(new Horspool[literals.size()]), minLength, charset);
+    }
+
+    /**
+     * Returns false if {@code bytes[begin, end)} cannot match.
+     */
+    public boolean mayMatch(byte[] bytes, int begin, int end)
+    {
+        if (end - begin < minLength) {
+            return false;
+        }
+        for (Horspool literal : literals) {
+            if (literal.indexOf(bytes, begin, end) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<String> getLiterals()
+    {
+        List<String> strings = new ArrayList<>();
+        for (Horspool literal : literals) {
+            strings.add(new String(literal.pattern, charset));
+        }
+        return strings;
+    }
+
+    public int getMinLength()
+    {
+        return minLength;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search of one byte pattern.
+     */
+    static class Horspool
+    {
+        private final byte[] pattern;
+        private final int[] shifts = new int[256];
+
+        Horspool(byte[] pattern)
+        {
+            this.pattern = pattern;
+            int last = pattern.length - 1;
+            for (int i = 0; i < shifts.length; i++) {
+                shifts[i] = pattern.length;
+            }
+            for (int i = 0; i < last; i++) {
+                shifts[pattern[i] & 0xff] = last - i;
+            }
+        }
+
+        int indexOf(byte[] bytes, int begin, int end)
+        {
+            int last = pattern.length - 1;
+            byte lastByte = pattern[last];
+            for (int i = begin + last; i < end; ) {
+                byte b = bytes[i];
+                if (b == lastByte) {
+                    int start = i - last;
+                    int j = 0;
+                    while (j < last && bytes[start + j] == pattern[j]) {
+                        j++;
+                    }
+                    if (j == last) {
+                        return start;
+                    }
+                }
+                i += shifts[b & 0xff];
+            }
+            return -1;
+        }
+    }
+
+    private static class Analysis
+    {
+        final long minLength;
+        final List<String> literals;
+
+        Analysis(long minLength, List<String> literals)
+        {
+            this.minLength = minLength;
+            this.literals = literals;
+        }
+    }
+
+    private static class UnsupportedSyntaxException
+            extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Recursive descent over the Ruby syntax of Joni.
+     */
+    private static class Analyzer
+    {
+        private static final long INFINITE = Long.MAX_VALUE;
+        private static final int NOT_LITERAL = -1;
+
+        private final String format;
+        private final Charset charset;
+        private int pos;
+
+        // the last atom
+        private long atomMinLength;
+        private int atomCodePoint;
+        private List<String> atomLiterals;
+
+        Analyzer(String format, Charset charset)
+        {
+            this.format = format;
+            this.charset = charset;
+        }
+
+        Analysis parse()
+        {
+            Analysis analysis = alternation();
+            if (pos != format.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            return analysis;
+        }
+
+        private Analysis alternation()
+        {
+            Analysis first = sequence();
+            if (!peek('|')) {
+                return first;
+            }
+            long minLength = first.minLength;
+            while (peek('|')) {
+                pos++;
+                minLength = Math.min(minLength, sequence().minLength);
+            }
+            return new Analysis(minLength, new ArrayList<String>());
+        }
+
+        private Analysis sequence()
+        {
+            long minLength = 0;
+            List<String> literals = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            while (pos < format.length() && !peek('|') && !peek(')')) {
+                atom();
+                long atomMin = atomMinLength;
+                int codePoint = atomCodePoint;
+                List<String> inner = atomLiterals;
+
+                long minRepeat = 1;
+                boolean exact = true;
+                long[] quantifier;
+                while ((quantifier = quantifier()) != null) {
+                    minRepeat = saturatedMultiply(minRepeat, quantifier[0]);
+                    exact = exact && quantifier[0] == 1 && quantifier[1] == 1;
+                }
+                minLength = saturatedAdd(minLength, saturatedMultiply(atomMin, minRepeat));
+
+                if (codePoint != NOT_LITERAL && minRepeat > 0) {
+                    run.appendCodePoint(codePoint);
+                    if (!exact) {
+                        flush(run, literals);
+                    }
+                }
+                else {
+                    flush(run, literals);
+                    if (minRepeat > 0) {
+                        literals.addAll(inner);
+                    }
+                }
+            }
+            flush(run, literals);
+            return new Analysis(minLength, literals);
+        }
+
+        private static void flush(StringBuilder run, List<String> literals)
+        {
+            if (run.length() > 0) {
+                literals.add(run.toString());
+                run.setLength(0);
+            }
+        }
+
+        private void atom()
+        {
+            atomMinLength = 0;
+            atomCodePoint = NOT_LITERAL;
+            atomLiterals = Collections.emptyList();
+
+            int c = format.codePointAt(pos);
+            pos += Character.charCount(c);
+            switch (c) {
+                case '(':
+                    group();
+                    return;
+                case '[':
+                    characterClass();
+                    atomMinLength = 1;
+                    return;
+                case '.':
+                    atomMinLength = 1;
+                    return;
+                case '^':
+                case '$':
+                    return;
+                case '\\':
+                    escape();
+                    return;
+                case '*':
+                case '+':
+                case '?':
+                    throw new UnsupportedSyntaxException();
+                default:
+                    literal(c);
+                    return;
+            }
+        }
+
+        private void literal(int codePoint)
+        {
+            atomCodePoint = codePoint;
+            atomMinLength = new String(Character.toChars(codePoint)).getBytes(charset).length;
+        }
+
+        private void group()
+        {
+            boolean zeroWidth = false;
+            if (peek('?')) {
+                pos++;
+                if (peek(':') || peek('>')) {
+                    pos++;
+                }
+                else if (peek('=') || peek('!')) {
+                    pos++;
+                    zeroWidth = true;
+                }
+                else if (peek('<') && pos + 1 < format.length() && (format.charAt(pos + 1) == '=' || format.charAt(pos + 1) == '!')) {
+                    pos += 2;
+                    zeroWidth = true;
+                }
+                else if (peek('<') || peek('\'')) {
+                    char close = peek('<') ? '>' : '\'';
+                    int nameEnd = format.indexOf(close, pos + 1);
+                    if (nameEnd < 0) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    pos = nameEnd + 1;
+                }
+                else if (peek('#')) {
+                    int commentEnd = format.indexOf(')', pos);
+                    if (commentEnd < 0) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    pos = commentEnd + 1;
+                    return;
+                }
+                else {
+                    // inline options and anything newer
+                    throw new UnsupportedSyntaxException();
+                }
+            }
+
+            Analysis inner = alternation();
+            if (!peek(')')) {
+                throw new UnsupportedSyntaxException();
+            }
+            pos++;
+            // the fields were overwritten by the atoms of the group
+            atomCodePoint = NOT_LITERAL;
+            atomMinLength = zeroWidth ? 0 : inner.minLength;
+            atomLiterals = zeroWidth ? Collections.<String>emptyList() : inner.literals;
+        }
+
+        private void characterClass()
+        {
+            int depth = 1;
+            if (peek('^')) {
+                pos++;
+            }
+            if (peek(']')) {
+                pos++;
+            }
+            while (pos < format.length()) {
+                char c = format.charAt(pos++);
+                if (c == '\\') {
+                    pos++;
+                }
+                else if (c == '[') {
+                    depth++;
+                    if (peek('^')) {
+                        pos++;
+                    }
+                }
+                else if (c == ']' && --depth == 0) {
+                    return;
+                }
+            }
+            throw new UnsupportedSyntaxException();
+        }
+
+        private void escape()
+        {
+            if (pos >= format.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            int c = format.codePointAt(pos);
+            pos += Character.charCount(c);
+            switch (c) {
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'b':
+                case 'B':
+                case 'G':
+                    return;
+                case 'd':
+                case 'D':
+                case 'w':
+                case 'W':
+                case 's':
+                case 'S':
+                case 'h':
+                case 'H':
+                case 'R':
+                case 'X':
+                    atomMinLength = 1;
+                    return;
+                case 'p':
+                case 'P':
+                    if (!peek('{')) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    skipPast('}');
+                    atomMinLength = 1;
+                    return;
+                case 't':
+                    literal('\t');
+                    return;
+                case 'n':
+                    literal('\n');
+                    return;
+                case 'r':
+                    literal('\r');
+                    return;
+                case 'f':
+                    literal('\f');
+                    return;
+                case 'v':
+                    literal(0x0b);
+                    return;
+                case 'a':
+                    literal(0x07);
+                    return;
+                case 'e':
+                    literal(0x1b);
+                    return;
+                case 'x':
+                    if (peek('{')) {
+                        int close = format.indexOf('}', pos);
+                        if (close < 0) {
+                            throw new UnsupportedSyntaxException();
+                        }
+                        literal(hex(pos + 1, close));
+                        pos = close + 1;
+                    }
+                    else {
+                        int end = pos;
+                        while (end < format.length() && end < pos + 2 && Character.digit(format.charAt(end), 16) >= 0) {
+                            end++;
+                        }
+                        int value = hex(pos, end);
+                        if (value >= 0x80) {
+                            // a raw byte, not a code point
+                            throw new UnsupportedSyntaxException();
+                        }
+                        literal(value);
+                        pos = end;
+                    }
+                    return;
+                case 'u':
+                    if (pos + 4 > format.length()) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    literal(hex(pos, pos + 4));
+                    pos += 4;
+                    return;
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        // back references, \k, \g, \K and the like
+                        throw new UnsupportedSyntaxException();
+                    }
+                    literal(c);
+                    return;
+            }
+        }
+
+        private int hex(int begin, int end)
+        {
+            if (begin == end || end - begin > 8) {
+                throw new UnsupportedSyntaxException();
+            }
+            int value = 0;
+            for (int i = begin; i < end; i++) {
+                int digit = Character.digit(format.charAt(i), 16);
+                if (digit < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                value = value * 16 + digit;
+            }
+            if (!Character.isValidCodePoint(value)) {
+                throw new UnsupportedSyntaxException();
+            }
+            return value;
+        }
+
+        /**
+         * Reads a quantifier, followed by an optional lazy or possessive mark.
+         *
+         * In the Ruby syntax, {@code {n}?} is {@code (?:x{n})?} and {@code {n,m}+} is
+         * {@code (?:x{n,m})+}, so the {@code ?} of an exact interval and the {@code +} of any
+         * interval are left to be read as the next quantifier.
+         *
+         * @return {min, max}, or null if there is no quantifier
+         */
+        private long[] quantifier()
+        {
+            if (pos >= format.length()) {
+                return null;
+            }
+            long[] range;
+            char c = format.charAt(pos);
+            if (c == '?') {
+                range = new long[] {0, 1};
+                pos++;
+            }
+            else if (c == '*') {
+                range = new long[] {0, INFINITE};
+                pos++;
+            }
+            else if (c == '+') {
+                range = new long[] {1, INFINITE};
+                pos++;
+            }
+            else if (c == '{') {
+                range = interval();
+                if (range == null) {
+                    // not an interval, so a literal '{'
+                    return null;
+                }
+                if (peek('?') && range[0] != range[1]) {
+                    pos++;
+                }
+                return range;
+            }
+            else {
+                return null;
+            }
+            if (peek('?') || peek('+')) {
+                pos++;
+            }
+            return range;
+        }
+
+        private long[] interval()
+        {
+            int close = format.indexOf('}', pos);
+            if (close < 0) {
+                return null;
+            }
+            String body = format.substring(pos + 1, close);
+            int comma = body.indexOf(',');
+            String low = comma < 0 ? body : body.substring(0, comma);
+            String high = comma < 0 ? body : body.substring(comma + 1);
+            if (!isDigits(low) && !(comma >= 0 && low.isEmpty() && isDigits(high))) {
+                return null;
+            }
+            if (!high.isEmpty() && !isDigits(high)) {
+                return null;
+            }
+            if (low.length() > 9 || high.length() > 9) {
+                throw new UnsupportedSyntaxException();
+            }
+            pos = close + 1;
+            long min = low.isEmpty() ? 0 : Long.parseLong(low);
+            long max = high.isEmpty() ? INFINITE : Long.parseLong(high);
+            return new long[] {min, max};
+        }
+
+        private static boolean isDigits(String s)
+        {
+            if (s.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipPast(char c)
+        {
+            int found = format.indexOf(c, pos);
+            if (found < 0) {
+                throw new UnsupportedSyntaxException();
+            }
+            pos = found + 1;
+        }
+
+        private boolean peek(char c)
+        {
+            return pos < format.length() && format.charAt(pos) == c;
+        }
+
+        private static long saturatedAdd(long a, long b)
+        {
+            long sum = a + b;
+            return sum < 0 ? INFINITE : sum;
+        }
+
+        private static long saturatedMultiply(long a, long b)
+        {
+            if (a == 0 || b == 0) {
+                return 0;
+            }
+            if (a > INFINITE / b) {
+                return INFINITE;
+            }
+            return a * b;
+        }
+    }
+}
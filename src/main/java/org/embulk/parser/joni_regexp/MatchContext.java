@@ -0,0 +1,279 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Throwables;
+import org.joni.Matcher;
+import org.joni.Option;
+import org.joni.Regex;
+import org.joni.Region;
+
+/**
+ * Per-task matching state for one compiled {@link Regex}.
+ *
+ * A Joni {@link Matcher} fixes its subject bytes and end offset when it is created, and allocates
+ * its {@link Region} at the same time. To reuse one Matcher and Region for every line, each line is
+ * copied to the tail of a growable line buffer, so that the line always ends at the buffer end, and
+ * a LF is put right before it, so that {@code ^} still matches at the line start.
+ *
+ * Patterns that can look in front of the search start ({@code \A} and look-behind) would see that
+ * LF, so they, and empty lines, get a fresh Matcher for the line instead.
+ *
+ * Joni reports region offsets relative to the start the Matcher was created with, so captures are
+ * exposed as absolute offsets into {@link #getBytes()} through {@link #captureBegin(int)} and
+ * {@link #captureEnd(int)}.
+ *
+ * An anchored context tries the regex only at the line start with {@link Matcher#match}, so that a
+ * line that does not match costs one attempt instead of a search across the line.
+ *
+ * With a {@link MatchWatchdog.Guard}, the regex runs interruptibly, and a match the watchdog
+ * interrupts ends as no match with {@link #isTimedOut()} true.
+ */
+class MatchContext
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Regex regex;
+    private final boolean reusable;
+    private final boolean anchored;
+
+    private byte[] buffer;
+    private Matcher matcher;
+
+    private byte[] bytes;
+    private int begin;
+    private int end;
+    private int base;
+    private Region region;
+
+    private MatchWatchdog.Guard guard;
+    private boolean timedOut;
+
+    public MatchContext(Regex regex, String format)
+    {
+        this(regex, format, false);
+    }
+
+    public MatchContext(Regex regex, String format, boolean anchored)
+    {
+        this.regex = regex;
+        this.reusable = canReuseMatcher(format);
+        this.anchored = anchored;
+        if (reusable) {
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Searches the regex in {@code line[lineBegin, lineEnd)}.
+     * On success, the matched bytes and captures are available until the next call.
+     */
+    public boolean search(byte[] line, int lineBegin, int lineEnd)
+    {
+        int length = lineEnd - lineBegin;
+        if (!reusable || length == 0) {
+            Matcher lineMatcher = regex.matcher(line, lineBegin, lineEnd);
+            if (find(lineMatcher, lineBegin, lineEnd) == -1) {
+                return false;
+            }
+            setMatch(line, lineBegin, lineEnd, lineBegin, lineMatcher.getEagerRegion());
+            return true;
+        }
+
+        if (length >= buffer.length) {
+            allocate(Math.max(buffer.length * 2, length + 1));
+        }
+        int start = buffer.length - length;
+        System.arraycopy(line, lineBegin, buffer, start, length);
+        buffer[start - 1] = '\n';
+        if (find(matcher, start, buffer.length) == -1) {
+            return false;
+        }
+        setMatch(buffer, start, buffer.length, 0, matcher.getEagerRegion());
+        return true;
+    }
+
+    private int find(Matcher matcher, int start, int end)
+    {
+        if (guard == null) {
+            if (anchored) {
+                return matcher.match(start, end, Option.DEFAULT);
+            }
+            return matcher.search(start, end, Option.DEFAULT);
+        }
+
+        timedOut = false;
+        guard.begin();
+        int result;
+        try {
+            if (anchored) {
+                result = matcher.matchInterruptible(start, end, Option.DEFAULT);
+            }
+            else {
+                result = matcher.searchInterruptible(start, end, Option.DEFAULT);
+            }
+        }
+        catch (InterruptedException ex) {
+            if (!guard.end()) {
+                // not by the watchdog
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(ex);
+            }
+            timedOut = true;
+            return -1;
+        }
+        // an interrupt that came after the match finished is just cleared
+        guard.end();
+        return result;
+    }
+
+    /**
+     * Runs the regex interruptibly under {@code guard} from now on.
+     */
+    public void setGuard(MatchWatchdog.Guard guard)
+    {
+        this.guard = guard;
+    }
+
+    /**
+     * Returns true when the last search was interrupted by the watchdog.
+     */
+    public boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    public boolean isAnchored()
+    {
+        return anchored;
+    }
+
+    public Regex getRegex()
+    {
+        return regex;
+    }
+
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Returns the offset of the given group in {@link #getBytes()}, or -1 if the group did not participate.
+     */
+    public int captureBegin(int group)
+    {
+        int offset = region.beg[group];
+        return offset < 0 ? -1 : base + offset;
+    }
+
+    public int captureEnd(int group)
+    {
+        int offset = region.end[group];
+        return offset < 0 ? -1 : base + offset;
+    }
+
+    private void setMatch(byte[] bytes, int begin, int end, int base, Region region)
+    {
+        this.bytes = bytes;
+        this.begin = begin;
+        this.end = end;
+        this.base = base;
+        this.region = region;
+    }
+
+    private void allocate(int capacity)
+    {
+        buffer = new byte[capacity];
+        matcher = regex.matcher(buffer, 0, capacity);
+    }
+
+    static boolean canReuseMatcher(String format)
+    {
+        return !format.contains("\\A") && !format.contains("(?<=") && !format.contains("(?<!");
+    }
+
+    /**
+     * Returns true if every match of the format starts at the start of the subject, that is, it
+     * starts with {@code ^} or {@code \A} and has no alternative at the top level.
+     */
+    static boolean isStartAnchored(String format)
+    {
+        int next;
+        if (format.startsWith("^")) {
+            next = 1;
+        }
+        else if (format.startsWith("\\A")) {
+            next = 2;
+        }
+        else {
+            return false;
+        }
+        if (next < format.length() && "?*+{".indexOf(format.charAt(next)) >= 0) {
+            return false;
+        }
+
+        int depth = 0;
+        for (int i = next; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                i = classEnd(format, i + 1);
+                if (i < 0) {
+                    return false;
+                }
+            }
+            else if (c == '(' && format.startsWith("?#", i + 1)) {
+                i = format.indexOf(')', i);
+                if (i < 0) {
+                    return false;
+                }
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+            }
+            else if (c == '|' && depth == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int classEnd(String format, int from)
+    {
+        int i = from;
+        int depth = 1;
+        if (i < format.length() && format.charAt(i) == '^') {
+            i++;
+        }
+        if (i < format.length() && format.charAt(i) == ']') {
+            i++;
+        }
+        for (; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                depth++;
+            }
+            else if (c == ']' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,44 @@
+package org.embulk.parser.joni_regexp;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.embulk.config.ConfigException;
+
+import java.util.Locale;
+
+/**
+ * The {@code match_encoding} option: the encoding regexes see lines in.
+ */
+public enum MatchEncoding
+{
+    /**
+     * The bytes as read, in the encoding of {@code charset}, if Joni supports it. Otherwise {@link #UTF8}.
+     */
+    NATIVE,
+    /**
+     * Lines transcoded to UTF-8.
+     */
+    UTF8,
+    /**
+     * The bytes as read, each byte one character, and only ASCII characters in character classes.
+     */
+    ASCII;
+
+    @JsonCreator
+    public static MatchEncoding of(String value)
+    {
+        for (MatchEncoding encoding : values()) {
+            if (encoding.toString().equals(value.toLowerCase(Locale.ENGLISH))) {
+                return encoding;
+            }
+        }
+        throw new ConfigException(String.format("Unknown match_encoding \"%s\". Supported encodings are native, utf8 and ascii", value));
+    }
+
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
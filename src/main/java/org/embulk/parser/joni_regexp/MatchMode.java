@@ -0,0 +1,61 @@
+package org.embulk.parser.joni_regexp;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.embulk.config.ConfigException;
+
+import java.util.Locale;
+
+/**
+ * The {@code match_mode} option: how a regex is applied to a line.
+ */
+public enum MatchMode
+{
+    /**
+     * {@link #ANCHORED} for a regex that starts with {@code ^} or {@code \A}, otherwise {@link #SEARCH}.
+     */
+    AUTO,
+    /**
+     * Match only at the line start.
+     */
+    ANCHORED,
+    /**
+     * Search the line from each position in turn.
+     */
+    SEARCH;
+
+    @JsonCreator
+    public static MatchMode of(String value)
+    {
+        for (MatchMode mode : values()) {
+            if (mode.toString().equals(value.toLowerCase(Locale.ENGLISH))) {
+                return mode;
+            }
+        }
+        throw new ConfigException(String.format("Unknown match_mode \"%s\". Supported modes are auto, anchored and search", value));
+    }
+
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    public boolean isAnchored(String format)
+    {
+        return isAnchored(format, false);
+    }
+
+    /**
+     * With {@code multiline}, a subject may hold several lines and {@code ^} matches at each of
+     * them, so only {@code \A} makes {@link #AUTO} anchored.
+     */
+    public boolean isAnchored(String format, boolean multiline)
+    {
+        if (this == AUTO && multiline && !format.startsWith("\\A")) {
+            return false;
+        }
+        return this == ANCHORED || (this == AUTO && MatchContext.isStartAnchored(format));
+    }
+}
@@ -0,0 +1,136 @@
+package org.embulk.parser.joni_regexp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interrupts matches that run longer than {@code match_timeout_ms}, for Joni's
+ * {@link org.joni.Matcher#searchInterruptible} and {@link org.joni.Matcher#matchInterruptible}.
+ *
+ * Each matching thread registers a {@link Guard} and brackets every match with
+ * {@link Guard#begin()} and {@link Guard#end()}, which costs a store and a compare-and-set. The
+ * watchdog thread looks at the guards several times per timeout and interrupts the thread of a
+ * guard that has stayed in the same match for the timeout. A guard and the watchdog agree on the
+ * interrupt through the guard state, so an interrupt meant for one match never leaks into the
+ * next line or into other blocking calls of the thread.
+ */
+class MatchWatchdog
+        implements AutoCloseable
+{
+    private static final long IDLE = 0L;
+    private static final long INTERRUPTING = -1L;
+    private static final long INTERRUPTED = -2L;
+
+    private final long timeoutNanos;
+    private final long checkIntervalNanos;
+    private final List<Guard> guards = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public MatchWatchdog(long timeoutMillis)
+    {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.checkIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), timeoutNanos / 4);
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                watch();
+            }
+        }, "joni_regexp-match-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a guard for the matches of the current thread.
+     */
+    public Guard register()
+    {
+        Guard guard = new Guard(Thread.currentThread());
+        guards.add(guard);
+        return guard;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        thread.interrupt();
+    }
+
+    private void watch()
+    {
+        while (!closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(checkIntervalNanos);
+            }
+            catch (InterruptedException ex) {
+                continue;
+            }
+            long now = System.nanoTime();
+            for (Guard guard : guards) {
+                guard.check(now, timeoutNanos);
+            }
+        }
+    }
+
+    static class Guard
+    {
+        private final Thread owner;
+        private final AtomicLong state = new AtomicLong(IDLE);
+        private long match;
+
+        // used by the watchdog thread only
+        private long seenMatch;
+        private long seenNanos;
+
+        private Guard(Thread owner)
+        {
+            this.owner = owner;
+        }
+
+        public void begin()
+        {
+            state.lazySet(++match);
+        }
+
+        /**
+         * Ends the match that {@link #begin()} started, and clears the interrupt the watchdog
+         * sent for it, if any.
+         *
+         * @return true when the watchdog interrupted the match
+         */
+        public boolean end()
+        {
+            if (state.compareAndSet(match, IDLE)) {
+                return false;
+            }
+            while (state.get() != INTERRUPTED) {
+                Thread.yield();
+            }
+            Thread.interrupted();
+            state.set(IDLE);
+            return true;
+        }
+
+        private void check(long now, long timeoutNanos)
+        {
+            long current = state.get();
+            if (current <= IDLE) {
+                return;
+            }
+            if (current != seenMatch) {
+                seenMatch = current;
+                seenNanos = now;
+            }
+            else if (now - seenNanos >= timeoutNanos && state.compareAndSet(current, INTERRUPTING)) {
+                owner.interrupt();
+                state.set(INTERRUPTED);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Groups the lines of another {@link LineSource} into records, each starting with a line that
+ * matches the {@code firstline} regex, and exposes every record as one line of its lines joined
+ * with LF. A record never spans two files: lines before the first such line of a file form a
+ * record of their own.
+ *
+ * A record keeps at most {@code maxLines} lines, and the lines beyond that up to the next first
+ * line are dropped. Records are gathered into two buffers used in turn, one exposed to the caller
+ * and one collecting the next record, and a buffer grown over {@link #RETAINED_CAPACITY} by a huge
+ * record is given back once that record is done.
+ *
+ * The firstline regex is compiled on the first call of {@link #nextLine()}, so that a
+ * MultilineLineSource can be created on one thread and read on another. With a
+ * {@link MatchWatchdog}, it runs under a guard of the reading thread, and a line whose firstline
+ * match times out is taken as a continuation line.
+ */
+class MultilineLineSource
+        implements LineSource
+{
+    private static final Logger logger = Exec.getLogger(JoniRegexpParserPlugin.class);
+
+    static final int INITIAL_CAPACITY = 4 * 1024;
+    static final int RETAINED_CAPACITY = 1024 * 1024;
+
+    private final LineSource source;
+    private final String firstlineFormat;
+    private final LineEncoding encoding;
+    private final int maxLines;
+    private final MatchWatchdog watchdog;
+
+    private MatchContext firstline;
+    private RecordBuffer current = new RecordBuffer();
+    private RecordBuffer next = new RecordBuffer();
+    private boolean finished;
+
+    private long truncatedRecords;
+    private long droppedLines;
+    private long timedOutLines;
+
+    public MultilineLineSource(LineSource source, String firstlineFormat, int maxLines)
+    {
+        this(source, firstlineFormat, LineEncoding.UTF8, maxLines, null);
+    }
+
+    /**
+     * @param watchdog null for no match timeout
+     */
+    public MultilineLineSource(LineSource source, String firstlineFormat, LineEncoding encoding, int maxLines, MatchWatchdog watchdog)
+    {
+        this.source = source;
+        this.firstlineFormat = firstlineFormat;
+        this.encoding = encoding;
+        this.maxLines = maxLines;
+        this.watchdog = watchdog;
+    }
+
+    @Override
+    public boolean nextLine()
+    {
+        if (firstline == null) {
+            firstline = new MatchContext(JoniRegexpParserPlugin.buildRegex(firstlineFormat, encoding), firstlineFormat,
+                    MatchMode.AUTO.isAnchored(firstlineFormat));
+            if (watchdog != null) {
+                firstline.setGuard(watchdog.register());
+            }
+        }
+
+        // the record gathered so far, if any, becomes the current one
+        RecordBuffer done = current;
+        done.clear();
+        current = next;
+        next = done;
+
+        boolean truncated = false;
+        while (!finished) {
+            if (!source.nextLine()) {
+                finished = true;
+                break;
+            }
+            byte[] bytes = source.getBytes();
+            int begin = source.getBegin();
+            int end = source.getEnd();
+            if (current.lines > 0 && (source.isFileStart() || isFirstline(bytes, begin, end))) {
+                next.append(bytes, begin, end, source.isFileStart());
+                break;
+            }
+            if (current.lines < maxLines) {
+                current.append(bytes, begin, end, source.isFileStart());
+            }
+            else {
+                droppedLines++;
+                if (!truncated) {
+                    truncated = true;
+                    truncatedRecords++;
+                }
+            }
+        }
+        return current.lines > 0;
+    }
+
+    private boolean isFirstline(byte[] bytes, int begin, int end)
+    {
+        if (firstline.search(bytes, begin, end)) {
+            return true;
+        }
+        if (firstline.isTimedOut()) {
+            timedOutLines++;
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] getBytes()
+    {
+        return current.bytes;
+    }
+
+    @Override
+    public int getBegin()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getEnd()
+    {
+        return current.length;
+    }
+
+    /**
+     * @return true when the first line of the current record is the first line of a file
+     */
+    @Override
+    public boolean isFileStart()
+    {
+        return current.fileStart;
+    }
+
+    public long getTruncatedRecords()
+    {
+        return truncatedRecords;
+    }
+
+    public long getDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    public long getTimedOutLines()
+    {
+        return timedOutLines;
+    }
+
+    @Override
+    public void close()
+    {
+        source.close();
+        if (truncatedRecords > 0) {
+            logger.warn(String.format(Locale.ENGLISH, "%d records had more than %d lines, and their %d lines beyond that were dropped",
+                    truncatedRecords, maxLines, droppedLines));
+        }
+        if (timedOutLines > 0) {
+            logger.warn(String.format(Locale.ENGLISH, "%d lines exceeded match_timeout_ms in the firstline regex, and were taken as continuation lines",
+                    timedOutLines));
+        }
+    }
+
+    private static class RecordBuffer
+    {
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int length;
+        private int lines;
+        private boolean fileStart;
+
+        void append(byte[] lineBytes, int lineBegin, int lineEnd, boolean lineFileStart)
+        {
+            if (lines == 0) {
+                fileStart = lineFileStart;
+            }
+            int separator = lines > 0 ? 1 : 0;
+            int lineLength = lineEnd - lineBegin;
+            if (length + separator + lineLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + separator + lineLength));
+            }
+            if (separator > 0) {
+                bytes[length++] = '\n';
+            }
+            System.arraycopy(lineBytes, lineBegin, bytes, length, lineLength);
+            length += lineLength;
+            lines++;
+        }
+
+        void clear()
+        {
+            if (bytes.length > RETAINED_CAPACITY) {
+                bytes = new byte[INITIAL_CAPACITY];
+            }
+            length = 0;
+            lines = 0;
+            fileStart = false;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the lines of one task on {@code parallelism} threads.
+ *
+ * The task thread splits lines into {@link LineBatch}es and hands each batch to a worker thread.
+ * Each worker thread has its own {@link RecordParser} and {@link PageBuilder}, and turns a whole
+ * batch into pages. A RecordParser never moves to another thread, because a Joni matcher keeps
+ * using the backtracking stack of the thread it was created on.
+ *
+ * Only the task thread adds pages to the {@link PageOutput}: in the input order of the batches
+ * when {@code preserveOrder} is true, otherwise as soon as a batch is done. At most
+ * {@code 2 * parallelism} batches are in flight or waiting for their turn.
+ */
+class ParallelParser
+        implements AutoCloseable
+{
+    private final PageOutput output;
+    private final boolean preserveOrder;
+    private final int maxPendingBatches;
+    private final ExecSession session;
+    private final List<Worker> workers = new ArrayList<>();
+    private final ThreadLocal<Worker> threadWorker;
+    private final BlockingQueue<LineBatch> freeBatches;
+    private final ExecutorService executor;
+    private final CompletionService<Result> completion;
+
+    private final Map<Long, Result> reorderBuffer = new HashMap<>();
+    private long submitted;
+    private long emitted;
+
+    public ParallelParser(final PluginTask task, final Schema schema, final ParserMetrics metrics, final RejectedLines rejects, final MatchWatchdog watchdog, PageOutput output, int parallelism, boolean preserveOrder)
+    {
+        this.output = output;
+        this.preserveOrder = preserveOrder;
+        this.maxPendingBatches = parallelism * 2;
+        this.session = Exec.session();
+        this.threadWorker = new ThreadLocal<Worker>()
+        {
+            @Override
+            protected Worker initialValue()
+            {
+                Worker worker = new Worker(task, schema, metrics, rejects, watchdog);
+                synchronized (workers) {
+                    workers.add(worker);
+                }
+                return worker;
+            }
+        };
+        this.freeBatches = new ArrayBlockingQueue<>(maxPendingBatches);
+
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "joni_regexp-worker-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.completion = new ExecutorCompletionService<>(executor);
+    }
+
+    public List<RecordParser> getRecordParsers()
+    {
+        ImmutableList.Builder<RecordParser> parsers = ImmutableList.builder();
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                parsers.add(worker.parser);
+            }
+        }
+        return parsers.build();
+    }
+
+    /**
+     * Parses all lines of {@code lines}, adds the pages to the output and finishes it.
+     */
+    public void run(LineSource lines)
+    {
+        LineBatch batch = newBatch();
+        while (lines.nextLine()) {
+            int begin = lines.getBegin();
+            int end = lines.getEnd();
+            if (batch.isFull(end - begin)) {
+                submit(batch);
+                batch = newBatch();
+            }
+            batch.add(lines.getBytes(), begin, end, lines.isFileStart());
+        }
+        if (batch.size() > 0) {
+            submit(batch);
+        }
+        while (emitted < submitted) {
+            collect();
+        }
+        output.finish();
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                break;
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                worker.pageBuilder.close();
+            }
+        }
+        for (Result result : reorderBuffer.values()) {
+            release(result.pages);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(final LineBatch batch)
+    {
+        final long sequence = submitted++;
+        completion.submit(new Callable<Result>()
+        {
+            @Override
+            public Result call()
+                    throws Exception
+            {
+                try {
+                    return Exec.doWith(session, new ExecAction<Result>()
+                    {
+                        @Override
+                        public Result run()
+                        {
+                            return parse(sequence, batch);
+                        }
+                    });
+                }
+                catch (ExecutionException ex) {
+                    throw Throwables.propagate(ex.getCause());
+                }
+            }
+        });
+        while (submitted - emitted >= maxPendingBatches) {
+            collect();
+        }
+    }
+
+    private Result parse(long sequence, LineBatch batch)
+    {
+        Worker worker = threadWorker.get();
+        try {
+            byte[] bytes = batch.getBytes();
+            for (int i = 0; i < batch.size(); i++) {
+                worker.parser.parseLine(bytes, batch.getBegin(i), batch.getEnd(i));
+            }
+            worker.pageBuilder.flush();
+            return new Result(sequence, worker.pages.takePages());
+        }
+        finally {
+            worker.parser.flushMetrics();
+            batch.clear();
+            freeBatches.offer(batch);
+        }
+    }
+
+    private void collect()
+    {
+        Result result;
+        try {
+            Future<Result> future = completion.take();
+            result = future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+        catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+
+        if (!preserveOrder) {
+            emit(result);
+            return;
+        }
+        reorderBuffer.put(result.sequence, result);
+        while (true) {
+            Result next = reorderBuffer.remove(emitted);
+            if (next == null) {
+                break;
+            }
+            emit(next);
+        }
+    }
+
+    private void emit(Result result)
+    {
+        for (Page page : result.pages) {
+            output.add(page);
+        }
+        emitted++;
+    }
+
+    private LineBatch newBatch()
+    {
+        LineBatch reused = freeBatches.poll();
+        return reused != null ? reused : new LineBatch();
+    }
+
+    private static void release(List<Page> pages)
+    {
+        for (Page page : pages) {
+            page.release();
+        }
+    }
+
+    private static class Worker
+    {
+        private final PageCollector pages;
+        private final PageBuilder pageBuilder;
+        private final RecordParser parser;
+
+        Worker(PluginTask task, Schema schema, ParserMetrics metrics, RejectedLines rejects, MatchWatchdog watchdog)
+        {
+            this.pages = new PageCollector();
+            this.pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, pages);
+            this.parser = new RecordParser(task, schema, pageBuilder, metrics, rejects, watchdog);
+        }
+    }
+
+    private static class Result
+    {
+        private final long sequence;
+        private final List<Page> pages;
+
+        Result(long sequence, List<Page> pages)
+        {
+            this.sequence = sequence;
+            this.pages = pages;
+        }
+    }
+
+    /**
+     * Keeps the pages a worker's {@link PageBuilder} flushes until the task thread adds them to the output.
+     */
+    private static class PageCollector
+            implements PageOutput
+    {
+        private List<Page> pages = new ArrayList<>();
+
+        List<Page> takePages()
+        {
+            List<Page> taken = pages;
+            pages = new ArrayList<>();
+            return taken;
+        }
+
+        @Override
+        public void add(Page page)
+        {
+            pages.add(page);
+        }
+
+        @Override
+        public void finish()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+            release(pages);
+            pages.clear();
+        }
+    }
+}
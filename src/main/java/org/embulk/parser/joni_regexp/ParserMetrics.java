@@ -0,0 +1,348 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the lines, bytes, matches, errors, match timeouts and value dictionary lookups of one task, and the time
+ * spent matching lines, converting captures into column values and adding records.
+ *
+ * {@link RecordParser}s count into their own {@link Counter} on their thread and add it to the
+ * task totals every {@link #FLUSH_LINES} lines. The totals are logged every
+ * {@code metrics_log_interval} seconds and when the task ends, and published as a JMX MBean
+ * while the task runs when {@code metrics_jmx} is true.
+ */
+class ParserMetrics
+        implements ParserMetricsMBean, AutoCloseable
+{
+    private static final Logger logger = Exec.getLogger(JoniRegexpParserPlugin.class);
+
+    static final int FLUSH_LINES = 1024;
+    /**
+     * Times one line of every TIMING_INTERVAL lines, because reading the clock for every line
+     * would cost about as much as matching a short line.
+     */
+    static final int TIMING_INTERVAL = 16;
+
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong matchedLines = new AtomicLong();
+    private final AtomicLong unmatchedLines = new AtomicLong();
+    private final AtomicLong conversionErrors = new AtomicLong();
+    private final AtomicLong matchTimeouts = new AtomicLong();
+    private final AtomicLong filteredLines = new AtomicLong();
+    private final AtomicLong dictionaryLookups = new AtomicLong();
+    private final AtomicLong dictionaryHits = new AtomicLong();
+    private final AtomicLong matchNanos = new AtomicLong();
+    private final AtomicLong convertNanos = new AtomicLong();
+    private final AtomicLong addRecordNanos = new AtomicLong();
+    private final long startNanos;
+
+    private ObjectName objectName;
+    private ScheduledExecutorService reporter;
+    private long lastReportNanos;
+    private long lastReportLines;
+    private long lastReportBytes;
+
+    ParserMetrics()
+    {
+        this.startNanos = System.nanoTime();
+        this.lastReportNanos = startNanos;
+    }
+
+    public static ParserMetrics start(PluginTask task, long taskNumber)
+    {
+        ParserMetrics metrics = new ParserMetrics();
+        if (task.getMetricsJmx()) {
+            metrics.registerMBean(taskNumber);
+        }
+        if (task.getMetricsLogInterval() > 0) {
+            metrics.startReporter(task.getMetricsLogInterval());
+        }
+        return metrics;
+    }
+
+    public Counter newCounter()
+    {
+        return new Counter(this);
+    }
+
+    private void registerMBean(long taskNumber)
+    {
+        try {
+            ObjectName name = new ObjectName(String.format(Locale.ENGLISH, "org.embulk.parser.joni_regexp:type=ParserMetrics,task=%d", taskNumber));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, ParserMetricsMBean.class), name);
+            objectName = name;
+        }
+        catch (JMException | SecurityException ex) {
+            logger.warn(String.format(Locale.ENGLISH, "failed to register the parser metrics MBean: %s", ex.getMessage()));
+        }
+    }
+
+    private void startReporter(long intervalSeconds)
+    {
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "joni_regexp-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                logRate();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void logRate()
+    {
+        long now = System.nanoTime();
+        long currentLines = lines.get();
+        long currentBytes = bytes.get();
+        double seconds = (now - lastReportNanos) / 1e9;
+        logger.info(String.format(Locale.ENGLISH, "parsed %d lines: %.1f lines/s, %.2f MB/s, match ratio %.2f%%",
+                currentLines, (currentLines - lastReportLines) / seconds, (currentBytes - lastReportBytes) / seconds / 1e6, getMatchRatio() * 100));
+        lastReportNanos = now;
+        lastReportLines = currentLines;
+        lastReportBytes = currentBytes;
+    }
+
+    /**
+     * Stops logging and publishing the metrics, and logs the task summary.
+     */
+    @Override
+    public void close()
+    {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            }
+            catch (JMException ex) {
+                logger.warn(String.format(Locale.ENGLISH, "failed to unregister the parser metrics MBean: %s", ex.getMessage()));
+            }
+        }
+        logger.info(summary());
+    }
+
+    String summary()
+    {
+        long elapsed = getElapsedNanos();
+        long timed = Math.max(1, getMatchNanos() + getConvertNanos() + getAddRecordNanos());
+        String summary = String.format(Locale.ENGLISH,
+                "parsed %d lines (%d bytes) in %.3f s: %.1f lines/s, %.2f MB/s, matched %d, unmatched %d (match ratio %.2f%%), conversion errors %d, match timeouts %d, "
+                        + "time in match %.1f%%, convert %.1f%%, addRecord %.1f%%",
+                getLines(), getBytes(), elapsed / 1e9, getLinesPerSecond(), getMegabytesPerSecond(),
+                getMatchedLines(), getUnmatchedLines(), getMatchRatio() * 100, getConversionErrors(), getMatchTimeouts(),
+                getMatchNanos() * 100.0 / timed, getConvertNanos() * 100.0 / timed, getAddRecordNanos() * 100.0 / timed);
+        if (getFilteredLines() > 0) {
+            summary += String.format(Locale.ENGLISH, ", filtered out by where %d", getFilteredLines());
+        }
+        if (getDictionaryLookups() > 0) {
+            summary += String.format(Locale.ENGLISH, ", dictionary hit ratio %.2f%% of %d lookups", getDictionaryHitRatio() * 100, getDictionaryLookups());
+        }
+        return summary;
+    }
+
+    @Override
+    public long getLines()
+    {
+        return lines.get();
+    }
+
+    @Override
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    @Override
+    public long getMatchedLines()
+    {
+        return matchedLines.get();
+    }
+
+    @Override
+    public long getUnmatchedLines()
+    {
+        return unmatchedLines.get();
+    }
+
+    @Override
+    public long getConversionErrors()
+    {
+        return conversionErrors.get();
+    }
+
+    @Override
+    public long getMatchTimeouts()
+    {
+        return matchTimeouts.get();
+    }
+
+    @Override
+    public long getFilteredLines()
+    {
+        return filteredLines.get();
+    }
+
+    @Override
+    public long getDictionaryLookups()
+    {
+        return dictionaryLookups.get();
+    }
+
+    @Override
+    public long getDictionaryHits()
+    {
+        return dictionaryHits.get();
+    }
+
+    @Override
+    public long getMatchNanos()
+    {
+        return matchNanos.get();
+    }
+
+    @Override
+    public long getConvertNanos()
+    {
+        return convertNanos.get();
+    }
+
+    @Override
+    public long getAddRecordNanos()
+    {
+        return addRecordNanos.get();
+    }
+
+    @Override
+    public long getElapsedNanos()
+    {
+        return System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public double getLinesPerSecond()
+    {
+        return getLines() / Math.max(1e-9, getElapsedNanos() / 1e9);
+    }
+
+    @Override
+    public double getMegabytesPerSecond()
+    {
+        return getBytes() / 1e6 / Math.max(1e-9, getElapsedNanos() / 1e9);
+    }
+
+    @Override
+    public double getMatchRatio()
+    {
+        long matched = getMatchedLines();
+        long total = matched + getUnmatchedLines();
+        return total == 0 ? 0.0 : (double) matched / total;
+    }
+
+    @Override
+    public double getDictionaryHitRatio()
+    {
+        long total = getDictionaryLookups();
+        return total == 0 ? 0.0 : (double) getDictionaryHits() / total;
+    }
+
+    /**
+     * Counts of one {@link RecordParser}, used by one thread only.
+     */
+    static class Counter
+    {
+        private final ParserMetrics metrics;
+
+        long lines;
+        long bytes;
+        long matchedLines;
+        long unmatchedLines;
+        long conversionErrors;
+        long matchTimeouts;
+        long filteredLines;
+        long dictionaryLookups;
+        long dictionaryHits;
+        long matchNanos;
+        long convertNanos;
+        long addRecordNanos;
+
+        private Counter(ParserMetrics metrics)
+        {
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return true when this line should be timed
+         */
+        boolean countLine(int length)
+        {
+            bytes += length;
+            return ++lines % TIMING_INTERVAL == 0;
+        }
+
+        void lineDone()
+        {
+            if (lines % FLUSH_LINES == 0) {
+                flush();
+            }
+        }
+
+        /**
+         * Adds the counts to the task totals and resets them.
+         */
+        void flush()
+        {
+            metrics.lines.addAndGet(lines);
+            metrics.bytes.addAndGet(bytes);
+            metrics.matchedLines.addAndGet(matchedLines);
+            metrics.unmatchedLines.addAndGet(unmatchedLines);
+            metrics.conversionErrors.addAndGet(conversionErrors);
+            metrics.matchTimeouts.addAndGet(matchTimeouts);
+            metrics.filteredLines.addAndGet(filteredLines);
+            metrics.dictionaryLookups.addAndGet(dictionaryLookups);
+            metrics.dictionaryHits.addAndGet(dictionaryHits);
+            metrics.matchNanos.addAndGet(matchNanos * TIMING_INTERVAL);
+            metrics.convertNanos.addAndGet(convertNanos * TIMING_INTERVAL);
+            metrics.addRecordNanos.addAndGet(addRecordNanos * TIMING_INTERVAL);
+            lines = 0;
+            bytes = 0;
+            matchedLines = 0;
+            unmatchedLines = 0;
+            conversionErrors = 0;
+            matchTimeouts = 0;
+            filteredLines = 0;
+            dictionaryLookups = 0;
+            dictionaryHits = 0;
+            matchNanos = 0;
+            convertNanos = 0;
+            addRecordNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.embulk.parser.joni_regexp;
+
+/**
+ * The JMX view of {@link ParserMetrics}. Times are estimated from a sample of the lines.
+ */
+public interface ParserMetricsMBean
+{
+    long getLines();
+
+    long getBytes();
+
+    long getMatchedLines();
+
+    long getUnmatchedLines();
+
+    long getConversionErrors();
+
+    long getMatchTimeouts();
+
+    long getFilteredLines();
+
+    long getDictionaryLookups();
+
+    long getDictionaryHits();
+
+    long getMatchNanos();
+
+    long getConvertNanos();
+
+    long getAddRecordNanos();
+
+    long getElapsedNanos();
+
+    double getLinesPerSecond();
+
+    double getMegabytesPerSecond();
+
+    double getMatchRatio();
+
+    double getDictionaryHitRatio();
+}
@@ -0,0 +1,211 @@
+package org.embulk.parser.joni_regexp;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.SchemaConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code preset} option: a {@code format} and {@code columns} for a well-known log layout.
+ *
+ * The formats use possessive quantifiers and atomic groups only, so a line that does not match
+ * fails without backtracking, and the columns are typed so that code and size are parsed as longs
+ * and the timestamps get a {@link FastTimestampParser}. The times of the syslog presets are
+ * strings, because that of syslog_rfc3164 has no year and the fraction of the seconds of
+ * syslog_rfc5424 is optional. Optional fields such as the size "-" are left out of the capture,
+ * so they become null.
+ */
+public enum Preset
+{
+    APACHE_COMMON(Formats.APACHE_COMMON + "$", Formats.APACHE_COMMON_COLUMNS),
+
+    APACHE_COMBINED(Formats.APACHE_COMMON + Formats.REFERER_AGENT + "$", Formats.APACHE_COMBINED_COLUMNS),
+
+    NGINX(Formats.APACHE_COMMON + Formats.REFERER_AGENT + "(?: \"(?<http_x_forwarded_for>[^\"]*+)\")?$",
+            ImmutableList.<Map<String, String>>builder()
+                    .addAll(Formats.APACHE_COMBINED_COLUMNS)
+                    .add(column("http_x_forwarded_for", "string"))
+                    .build()),
+
+    SYSLOG_RFC3164("^(?:<(?<pri>(?>[0-9]{1,3}))>)?"
+            + "(?<time>[A-Z][a-z]{2} [ 0-9][0-9] [0-9]{2}:[0-9]{2}:[0-9]{2}) "
+            + "(?<host>[^ ]++) "
+            + "(?:(?<ident>[^ :\\[]++)(?:\\[(?<pid>[0-9]++)\\])?: )?"
+            + "(?<message>.*+)$",
+            ImmutableList.of(
+                    column("pri", "long"),
+                    // the time has no year, so a timestamp of it would be in 1970
+                    column("time", "string"),
+                    column("host", "string"),
+                    column("ident", "string"),
+                    column("pid", "long"),
+                    column("message", "string"))),
+
+    SYSLOG_RFC5424("^<(?<pri>(?>[0-9]{1,3}))>(?>[0-9]{1,2}) "
+            + "(?:-|(?<time>[0-9]{4}-[0-9]{2}-[0-9]{2}T[^ ]++)) "
+            + "(?<host>[^ ]++) "
+            + "(?<ident>[^ ]++) "
+            + "(?<pid>[^ ]++) "
+            + "(?<msgid>[^ ]++) "
+            + "(?<extradata>-|(?:\\[(?:[^\\]\\\\]++|\\\\.)*+\\])++)"
+            + "(?: (?<message>.*+))?$",
+            ImmutableList.of(
+                    column("pri", "long"),
+                    // the fraction of the seconds is optional, which no single timestamp format parses
+                    column("time", "string"),
+                    column("host", "string"),
+                    column("ident", "string"),
+                    column("pid", "string"),
+                    column("msgid", "string"),
+                    column("extradata", "string"),
+                    column("message", "string"))),
+
+    /**
+     * The labels of LTSV are not fixed, so this preset takes them from the names of
+     * {@code columns}, in any order on the line, and has no columns of its own.
+     */
+    LTSV(null, ImmutableList.<Map<String, String>>of())
+    {
+        @Override
+        public String getFormat(List<String> columnNames)
+        {
+            StringBuilder sb = new StringBuilder("^");
+            for (String name : columnNames) {
+                if (!isGroupName(name)) {
+                    throw new ConfigException(String.format("preset ltsv needs column names of letters, digits and underscores but got \"%s\"", name));
+                }
+                // looks ahead field by field for "name:", so the labels can be in any order
+                sb.append("(?=(?:(?:[^\\t]*+\\t)*?").append(name).append(":(?<").append(name).append(">[^\\t]*+))?)");
+            }
+            return sb.toString();
+        }
+    };
+
+    private static final Pattern GROUP_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String format;
+    private final List<Map<String, String>> columns;
+
+    Preset(String format, List<Map<String, String>> columns)
+    {
+        this.format = format;
+        this.columns = columns;
+    }
+
+    @JsonCreator
+    public static Preset of(String value)
+    {
+        for (Preset preset : values()) {
+            if (preset.toString().equals(value.toLowerCase(Locale.ENGLISH))) {
+                return preset;
+            }
+        }
+        throw new ConfigException(String.format("Unknown preset \"%s\". Supported presets are apache_common, apache_combined, nginx, syslog_rfc3164, syslog_rfc5424 and ltsv", value));
+    }
+
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return true if {@code name} can be a label of the ltsv preset
+     */
+    static boolean isGroupName(String name)
+    {
+        return GROUP_NAME.matcher(name).matches();
+    }
+
+    /**
+     * @return the format for the given column names
+     */
+    public String getFormat(List<String> columnNames)
+    {
+        return format;
+    }
+
+    /**
+     * @return the {@code columns} option of this preset, empty if it needs them from the config
+     */
+    public List<Map<String, String>> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Sets the {@code format} and {@code columns} of the {@code preset} in {@code config}, unless
+     * they are given.
+     *
+     * @return a copy of {@code config} with the preset expanded, or {@code config} itself if it
+     * has no preset
+     */
+    public static ConfigSource expand(ConfigSource config)
+    {
+        if (!config.has("preset")) {
+            return config;
+        }
+        Preset preset = config.get(Preset.class, "preset");
+        ConfigSource expanded = config.deepCopy();
+        if (!expanded.has("columns")) {
+            if (preset.getColumns().isEmpty()) {
+                throw new ConfigException(String.format("preset %s needs the columns parameter", preset));
+            }
+            expanded.set("columns", preset.getColumns());
+        }
+        if (!expanded.has("format")) {
+            SchemaConfig columns = expanded.get(SchemaConfig.class, "columns");
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < columns.getColumnCount(); i++) {
+                names.add(columns.getColumnName(i));
+            }
+            expanded.set("format", preset.getFormat(names));
+        }
+        return expanded;
+    }
+
+    private static Map<String, String> column(String name, String type)
+    {
+        return ImmutableMap.of("name", name, "type", type);
+    }
+
+    private static Map<String, String> column(String name, String type, String format)
+    {
+        return ImmutableMap.of("name", name, "type", type, "format", format);
+    }
+
+    // enum constants can not refer to the static fields of their own enum
+    private static class Formats
+    {
+        static final String APACHE_COMMON = "^(?<host>[^ ]++) [^ ]++ (?<user>[^ ]++) \\[(?<time>[^\\]]++)\\] "
+                + "\"(?<method>[^ \"]++)(?: ++(?<path>[^ \"]*+)(?: ++[^ \"]*+)?)?\" "
+                + "(?<code>[0-9]++) (?:-|(?<size>[0-9]++))";
+
+        static final String REFERER_AGENT = " \"(?<referer>(?:[^\"\\\\]++|\\\\.)*+)\" \"(?<agent>(?:[^\"\\\\]++|\\\\.)*+)\"";
+
+        static final List<Map<String, String>> APACHE_COMMON_COLUMNS = ImmutableList.of(
+                column("host", "string"),
+                column("user", "string"),
+                column("time", "timestamp", FastTimestampParser.APACHE_FORMAT),
+                column("method", "string"),
+                column("path", "string"),
+                column("code", "long"),
+                column("size", "long"));
+
+        static final List<Map<String, String>> APACHE_COMBINED_COLUMNS = ImmutableList.<Map<String, String>>builder()
+                .addAll(APACHE_COMMON_COLUMNS)
+                .add(column("referer", "string"))
+                .add(column("agent", "string"))
+                .build();
+    }
+}
@@ -0,0 +1,202 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Throwables;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecSession;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads lines from another {@link LineSource} on a separate thread, so that reading and splitting
+ * the input overlaps with parsing.
+ *
+ * The reading thread copies lines into {@link LineBatch}es and hands them over through a queue
+ * of {@code queueSize} batches, which caps the memory used. Lines come out in the order they were read. An exception on the
+ * reading thread is thrown from {@link #nextLine()} after the lines read before it.
+ *
+ * The reading thread runs in the {@link ExecSession} of the task, because file input plugins
+ * may use {@link Exec}. The source is used and closed only by the reading thread, and
+ * {@link #close()} waits for that thread to finish.
+ */
+class ReadAheadLineReader
+        implements LineSource
+{
+    private static final LineBatch END = new LineBatch();
+
+    private final LineSource source;
+    private final BlockingQueue<LineBatch> queue;
+    private final BlockingQueue<LineBatch> free;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Throwable error;
+
+    private LineBatch batch;
+    private int index;
+    private boolean finished;
+
+    public ReadAheadLineReader(LineSource source, int queueSize, final ExecSession session)
+    {
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.free = new ArrayBlockingQueue<>(queueSize + 2);
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                produce(session);
+            }
+        }, "joni_regexp-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean nextLine()
+    {
+        if (batch != null) {
+            if (++index < batch.size()) {
+                return true;
+            }
+            free.offer(batch);
+            batch = null;
+        }
+        if (finished) {
+            return false;
+        }
+
+        LineBatch next;
+        try {
+            next = queue.take();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+        if (next == END) {
+            finished = true;
+            if (error != null) {
+                throw Throwables.propagate(error);
+            }
+            return false;
+        }
+        batch = next;
+        index = 0;
+        return true;
+    }
+
+    @Override
+    public byte[] getBytes()
+    {
+        return batch.getBytes();
+    }
+
+    @Override
+    public int getBegin()
+    {
+        return batch.getBegin(index);
+    }
+
+    @Override
+    public int getEnd()
+    {
+        return batch.getEnd(index);
+    }
+
+    @Override
+    public boolean isFileStart()
+    {
+        return batch.isFileStart(index);
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            queue.clear();
+            try {
+                thread.join();
+                break;
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void produce(ExecSession session)
+    {
+        try {
+            Exec.doWith(session, new ExecAction<Void>()
+            {
+                @Override
+                public Void run()
+                        throws InterruptedException
+                {
+                    readLines();
+                    return null;
+                }
+            });
+        }
+        catch (ExecutionException ex) {
+            error = ex.getCause();
+        }
+        catch (RuntimeException | Error ex) {
+            error = ex;
+        }
+        finally {
+            source.close();
+        }
+
+        try {
+            if (!closed) {
+                queue.put(END);
+            }
+        }
+        catch (InterruptedException ex) {
+            // closed while waiting for space
+        }
+    }
+
+    private void readLines()
+            throws InterruptedException
+    {
+        LineBatch current = newBatch();
+        try {
+            while (!closed && source.nextLine()) {
+                int begin = source.getBegin();
+                int end = source.getEnd();
+                if (current.isFull(end - begin)) {
+                    queue.put(current);
+                    current = newBatch();
+                }
+                current.add(source.getBytes(), begin, end, source.isFileStart());
+            }
+        }
+        finally {
+            // hand over the lines read before an error too
+            if (current.size() > 0 && !closed) {
+                queue.put(current);
+            }
+        }
+    }
+
+    private LineBatch newBatch()
+    {
+        LineBatch reused = free.poll();
+        if (reused != null) {
+            reused.clear();
+            return reused;
+        }
+        return new LineBatch();
+    }
+}
@@ -0,0 +1,389 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.config.ConfigException;
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.parser.joni_regexp.cast.BytesCast;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.joni.Regex;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Evaluates the {@code where} conditions on the captured bytes of a matched line, before any
+ * value is converted, so that a line it drops costs no more than its match.
+ *
+ * Every condition must hold. A column that the matched regex did not capture satisfies none.
+ * {@code ==}, {@code !=}, {@code in} and {@code not_in} compare the captured bytes with the text
+ * of the operands in the line charset. {@code <}, {@code <=}, {@code >} and {@code >=} compare
+ * numbers when the operand is a number, a capture that is not a number satisfying none, and bytes
+ * otherwise. {@code =~} and {@code !~} search a regex in the captured bytes.
+ *
+ * A RecordFilter matches regexes with contexts of its own, so it must be used by one thread at a
+ * time. With a {@link MatchWatchdog.Guard}, they run interruptibly, and a line whose regex search
+ * times out is not accepted, with {@link #isTimedOut()} true.
+ */
+class RecordFilter
+{
+    // the digits of any 18 digit number fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final Condition[] conditions;
+    private final int[][] groups; // [format index][condition], -1 if the regex has no group for the column
+    private boolean timedOut;
+
+    RecordFilter(List<WhereCondition> where, FormatList formats, Schema schema, LineEncoding encoding)
+    {
+        this.conditions = new Condition[where.size()];
+        this.groups = new int[formats.size()][where.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            WhereCondition condition = where.get(i);
+            if (!hasColumn(schema, condition.getName())) {
+                throw new ConfigException(String.format("Column \"%s\" in where is not in columns", condition.getName()));
+            }
+            conditions[i] = newCondition(condition, encoding);
+            for (int f = 0; f < formats.size(); f++) {
+                groups[f][i] = group(RegexCache.getInstance().get(formats.get(f), encoding).getCapturePlan(schema), condition.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the filter of the {@code where} option, or null if it has no conditions
+     */
+    public static RecordFilter of(PluginTask task, Schema schema)
+    {
+        if (task.getWhere().isEmpty()) {
+            return null;
+        }
+        return new RecordFilter(task.getWhere(), task.getFormat(), schema, LineEncoding.of(task));
+    }
+
+    /**
+     * @return true if the line that the regex at {@code formatIndex} matched in {@code context}
+     * satisfies every condition
+     */
+    public boolean accept(int formatIndex, MatchContext context)
+    {
+        timedOut = false;
+        int[] formatGroups = groups[formatIndex];
+        byte[] bytes = context.getBytes();
+        for (int i = 0; i < conditions.length; i++) {
+            int group = formatGroups[i];
+            int begin = group < 0 ? -1 : context.captureBegin(group);
+            if (begin < 0 || !conditions[i].test(bytes, begin, context.captureEnd(group))) {
+                timedOut = conditions[i].isTimedOut();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the regexes of {@code =~} and {@code !~} interruptibly under {@code guard} from now on.
+     */
+    public void setGuard(MatchWatchdog.Guard guard)
+    {
+        for (Condition condition : conditions) {
+            condition.setGuard(guard);
+        }
+    }
+
+    /**
+     * Returns true when the last line was not accepted because a regex search timed out.
+     */
+    public boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    private static boolean hasColumn(Schema schema, String name)
+    {
+        for (Column column : schema.getColumns()) {
+            if (column.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int group(CapturePlan plan, String name)
+    {
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.getColumn(i).getName().equals(name)) {
+                return plan.getGroup(i);
+            }
+        }
+        return -1;
+    }
+
+    private static Condition newCondition(WhereCondition condition, LineEncoding encoding)
+    {
+        Charset charset = encoding.getCharset();
+        switch (condition.getOperator()) {
+            case EQ:
+                return new TextIn(new byte[][] {text(condition.getValue(), charset)}, false);
+            case NE:
+                return new TextIn(new byte[][] {text(condition.getValue(), charset)}, true);
+            case IN:
+            case NOT_IN:
+                List<Object> values = condition.getValues();
+                byte[][] texts = new byte[values.size()][];
+                for (int i = 0; i < texts.length; i++) {
+                    texts[i] = text(values.get(i), charset);
+                }
+                return new TextIn(texts, condition.getOperator() == WhereCondition.Operator.NOT_IN);
+            case MATCH:
+            case NOT_MATCH:
+                if (!(condition.getValue() instanceof String)) {
+                    throw new ConfigException(String.format("where %s needs a regex string", condition));
+                }
+                String format = (String) condition.getValue();
+                // throw org.joni.exception.SyntaxException if regex is invalid.
+                Regex regex = RegexCache.getInstance().get(format, encoding).getRegex();
+                return new RegexSearch(new MatchContext(regex, format, MatchMode.AUTO.isAnchored(format)), condition.getOperator() == WhereCondition.Operator.NOT_MATCH);
+            default:
+                Object value = condition.getValue();
+                if (value instanceof Integer || value instanceof Long) {
+                    return new LongCompare(condition.getOperator(), ((Number) value).longValue());
+                }
+                else if (value instanceof Number) {
+                    return new DoubleCompare(condition.getOperator(), ((Number) value).doubleValue());
+                }
+                return new TextCompare(condition.getOperator(), text(value, charset));
+        }
+    }
+
+    private static byte[] text(Object value, Charset charset)
+    {
+        return String.valueOf(value).getBytes(charset);
+    }
+
+    private static boolean holds(WhereCondition.Operator op, int comparison)
+    {
+        switch (op) {
+            case LT:
+                return comparison < 0;
+            case LE:
+                return comparison <= 0;
+            case GT:
+                return comparison > 0;
+            case GE:
+                return comparison >= 0;
+            default:
+                throw new AssertionError(op);
+        }
+    }
+
+    private abstract static class Condition
+    {
+        abstract boolean test(byte[] bytes, int begin, int end);
+
+        void setGuard(MatchWatchdog.Guard guard)
+        {
+        }
+
+        boolean isTimedOut()
+        {
+            return false;
+        }
+    }
+
+    private static class TextIn
+            extends Condition
+    {
+        private final byte[][] texts;
+        private final boolean negated;
+
+        TextIn(byte[][] texts, boolean negated)
+        {
+            this.texts = texts;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean test(byte[] bytes, int begin, int end)
+        {
+            for (byte[] text : texts) {
+                if (equals(text, bytes, begin, end)) {
+                    return !negated;
+                }
+            }
+            return negated;
+        }
+
+        private static boolean equals(byte[] text, byte[] bytes, int begin, int end)
+        {
+            if (text.length != end - begin) {
+                return false;
+            }
+            for (int i = 0; i < text.length; i++) {
+                if (text[i] != bytes[begin + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class TextCompare
+            extends Condition
+    {
+        private final WhereCondition.Operator op;
+        private final byte[] text;
+
+        TextCompare(WhereCondition.Operator op, byte[] text)
+        {
+            this.op = op;
+            this.text = text;
+        }
+
+        @Override
+        boolean test(byte[] bytes, int begin, int end)
+        {
+            int length = Math.min(end - begin, text.length);
+            for (int i = 0; i < length; i++) {
+                int comparison = (bytes[begin + i] & 0xff) - (text[i] & 0xff);
+                if (comparison != 0) {
+                    return holds(op, comparison);
+                }
+            }
+            return holds(op, (end - begin) - text.length);
+        }
+    }
+
+    private static class LongCompare
+            extends Condition
+    {
+        private final WhereCondition.Operator op;
+        private final long operand;
+
+        LongCompare(WhereCondition.Operator op, long operand)
+        {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(byte[] bytes, int begin, int end)
+        {
+            int digits = integerDigits(bytes, begin, end);
+            if (digits > MAX_LONG_DIGITS) {
+                // may not fit in a long
+                BigInteger value = new BigInteger(new String(bytes, begin, end - begin, StandardCharsets.US_ASCII));
+                return holds(op, value.compareTo(BigInteger.valueOf(operand)));
+            }
+            if (digits > 0) {
+                return holds(op, Long.compare(BytesCast.asLong(bytes, begin, end), operand));
+            }
+            // such as "1.5", while "-" and "NaN" satisfy none without a DataException from BytesCast
+            return isDecimal(bytes, begin, end) && holds(op, Double.compare(BytesCast.asDouble(bytes, begin, end), operand));
+        }
+    }
+
+    private static class DoubleCompare
+            extends Condition
+    {
+        private final WhereCondition.Operator op;
+        private final double operand;
+
+        DoubleCompare(WhereCondition.Operator op, double operand)
+        {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(byte[] bytes, int begin, int end)
+        {
+            return isDecimal(bytes, begin, end) && holds(op, Double.compare(BytesCast.asDouble(bytes, begin, end), operand));
+        }
+    }
+
+    /**
+     * @return the number of digits when {@code bytes[begin, end)} is an integer with an optional
+     * sign, or -1 otherwise
+     */
+    static int integerDigits(byte[] bytes, int begin, int end)
+    {
+        int start = begin < end && (bytes[begin] == '-' || bytes[begin] == '+') ? begin + 1 : begin;
+        int pos = skipDigits(bytes, start, end);
+        return pos == end && pos > start ? pos - start : -1;
+    }
+
+    /**
+     * @return true when {@code bytes[begin, end)} is a number in plain decimal notation, which
+     * {@link BytesCast#asDouble} converts without an exception. "NaN", "Infinity" and "1d" are not.
+     */
+    static boolean isDecimal(byte[] bytes, int begin, int end)
+    {
+        int pos = begin < end && (bytes[begin] == '-' || bytes[begin] == '+') ? begin + 1 : begin;
+        int integerEnd = skipDigits(bytes, pos, end);
+        int digits = integerEnd - pos;
+        pos = integerEnd;
+        if (pos < end && bytes[pos] == '.') {
+            int fractionEnd = skipDigits(bytes, pos + 1, end);
+            digits += fractionEnd - pos - 1;
+            pos = fractionEnd;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+            pos++;
+            if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+                pos++;
+            }
+            int exponentEnd = skipDigits(bytes, pos, end);
+            if (exponentEnd == pos) {
+                return false;
+            }
+            pos = exponentEnd;
+        }
+        return pos == end;
+    }
+
+    private static int skipDigits(byte[] bytes, int pos, int end)
+    {
+        while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static class RegexSearch
+            extends Condition
+    {
+        private final MatchContext context;
+        private final boolean negated;
+
+        RegexSearch(MatchContext context, boolean negated)
+        {
+            this.context = context;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean test(byte[] bytes, int begin, int end)
+        {
+            boolean found = context.search(bytes, begin, end);
+            // a search that timed out satisfies neither =~ nor !~
+            return !context.isTimedOut() && found != negated;
+        }
+
+        @Override
+        void setGuard(MatchWatchdog.Guard guard)
+        {
+            context.setGuard(guard);
+        }
+
+        @Override
+        boolean isTimedOut()
+        {
+            return context.isTimedOut();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.util.Timestamps;
+import org.slf4j.Logger;
+
+import java.util.Locale;
+
+/**
+ * Matches lines and adds a record to a {@link PageBuilder} for each matched line.
+ *
+ * A RecordParser owns its matchers, timestamp parsers and caches, so it must be used by one
+ * thread at a time. Parse on several threads with one RecordParser each.
+ */
+class RecordParser
+{
+    private static final Logger logger = Exec.getLogger(JoniRegexpParserPlugin.class);
+
+    private final PluginTask task;
+    private final PageBuilder pageBuilder;
+    private final ColumnVisitorImpl visitor;
+    private final FormatMatcher matcher;
+    private final RecordFilter filter;
+    private final ParserMetrics.Counter counter;
+    private final RejectedLines rejects;
+    private final LineEncoding encoding;
+
+    /**
+     * @param watchdog null for no match timeout. Otherwise the RecordParser must be created on the
+     * thread that uses it.
+     */
+    public RecordParser(PluginTask task, Schema schema, PageBuilder pageBuilder, ParserMetrics metrics, RejectedLines rejects, MatchWatchdog watchdog)
+    {
+        TimestampParser[] timestampParsers = Timestamps.newTimestampColumnParsers(task, task.getColumns());
+
+        this.task = task;
+        this.pageBuilder = pageBuilder;
+        this.counter = metrics.newCounter();
+        this.visitor = new ColumnVisitorImpl(task, schema, pageBuilder, timestampParsers, counter);
+        this.matcher = FormatMatcher.build(task, schema);
+        this.filter = RecordFilter.of(task, schema);
+        this.rejects = rejects;
+        this.encoding = LineEncoding.of(task);
+        if (watchdog != null) {
+            MatchWatchdog.Guard guard = watchdog.register();
+            matcher.setGuard(guard);
+            if (filter != null) {
+                filter.setGuard(guard);
+            }
+        }
+    }
+
+    public FormatMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    public TimestampCache getTimestampCache(Column column)
+    {
+        return visitor.getTimestampCache(column);
+    }
+
+    public ValueDictionary getDictionary(Column column)
+    {
+        return visitor.getDictionary(column);
+    }
+
+    public void parseLine(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        boolean timed = counter.countLine(lineEnd - lineBegin);
+        long start = timed ? System.nanoTime() : 0L;
+
+        boolean matched = matcher.search(lineBytes, lineBegin, lineEnd);
+        if (timed) {
+            long now = System.nanoTime();
+            counter.matchNanos += now - start;
+            start = now;
+        }
+
+        if (matched) {
+            counter.matchedLines++;
+            if (filter != null && !filter.accept(matcher.getFormatIndex(), matcher.getContext())) {
+                if (filter.isTimedOut()) {
+                    timedOut(lineBytes, lineBegin, lineEnd);
+                }
+                else {
+                    counter.filteredLines++;
+                }
+                counter.lineDone();
+                return;
+            }
+            try {
+                setValues();
+            }
+            catch (DataException ex) {
+                counter.conversionErrors++;
+                if (!task.getSkipConversionErrors() || task.getStopOnInvalidRecord()) {
+                    throw ex;
+                }
+                // every column is set again for the next record, so the values set so far are just overwritten
+                rejects.conversionFailed(lineBytes, lineBegin, lineEnd, ex.getMessage());
+                counter.lineDone();
+                return;
+            }
+            if (timed) {
+                long now = System.nanoTime();
+                counter.convertNanos += now - start;
+                start = now;
+            }
+
+            pageBuilder.addRecord();
+            if (timed) {
+                counter.addRecordNanos += System.nanoTime() - start;
+            }
+        }
+        else {
+            counter.unmatchedLines++;
+            if (matcher.isTimedOut()) {
+                timedOut(lineBytes, lineBegin, lineEnd);
+            }
+            else {
+                if (task.getStopOnInvalidRecord()) {
+                    throw new DataException(String.format("Invalid record at line %s", lineString(lineBytes, lineBegin, lineEnd)));
+                }
+                rejects.unmatched(lineBytes, lineBegin, lineEnd);
+            }
+        }
+        counter.lineDone();
+    }
+
+    // the format or a where regex ran longer than match_timeout_ms
+    private void timedOut(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        counter.matchTimeouts++;
+        if (task.getStopOnInvalidRecord()) {
+            throw new DataException(String.format("Matching timed out at line %s", lineString(lineBytes, lineBegin, lineEnd)));
+        }
+        rejects.timedOut(lineBytes, lineBegin, lineEnd);
+    }
+
+    /**
+     * Adds the counts of this parser to the task metrics. Call it on the thread that parses.
+     */
+    public void flushMetrics()
+    {
+        counter.flush();
+    }
+
+    private void setValues()
+    {
+        MatchContext context = matcher.getContext();
+        CapturePlan plan = matcher.getPlan();
+        byte[] bytes = context.getBytes();
+        for (int i = 0; i < plan.size(); i++) {
+            int number = plan.getGroup(i);
+            int begin = context.captureBegin(number);
+            int end = context.captureEnd(number);
+
+            Column column = plan.getColumn(i);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format(Locale.ENGLISH, "<%s> = %s", column.getName(), captureString(bytes, begin, end)));
+            }
+            setValue(column, bytes, begin, end);
+        }
+        for (Column column : matcher.getUnmatchedColumns()) {
+            pageBuilder.setNull(column);
+        }
+    }
+
+    private void setValue(Column column, byte[] bytes, int begin, int end)
+    {
+        try {
+            visitor.setValue(bytes, begin, end);
+            column.visit(visitor);
+        }
+        catch (Exception ex) {
+            throw new DataException(String.format(Locale.ENGLISH, "Set value failed. column = \"%s\" value = \"%s\", reason = \"%s\"", column.getName(), captureString(bytes, begin, end), ex.getMessage()));
+        }
+    }
+
+    private String captureString(byte[] bytes, int begin, int end)
+    {
+        return begin < 0 ? null : encoding.decode(bytes, begin, end);
+    }
+
+    private String lineString(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        return encoding.decode(lineBytes, lineBegin, lineEnd);
+    }
+}
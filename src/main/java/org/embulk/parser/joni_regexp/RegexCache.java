@@ -0,0 +1,178 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.spi.Schema;
+import org.jcodings.Encoding;
+import org.joni.Option;
+import org.joni.Regex;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled regexes shared by all the tasks in the JVM, keyed on the pattern bytes, the options
+ * and the encoding, with the least recently used one evicted beyond {@code maxEntries}.
+ *
+ * A job with many small files runs a task per file, and each of them would otherwise compile the
+ * same formats and resolve the same group names again. A {@link Regex} is immutable once
+ * compiled, and each thread matches it with a {@link MatchContext} of its own. The capture plan
+ * of the last schema is kept with each regex, which is the schema of every task of a job.
+ *
+ * A regex is compiled outside the lock, so two threads that miss at once may both compile it and
+ * the first one put is kept. A pattern that fails to compile is not cached.
+ */
+class RegexCache
+{
+    static final int MAX_ENTRIES = 256;
+
+    private static final RegexCache INSTANCE = new RegexCache(MAX_ENTRIES);
+
+    private final Map<Key, CompiledRegex> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    RegexCache(final int maxEntries)
+    {
+        this.entries = new LinkedHashMap<Key, CompiledRegex>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompiledRegex> eldest)
+            {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static RegexCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @throws org.joni.exception.SyntaxException if the regex is invalid
+     */
+    public CompiledRegex get(String format, LineEncoding encoding)
+    {
+        Key key = new Key(encoding.encodePattern(format), Option.NONE, encoding.getEncoding());
+        synchronized (entries) {
+            CompiledRegex cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        CompiledRegex compiled = new CompiledRegex(new Regex(key.pattern, 0, key.pattern.length, key.options, key.encoding));
+        synchronized (entries) {
+            CompiledRegex raced = entries.get(key);
+            if (raced != null) {
+                return raced;
+            }
+            entries.put(key, compiled);
+            return compiled;
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    static class CompiledRegex
+    {
+        private final Regex regex;
+        private volatile Plan plan;
+
+        CompiledRegex(Regex regex)
+        {
+            this.regex = regex;
+        }
+
+        public Regex getRegex()
+        {
+            return regex;
+        }
+
+        /**
+         * @throws org.embulk.spi.SchemaConfigException if a named group has no column
+         */
+        public CapturePlan getCapturePlan(Schema schema)
+        {
+            Plan last = plan;
+            if (last != null && last.schema.equals(schema)) {
+                return last.capturePlan;
+            }
+            CapturePlan capturePlan = CapturePlan.build(regex, schema);
+            plan = new Plan(schema, capturePlan);
+            return capturePlan;
+        }
+    }
+
+    private static class Plan
+    {
+        final Schema schema;
+        final CapturePlan capturePlan;
+
+        Plan(Schema schema, CapturePlan capturePlan)
+        {
+            this.schema = schema;
+            this.capturePlan = capturePlan;
+        }
+    }
+
+    private static class Key
+    {
+        final byte[] pattern;
+        final int options;
+        final Encoding encoding;
+        private final int hash;
+
+        Key(byte[] pattern, int options, Encoding encoding)
+        {
+            this.pattern = pattern;
+            this.options = options;
+            this.encoding = encoding;
+            this.hash = (Arrays.hashCode(pattern) * 31 + options) * 31 + encoding.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return options == other.options && encoding == other.encoding && Arrays.equals(pattern, other.pattern);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
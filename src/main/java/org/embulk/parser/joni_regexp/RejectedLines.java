@@ -0,0 +1,177 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import org.embulk.parser.joni_regexp.JoniRegexpParserPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the lines of one task that are skipped: unmatched lines, lines whose match timed out, and with
+ * {@code skip_conversion_errors} also lines whose captures fail to convert.
+ *
+ * At most {@code max_warnings_per_minute} of them are logged per minute, and the number of the
+ * others is logged once a minute and when the task ends, so that a format that stops matching
+ * does not flood the log. The line string is only built for a logged warning.
+ *
+ * With {@code rejected_lines_path}, every skipped line is written as it was read to the file
+ * {@code <rejected_lines_path>.<transaction time>.<task number>} through a large buffer. Embulk
+ * does not tell a parser the index of its task, so the file is named by the transaction time of
+ * the run and the number of the task in the JVM. The file is created, or truncated if it exists,
+ * on the first skipped line. Methods may be called by several threads.
+ */
+class RejectedLines
+        implements AutoCloseable
+{
+    private static final Logger logger = Exec.getLogger(JoniRegexpParserPlugin.class);
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final DateTimeFormatter TRANSACTION_TIME_FORMAT = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmssSSS'Z'").withZoneUTC();
+
+    private final int maxWarnings;
+    private final Optional<File> file;
+    private final Charset charset;
+
+    private long windowStart;
+    private int warnings;
+    private long suppressed;
+    private long totalSuppressed;
+    private OutputStream out;
+    private long written;
+
+    RejectedLines(int maxWarnings, Optional<File> file)
+    {
+        this(maxWarnings, file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param charset the charset of the lines, which are written to the file as they are
+     */
+    RejectedLines(int maxWarnings, Optional<File> file, Charset charset)
+    {
+        this.maxWarnings = maxWarnings;
+        this.file = file;
+        this.charset = charset;
+        this.windowStart = System.nanoTime();
+    }
+
+    public static RejectedLines of(PluginTask task, long taskNumber)
+    {
+        Optional<File> file = Optional.absent();
+        if (task.getRejectedLinesPath().isPresent()) {
+            String transactionTime = TRANSACTION_TIME_FORMAT.print(Exec.getTransactionTime().toEpochMilli());
+            file = Optional.of(new File(String.format(Locale.ENGLISH, "%s.%s.%d", task.getRejectedLinesPath().get(), transactionTime, taskNumber)));
+        }
+        return new RejectedLines(task.getMaxWarningsPerMinute(), file, LineEncoding.of(task).getCharset());
+    }
+
+    public synchronized void unmatched(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        if (shouldWarn()) {
+            logger.warn(String.format(Locale.ENGLISH, "skip unmatched line = %s", lineString(lineBytes, lineBegin, lineEnd)));
+        }
+        write(lineBytes, lineBegin, lineEnd);
+    }
+
+    public synchronized void timedOut(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        if (shouldWarn()) {
+            logger.warn(String.format(Locale.ENGLISH, "skip line that exceeded match_timeout_ms = %s", lineString(lineBytes, lineBegin, lineEnd)));
+        }
+        write(lineBytes, lineBegin, lineEnd);
+    }
+
+    public synchronized void conversionFailed(byte[] lineBytes, int lineBegin, int lineEnd, String reason)
+    {
+        if (shouldWarn()) {
+            logger.warn(String.format(Locale.ENGLISH, "skip line = %s: %s", lineString(lineBytes, lineBegin, lineEnd), reason));
+        }
+        write(lineBytes, lineBegin, lineEnd);
+    }
+
+    long getWritten()
+    {
+        return written;
+    }
+
+    long getTotalSuppressed()
+    {
+        return totalSuppressed;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (totalSuppressed > 0) {
+            logger.warn(String.format(Locale.ENGLISH, "%d skipped lines were not logged in total", totalSuppressed));
+        }
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+            finally {
+                out = null;
+            }
+            logger.info(String.format(Locale.ENGLISH, "wrote %d skipped lines to %s", written, file.get()));
+        }
+    }
+
+    private boolean shouldWarn()
+    {
+        long now = System.nanoTime();
+        if (now - windowStart >= WINDOW_NANOS) {
+            if (suppressed > 0) {
+                logger.warn(String.format(Locale.ENGLISH, "%d skipped lines were not logged in the last minute", suppressed));
+            }
+            windowStart = now;
+            warnings = 0;
+            suppressed = 0;
+        }
+        if (warnings < maxWarnings) {
+            warnings++;
+            return true;
+        }
+        suppressed++;
+        totalSuppressed++;
+        return false;
+    }
+
+    private void write(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        if (!file.isPresent()) {
+            return;
+        }
+        try {
+            if (out == null) {
+                out = new BufferedOutputStream(new FileOutputStream(file.get(), false), WRITE_BUFFER_SIZE);
+            }
+            out.write(lineBytes, lineBegin, lineEnd - lineBegin);
+            out.write('\n');
+            written++;
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    private String lineString(byte[] lineBytes, int lineBegin, int lineEnd)
+    {
+        return new String(lineBytes, lineBegin, lineEnd - lineBegin, charset);
+    }
+}
@@ -0,0 +1,432 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.parser.joni_regexp.cast.StringCast;
+import org.embulk.spi.DataException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParser;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the last parsed timestamps of one column, keyed on their raw bytes.
+ *
+ * Logs are written in time order, so consecutive lines mostly carry the same timestamp, or one
+ * that differs only in the seconds and fraction digits. The cache keeps the last {@code size}
+ * raw values with their parsed {@link Timestamp}. A value equal to one of them is a hit. When
+ * every field of the format before {@code %S} has a fixed width, the seconds are at a known byte
+ * offset, and a value that differs from the latest one only in its seconds, and the fraction
+ * digits of a {@code .%N} or {@code .%L} right after them, is derived from that entry without
+ * calling the parser. Only literal text and zones may follow the seconds.
+ *
+ * Timezone offsets are whole minutes, so a timestamp changes by exactly the difference of the
+ * seconds digits within the same minute. This is verified against the parsed value before an
+ * entry is used that way.
+ */
+class TimestampCache
+{
+    // bytes of a seconds layout that are any digit or any letter
+    private static final int DIGIT = -1;
+    private static final int LETTER = -2;
+
+    private static final int[] FRACTION_SCALES = {
+            1000000000, 100000000, 10000000, 1000000, 100000, 10000, 1000, 100, 10, 1,
+    };
+
+    private final TimestampParser parser;
+    private final FastTimestampParser fastParser;
+    private final int size;
+    private final SecondsLayout secondsLayout;
+    private final Charset charset;
+
+    private final byte[][] keys;
+    private final int[] lengths;
+    private final Timestamp[] values;
+    private final int[] secondOffsets;
+    private final int[] fractionEnds;
+    private int count;
+    private int latest = -1;
+
+    private long hits;
+    private long misses;
+
+    public TimestampCache(TimestampParser parser, int size, String format)
+    {
+        this(parser, null, size, format);
+    }
+
+    public TimestampCache(TimestampParser parser, FastTimestampParser fastParser, int size, String format)
+    {
+        this(parser, fastParser, size, format, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param fastParser tried before {@code parser} on a miss, or null
+     * @param format the format of {@code parser}, which tells where the seconds are, or null to
+     * never derive values by their seconds
+     * @param charset the charset of the raw values
+     */
+    public TimestampCache(TimestampParser parser, FastTimestampParser fastParser, int size, String format, Charset charset)
+    {
+        this.parser = parser;
+        this.fastParser = fastParser;
+        this.size = size;
+        this.secondsLayout = format == null ? null : SecondsLayout.of(format);
+        this.charset = charset;
+        this.keys = new byte[size][];
+        this.lengths = new int[size];
+        this.values = new Timestamp[size];
+        this.secondOffsets = new int[size];
+        this.fractionEnds = new int[size];
+    }
+
+    /**
+     * @return the byte offset of the seconds in the values of {@code format}, or -1 if values of
+     * the format are never derived by their seconds
+     */
+    public static int secondsOffset(String format)
+    {
+        SecondsLayout layout = SecondsLayout.of(format);
+        return layout == null ? -1 : layout.prefix.length;
+    }
+
+    public Timestamp parse(byte[] bytes, int begin, int end) throws DataException
+    {
+        int length = end - begin;
+        for (int n = 0, entry = latest; n < count; n++, entry = (entry == 0 ? size : entry) - 1) {
+            if (lengths[entry] == length && regionEquals(keys[entry], 0, bytes, begin, length)) {
+                hits++;
+                return values[entry];
+            }
+        }
+
+        if (count > 0 && lengths[latest] == length && secondOffsets[latest] >= 0) {
+            Timestamp shifted = shift(latest, bytes, begin, length);
+            if (shifted != null) {
+                hits++;
+                put(bytes, begin, length, shifted, secondOffsets[latest], fractionEnds[latest]);
+                return shifted;
+            }
+        }
+
+        misses++;
+        Timestamp timestamp = fastParser == null ? null : fastParser.parse(bytes, begin, end);
+        if (timestamp == null) {
+            timestamp = StringCast.asTimestamp(new String(bytes, begin, length, charset), parser);
+        }
+        if (size > 0) {
+            put(bytes, begin, length, timestamp, -1, -1);
+            if (secondsLayout != null) {
+                detectSeconds(latest);
+            }
+        }
+        return timestamp;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    private void put(byte[] bytes, int begin, int length, Timestamp timestamp, int secondOffset, int fractionEnd)
+    {
+        int entry = latest + 1 == size ? 0 : latest + 1;
+        if (keys[entry] == null || keys[entry].length < length) {
+            keys[entry] = new byte[Math.max(length, 32)];
+        }
+        System.arraycopy(bytes, begin, keys[entry], 0, length);
+        lengths[entry] = length;
+        values[entry] = timestamp;
+        secondOffsets[entry] = secondOffset;
+        fractionEnds[entry] = fractionEnd;
+        latest = entry;
+        if (count < size) {
+            count++;
+        }
+    }
+
+    /**
+     * Checks that the raw value fits the seconds layout and that its seconds, and the fraction
+     * digits following them, agree with the parsed value, and keeps their offsets.
+     */
+    private void detectSeconds(int entry)
+    {
+        byte[] key = keys[entry];
+        int length = lengths[entry];
+        int[] prefix = secondsLayout.prefix;
+        int secondOffset = prefix.length;
+        if (secondOffset + 2 > length) {
+            return;
+        }
+        for (int i = 0; i < secondOffset; i++) {
+            int expected = prefix[i];
+            if (expected == DIGIT ? !isDigit(key[i]) : expected == LETTER ? !isLetter(key[i]) : key[i] != expected) {
+                return;
+            }
+        }
+        if (!isDigit(key[secondOffset]) || !isDigit(key[secondOffset + 1])) {
+            return;
+        }
+
+        Timestamp timestamp = values[entry];
+        if (floorMod60(timestamp.getEpochSecond()) != twoDigits(key, secondOffset)) {
+            return;
+        }
+        int fractionEnd = secondOffset + 2;
+        byte separator = secondsLayout.fractionSeparator;
+        if (separator != 0 && fractionEnd + 1 < length && key[fractionEnd] == separator && isDigit(key[fractionEnd + 1])) {
+            int fractionBegin = fractionEnd + 1;
+            fractionEnd = fractionBegin;
+            while (fractionEnd < length && isDigit(key[fractionEnd])) {
+                fractionEnd++;
+            }
+            int digits = fractionEnd - fractionBegin;
+            if (digits > 9 || parseFraction(key, fractionBegin, fractionEnd) != timestamp.getNano()) {
+                return;
+            }
+        }
+        else if (fractionEnd < length && isDigit(key[fractionEnd])) {
+            return;
+        }
+        secondOffsets[entry] = secondOffset;
+        fractionEnds[entry] = fractionEnd;
+    }
+
+    private Timestamp shift(int entry, byte[] bytes, int begin, int length)
+    {
+        byte[] key = keys[entry];
+        int secondOffset = secondOffsets[entry];
+        int fractionEnd = fractionEnds[entry];
+        int fractionBegin = secondOffset + 3;
+
+        if (!regionEquals(key, 0, bytes, begin, secondOffset)
+                || !regionEquals(key, fractionEnd, bytes, begin + fractionEnd, length - fractionEnd)) {
+            return null;
+        }
+        if (!isDigit(bytes[begin + secondOffset]) || !isDigit(bytes[begin + secondOffset + 1])) {
+            return null;
+        }
+        int second = twoDigits(bytes, begin + secondOffset);
+        if (second > 59) {
+            return null;
+        }
+
+        Timestamp base = values[entry];
+        long epochSecond = base.getEpochSecond() - floorMod60(base.getEpochSecond()) + second;
+        if (fractionEnd == secondOffset + 2) {
+            return Timestamp.ofEpochSecond(epochSecond, base.getNano());
+        }
+        if (bytes[begin + secondOffset + 2] != key[secondOffset + 2]) {
+            return null;
+        }
+        for (int i = fractionBegin; i < fractionEnd; i++) {
+            if (!isDigit(bytes[begin + i])) {
+                return null;
+            }
+        }
+        return Timestamp.ofEpochSecond(epochSecond, parseFraction(bytes, begin + fractionBegin, begin + fractionEnd));
+    }
+
+    private static int parseFraction(byte[] bytes, int begin, int end)
+    {
+        int value = 0;
+        for (int i = begin; i < end; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value * FRACTION_SCALES[end - begin];
+    }
+
+    private static int twoDigits(byte[] bytes, int offset)
+    {
+        return (bytes[offset] - '0') * 10 + (bytes[offset + 1] - '0');
+    }
+
+    private static long floorMod60(long value)
+    {
+        long mod = value % 60;
+        return mod < 0 ? mod + 60 : mod;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isLetter(byte b)
+    {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Where the seconds are in the values of a format: the bytes before them, each a literal byte,
+     * {@link #DIGIT} or {@link #LETTER}, and the separator of the fraction digits after them.
+     */
+    private static class SecondsLayout
+    {
+        private final int[] prefix;
+        private final byte fractionSeparator;
+
+        private SecondsLayout(int[] prefix, byte fractionSeparator)
+        {
+            this.prefix = prefix;
+            this.fractionSeparator = fractionSeparator;
+        }
+
+        /**
+         * @return the layout, or null if a field before {@code %S} has a variable width, like
+         * {@code %-d}, {@code %e} or {@code %B}, or something other than literal text and zones
+         * follows the seconds
+         */
+        static SecondsLayout of(String format)
+        {
+            String expanded = expand(format);
+            List<Integer> prefix = new ArrayList<>();
+            int i = 0;
+            while (i < expanded.length()) {
+                char c = expanded.charAt(i);
+                if (c != '%') {
+                    if (c >= 0x80) {
+                        // the byte length of a non-ASCII literal depends on the charset
+                        return null;
+                    }
+                    prefix.add((int) c);
+                    i++;
+                    continue;
+                }
+                if (i + 1 == expanded.length()) {
+                    return null;
+                }
+                char conversion = expanded.charAt(i + 1);
+                i += 2;
+                switch (conversion) {
+                    case '%':
+                        prefix.add((int) '%');
+                        break;
+                    case 'Y':
+                        add(prefix, DIGIT, 4);
+                        break;
+                    case 'C':
+                    case 'y':
+                    case 'm':
+                    case 'd':
+                    case 'H':
+                    case 'I':
+                    case 'M':
+                        add(prefix, DIGIT, 2);
+                        break;
+                    case 'j':
+                        add(prefix, DIGIT, 3);
+                        break;
+                    case 'a':
+                    case 'b':
+                    case 'h':
+                        add(prefix, LETTER, 3);
+                        break;
+                    case 'p':
+                    case 'P':
+                        add(prefix, LETTER, 2);
+                        break;
+                    case 'S':
+                        return afterSeconds(expanded, i, prefix);
+                    default:
+                        return null;
+                }
+            }
+            return null;
+        }
+
+        private static SecondsLayout afterSeconds(String format, int i, List<Integer> prefix)
+        {
+            byte fractionSeparator = 0;
+            if (i + 1 < format.length() && (format.charAt(i) == '.' || format.charAt(i) == ',') && format.charAt(i + 1) == '%') {
+                int j = i + 2;
+                while (j < format.length() && format.charAt(j) >= '0' && format.charAt(j) <= '9') {
+                    j++;
+                }
+                if (j < format.length() && (format.charAt(j) == 'N' || format.charAt(j) == 'L')) {
+                    fractionSeparator = (byte) format.charAt(i);
+                    i = j + 1;
+                }
+            }
+            while (i < format.length()) {
+                if (format.charAt(i) != '%') {
+                    i++;
+                }
+                else if (format.startsWith("%z", i) || format.startsWith("%Z", i) || format.startsWith("%%", i)) {
+                    i += 2;
+                }
+                else if (format.startsWith("%:z", i)) {
+                    i += 3;
+                }
+                else if (format.startsWith("%::z", i)) {
+                    i += 4;
+                }
+                else {
+                    return null;
+                }
+            }
+
+            int[] bytes = new int[prefix.size()];
+            for (int n = 0; n < bytes.length; n++) {
+                bytes[n] = prefix.get(n);
+            }
+            return new SecondsLayout(bytes, fractionSeparator);
+        }
+
+        // replaces the combinations %T, %F, %D and %R with their fields
+        private static String expand(String format)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c != '%' || i + 1 == format.length()) {
+                    sb.append(c);
+                    continue;
+                }
+                char conversion = format.charAt(++i);
+                switch (conversion) {
+                    case 'T':
+                        sb.append("%H:%M:%S");
+                        break;
+                    case 'F':
+                        sb.append("%Y-%m-%d");
+                        break;
+                    case 'D':
+                        sb.append("%m/%d/%y");
+                        break;
+                    case 'R':
+                        sb.append("%H:%M");
+                        break;
+                    default:
+                        sb.append('%').append(conversion);
+                        break;
+                }
+            }
+            return sb.toString();
+        }
+
+        private static void add(List<Integer> prefix, int expected, int count)
+        {
+            for (int n = 0; n < count; n++) {
+                prefix.add(expected);
+            }
+        }
+    }
+}
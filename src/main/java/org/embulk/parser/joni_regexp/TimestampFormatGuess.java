@@ -0,0 +1,99 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds the timestamp format, in the strptime syntax of the {@code format} column option, that
+ * every sample value of a column has.
+ *
+ * The formats with a {@link FastTimestampParser} are tried first, with that parser, so that the
+ * guessed format gets the fast path at run time. The other candidates are checked with an
+ * equivalent Joda-Time pattern.
+ */
+class TimestampFormatGuess
+{
+    private static final List<Candidate> CANDIDATES = ImmutableList.of(
+            fast(FastTimestampParser.APACHE_FORMAT),
+            fast(FastTimestampParser.ISO8601_FORMAT),
+            fast(FastTimestampParser.DEFAULT_FORMAT),
+            joda("%Y-%m-%d %H:%M:%S %z", "yyyy-MM-dd HH:mm:ss Z"),
+            joda("%Y-%m-%d %H:%M:%S", "yyyy-MM-dd HH:mm:ss"),
+            joda("%Y-%m-%dT%H:%M:%S", "yyyy-MM-dd'T'HH:mm:ss"),
+            joda("%Y/%m/%d %H:%M:%S %z", "yyyy/MM/dd HH:mm:ss Z"),
+            joda("%Y/%m/%d %H:%M:%S", "yyyy/MM/dd HH:mm:ss"),
+            joda("%d/%b/%Y:%H:%M:%S", "dd/MMM/yyyy:HH:mm:ss"),
+            joda("%a %b %d %H:%M:%S %Y", "EEE MMM dd HH:mm:ss yyyy"),
+            fast(FastTimestampParser.SYSLOG_FORMAT),
+            joda("%Y-%m-%d", "yyyy-MM-dd"),
+            joda("%Y/%m/%d", "yyyy/MM/dd"));
+
+    private TimestampFormatGuess() {}
+
+    /**
+     * @return the first candidate format that parses every value, or null if there is none or
+     * {@code values} is empty
+     */
+    public static String guess(List<String> values)
+    {
+        if (values.isEmpty()) {
+            return null;
+        }
+        for (Candidate candidate : CANDIDATES) {
+            if (candidate.parsesAll(values)) {
+                return candidate.format;
+            }
+        }
+        return null;
+    }
+
+    private static Candidate fast(String format)
+    {
+        return new Candidate(format, null);
+    }
+
+    private static Candidate joda(String format, String pattern)
+    {
+        return new Candidate(format, DateTimeFormat.forPattern(pattern).withLocale(Locale.ENGLISH).withZoneUTC());
+    }
+
+    private static class Candidate
+    {
+        final String format;
+        final DateTimeFormatter formatter;
+
+        Candidate(String format, DateTimeFormatter formatter)
+        {
+            this.format = format;
+            this.formatter = formatter;
+        }
+
+        boolean parsesAll(List<String> values)
+        {
+            FastTimestampParser parser = formatter == null ? FastTimestampParser.of(format, DateTimeZone.UTC) : null;
+            for (String value : values) {
+                if (parser != null) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    if (parser.parse(bytes, 0, bytes.length) == null) {
+                        return false;
+                    }
+                }
+                else {
+                    try {
+                        formatter.parseMillis(value);
+                    }
+                    catch (IllegalArgumentException ex) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.embulk.parser.joni_regexp;
+
+/**
+ * Maps the raw bytes of the values of one column to the values built from them, such as a String
+ * or a boxed long, so that a column with a few distinct values, like the method or status code of
+ * an access log, converts each of them only once.
+ *
+ * The dictionary keeps the first {@code maxEntries} distinct values in an open addressing table,
+ * and only looks up values after that. It counts its hits in every window of
+ * {@link #CHECK_INTERVAL} lookups, and disables itself for good when the hits of a window are
+ * below {@code minHitRatio}, because then the lookups cost more than they save.
+ */
+class ValueDictionary
+{
+    static final int CHECK_INTERVAL = 4096;
+
+    private final int maxEntries;
+    private final double minHitRatio;
+    private final ParserMetrics.Counter counter;
+
+    private byte[][] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int mask;
+    private int count;
+    private boolean disabled;
+
+    // the slot and hash of the last missed lookup, for put
+    private int missedSlot = -1;
+    private int missedHash;
+
+    private long hits;
+    private long lookups;
+    private int windowHits;
+    private int windowLookups;
+
+    /**
+     * @param counter counts the lookups and hits into the task metrics
+     */
+    public ValueDictionary(int maxEntries, double minHitRatio, ParserMetrics.Counter counter)
+    {
+        this.maxEntries = maxEntries;
+        this.minHitRatio = minHitRatio;
+        this.counter = counter;
+        int capacity = Integer.highestOneBit(Math.max(1, maxEntries) * 2 - 1) << 1;
+        this.keys = new byte[capacity][];
+        this.hashes = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the value put for the bytes {@code bytes[begin, end)}, or null when it is not in the
+     * dictionary or the dictionary is disabled
+     */
+    public Object get(byte[] bytes, int begin, int end)
+    {
+        missedSlot = -1;
+        if (disabled) {
+            return null;
+        }
+        lookups++;
+        counter.dictionaryLookups++;
+
+        int length = end - begin;
+        int hash = hash(bytes, begin, end);
+        int slot = hash & mask;
+        Object found = null;
+        for (byte[] key = keys[slot]; key != null; slot = (slot + 1) & mask, key = keys[slot]) {
+            if (hashes[slot] == hash && key.length == length && regionEquals(key, bytes, begin, length)) {
+                found = values[slot];
+                break;
+            }
+        }
+        if (found != null) {
+            hits++;
+            counter.dictionaryHits++;
+            windowHits++;
+        }
+        else if (count < maxEntries) {
+            missedSlot = slot;
+            missedHash = hash;
+        }
+
+        if (++windowLookups == CHECK_INTERVAL) {
+            if (windowHits < minHitRatio * CHECK_INTERVAL) {
+                disable();
+            }
+            windowHits = 0;
+            windowLookups = 0;
+        }
+        return found;
+    }
+
+    /**
+     * Adds the value built from the bytes of the last {@link #get}, if it missed and there is
+     * room left. The value must not be null.
+     */
+    public void put(byte[] bytes, int begin, int end, Object value)
+    {
+        if (missedSlot < 0) {
+            return;
+        }
+        byte[] key = new byte[end - begin];
+        System.arraycopy(bytes, begin, key, 0, key.length);
+        keys[missedSlot] = key;
+        hashes[missedSlot] = missedHash;
+        values[missedSlot] = value;
+        count++;
+        missedSlot = -1;
+    }
+
+    public boolean isDisabled()
+    {
+        return disabled;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getLookups()
+    {
+        return lookups;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    private void disable()
+    {
+        disabled = true;
+        missedSlot = -1;
+        keys = null;
+        hashes = null;
+        values = null;
+        count = 0;
+    }
+
+    private static int hash(byte[] bytes, int begin, int end)
+    {
+        int hash = end - begin;
+        for (int i = begin; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // spread the bits of short keys over the low bits used as the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean regionEquals(byte[] key, byte[] bytes, int begin, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[begin + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
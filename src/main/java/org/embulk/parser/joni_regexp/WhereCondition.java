@@ -0,0 +1,122 @@
+package org.embulk.parser.joni_regexp;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import org.embulk.config.ConfigException;
+
+import java.util.List;
+
+/**
+ * An element of the {@code where} option: a condition on the captured text of a column, e.g.
+ * {@code {name: code, op: ">=", value: 500}}.
+ */
+public class WhereCondition
+{
+    public enum Operator
+    {
+        EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), IN("in"), NOT_IN("not_in"), MATCH("=~"), NOT_MATCH("!~");
+
+        private final String symbol;
+
+        Operator(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        public static Operator of(String value)
+        {
+            for (Operator op : values()) {
+                if (op.symbol.equals(value)) {
+                    return op;
+                }
+            }
+            throw new ConfigException(String.format("Unknown op \"%s\" in where. Supported ops are ==, !=, <, <=, >, >=, in, not_in, =~ and !~", value));
+        }
+
+        @Override
+        public String toString()
+        {
+            return symbol;
+        }
+    }
+
+    private final String name;
+    private final Operator op;
+    private final Object value;
+    private final List<Object> values;
+
+    @JsonCreator
+    public WhereCondition(
+            @JsonProperty("name") String name,
+            @JsonProperty("op") String op,
+            @JsonProperty("value") Object value,
+            @JsonProperty("values") List<Object> values)
+    {
+        if (name == null) {
+            throw new ConfigException("where needs the name of a column");
+        }
+        if (op == null) {
+            throw new ConfigException(String.format("where on \"%s\" needs op", name));
+        }
+        this.name = name;
+        this.op = Operator.of(op);
+        if (this.op == Operator.IN || this.op == Operator.NOT_IN) {
+            if (values == null || values.isEmpty() || values.contains(null)) {
+                throw new ConfigException(String.format("where on \"%s\" with op %s needs values", name, op));
+            }
+            this.value = null;
+            this.values = ImmutableList.copyOf(values);
+        }
+        else {
+            if (value == null) {
+                throw new ConfigException(String.format("where on \"%s\" with op %s needs value", name, op));
+            }
+            this.value = value;
+            this.values = null;
+        }
+    }
+
+    @JsonProperty("name")
+    public String getName()
+    {
+        return name;
+    }
+
+    @JsonIgnore
+    public Operator getOperator()
+    {
+        return op;
+    }
+
+    @JsonProperty("op")
+    public String getOp()
+    {
+        return op.toString();
+    }
+
+    /**
+     * @return the operand, or null for in and not_in
+     */
+    @JsonProperty("value")
+    public Object getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return the operands of in and not_in, or null for the other ops
+     */
+    @JsonProperty("values")
+    public List<Object> getValues()
+    {
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s %s %s", name, op, value != null ? value : values);
+    }
+}
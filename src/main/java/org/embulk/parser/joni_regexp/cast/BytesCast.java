@@ -0,0 +1,251 @@
+package org.embulk.parser.joni_regexp.cast;
+
+import org.embulk.spi.DataException;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Casts a byte range, such as a regex capture, without building a String first.
+ *
+ * Only the common ASCII forms are decoded here. Anything else is decoded in the given charset,
+ * UTF-8 by default, and handed to {@link StringCast}, so the accepted values and the error
+ * messages are the same as for String values. The charset must be ASCII compatible.
+ */
+public class BytesCast
+{
+    private static final BooleanTrie BOOLEANS = new BooleanTrie(StringCast.TRUE_STRINGS, StringCast.FALSE_STRINGS);
+
+    // exactly representable powers of ten
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22,
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private BytesCast() {}
+
+    private static String toString(byte[] bytes, int begin, int end, Charset charset)
+    {
+        return new String(bytes, begin, end - begin, charset);
+    }
+
+    public static boolean asBoolean(byte[] bytes, int begin, int end) throws DataException
+    {
+        return asBoolean(bytes, begin, end, StandardCharsets.UTF_8);
+    }
+
+    public static boolean asBoolean(byte[] bytes, int begin, int end, Charset charset) throws DataException
+    {
+        int found = BOOLEANS.lookup(bytes, begin, end);
+        if (found == BooleanTrie.TRUE) {
+            return true;
+        }
+        else if (found == BooleanTrie.FALSE) {
+            return false;
+        }
+        else {
+            return StringCast.asBoolean(toString(bytes, begin, end, charset));
+        }
+    }
+
+    /**
+     * Parses {@code [+-]?[0-9]+} like {@link Long#parseLong(String)}, accumulating negatively to
+     * detect overflow without a wider type.
+     */
+    public static long asLong(byte[] bytes, int begin, int end) throws DataException
+    {
+        return asLong(bytes, begin, end, StandardCharsets.UTF_8);
+    }
+
+    public static long asLong(byte[] bytes, int begin, int end, Charset charset) throws DataException
+    {
+        int i = begin;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return StringCast.asLong(toString(bytes, begin, end, charset));
+        }
+
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < multmin) {
+                return StringCast.asLong(toString(bytes, begin, end, charset));
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return StringCast.asLong(toString(bytes, begin, end, charset));
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses plain decimal notation {@code [+-]?(digits[.digits]|.digits)([eE][+-]?digits)?}.
+     *
+     * When the significand has at most 15 digits and the decimal exponent is within 22, both are
+     * exact doubles and a single multiplication or division gives the correctly rounded result
+     * (Clinger's fast path). Other inputs go through {@link Double#parseDouble(String)}.
+     */
+    public static double asDouble(byte[] bytes, int begin, int end) throws DataException
+    {
+        return asDouble(bytes, begin, end, StandardCharsets.UTF_8);
+    }
+
+    public static double asDouble(byte[] bytes, int begin, int end, Charset charset) throws DataException
+    {
+        int i = begin;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < end && isDigit(bytes[i]); i++) {
+            anyDigit = true;
+            int digit = bytes[i] - '0';
+            if (mantissa != 0 || digit != 0) {
+                if (digits == MAX_MANTISSA_DIGITS) {
+                    return StringCast.asDouble(toString(bytes, begin, end, charset));
+                }
+                mantissa = mantissa * 10 + digit;
+                digits++;
+            }
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && isDigit(bytes[i]); i++) {
+                anyDigit = true;
+                int digit = bytes[i] - '0';
+                if (mantissa != 0 || digit != 0) {
+                    if (digits == MAX_MANTISSA_DIGITS) {
+                        return StringCast.asDouble(toString(bytes, begin, end, charset));
+                    }
+                    mantissa = mantissa * 10 + digit;
+                    digits++;
+                }
+                exponent--;
+            }
+        }
+        if (!anyDigit) {
+            return StringCast.asDouble(toString(bytes, begin, end, charset));
+        }
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return StringCast.asDouble(toString(bytes, begin, end, charset));
+            }
+            int value = 0;
+            for (; i < end && isDigit(bytes[i]); i++) {
+                if (value > 9999) {
+                    return StringCast.asDouble(toString(bytes, begin, end, charset));
+                }
+                value = value * 10 + (bytes[i] - '0');
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            return StringCast.asDouble(toString(bytes, begin, end, charset));
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (digits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+            double value = (double) mantissa;
+            value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return StringCast.asDouble(toString(bytes, begin, end, charset));
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * A byte trie over the ASCII strings accepted as booleans.
+     */
+    private static class BooleanTrie
+    {
+        static final byte NONE = 0;
+        static final byte TRUE = 1;
+        static final byte FALSE = 2;
+
+        private final int[][] children;
+        private final byte[] values;
+
+        BooleanTrie(Iterable<String> trueStrings, Iterable<String> falseStrings)
+        {
+            List<int[]> nodes = new ArrayList<>();
+            List<Byte> nodeValues = new ArrayList<>();
+            nodes.add(new int[128]);
+            nodeValues.add(NONE);
+            for (String s : trueStrings) {
+                add(nodes, nodeValues, s, TRUE);
+            }
+            for (String s : falseStrings) {
+                add(nodes, nodeValues, s, FALSE);
+            }
+
+            this.children = nodes.toArray(new int[nodes.size()][]);
+            this.values = new byte[nodeValues.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = nodeValues.get(i);
+            }
+        }
+
+        private static void add(List<int[]> nodes, List<Byte> nodeValues, String s, byte value)
+        {
+            int node = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                int next = nodes.get(node)[c];
+                if (next == 0) {
+                    next = nodes.size();
+                    nodes.add(new int[128]);
+                    nodeValues.add(NONE);
+                    nodes.get(node)[c] = next;
+                }
+                node = next;
+            }
+            nodeValues.set(node, value);
+        }
+
+        byte lookup(byte[] bytes, int begin, int end)
+        {
+            int node = 0;
+            for (int i = begin; i < end; i++) {
+                byte b = bytes[i];
+                if (b < 0) {
+                    return NONE;
+                }
+                node = children[node][b];
+                if (node == 0) {
+                    return NONE;
+                }
+            }
+            return values[node];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.joni.Regex;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCapturePlan
+{
+    private static final Set<String> SKIP = ImmutableSet.of("ident", "protocol");
+
+    @Test
+    public void mapGroupsToColumns()
+    {
+        Schema schema = new Schema(ImmutableList.of(new Column(0, "b", Types.STRING), new Column(1, "a", Types.LONG)));
+        CapturePlan plan = CapturePlan.build(JoniRegexpParserPlugin.buildRegex("^(?<a>[0-9]+) (x) (?<b>.*)$"), schema);
+
+        assertEquals(2, plan.size());
+        assertEquals(1, plan.getGroup(0));
+        assertEquals("a", plan.getColumn(0).getName());
+        assertEquals(2, plan.getGroup(1));
+        assertEquals("b", plan.getColumn(1).getName());
+    }
+
+    @Test
+    public void skipGroups()
+    {
+        assertEquals("^(?<host>[^ ]+) (?:[^ ]+) \"[A-Z]+ [^ ]+ (?:HTTP/[0-9.]+)\"$",
+                CapturePlan.skipGroups("^(?<host>[^ ]+) (?<ident>[^ ]+) \"[A-Z]+ [^ ]+ (?<protocol>HTTP/[0-9.]+)\"$", SKIP));
+        assertEquals("(?:a)|(?:b)(?'host'c)", CapturePlan.skipGroups("(?<ident>a)|(?'ident'b)(?'host'c)", SKIP));
+
+        Regex regex = JoniRegexpParserPlugin.buildRegex(CapturePlan.skipGroups("^(?<host>[^ ]+) (?<ident>[^ ]+)$", SKIP));
+        assertEquals(1, regex.numberOfCaptures());
+    }
+
+    @Test
+    public void keepEscapesClassesAndLookbehinds()
+    {
+        assertNotSkipped("\\(?<ident>a\\)");
+        assertNotSkipped("[(?<ident>]a");
+        assertNotSkipped("(?<=ident)(?<!ident)(?<host>a)");
+        assertNotSkipped("(?<identity>a)");
+    }
+
+    @Test
+    public void allowReferencesToOtherGroups()
+    {
+        assertNotSkipped("(?<host>a)\\k<host>\\g<host>\\k<host+0>");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectBackreference()
+    {
+        CapturePlan.skipGroups("(?<ident>a) \\k<ident>", SKIP);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectSubexpressionCall()
+    {
+        CapturePlan.skipGroups("(?<ident>a) \\g'ident'", SKIP);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectLeveledBackreference()
+    {
+        CapturePlan.skipGroups("(?<ident>a) \\k<ident-1>", SKIP);
+    }
+
+    private static void assertNotSkipped(String format)
+    {
+        assertEquals(format, CapturePlan.skipGroups(format, SKIP));
+    }
+}
@@ -0,0 +1,153 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParser;
+import org.joda.time.DateTimeZone;
+import org.jruby.embed.ScriptingContainer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestFastTimestampParser
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+    public ScriptingContainer jruby;
+
+    @Before
+    public void createResource()
+    {
+        jruby = new ScriptingContainer();
+    }
+
+    @Test
+    public void apache()
+    {
+        FastTimestampParser parser = FastTimestampParser.of("%d/%b/%Y:%H:%M:%S %z", DateTimeZone.UTC);
+
+        assertEquals(Timestamp.ofEpochSecond(1476132936L), parse(parser, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(Timestamp.ofEpochSecond(1476132936L), parse(parser, "10/oct/2016:13:55:36 -07:00"));
+        assertNull(parse(parser, "1/Oct/2016:13:55:36 -0700"));
+        assertNull(parse(parser, "10/Foo/2016:13:55:36 -0700"));
+        assertNull(parse(parser, "10/Oct/2016:13:55:36 PDT"));
+        assertNull(parse(parser, "10/Oct/2016:13:55:36"));
+    }
+
+    @Test
+    public void iso8601()
+    {
+        FastTimestampParser parser = FastTimestampParser.of("%Y-%m-%dT%H:%M:%S%z", DateTimeZone.UTC);
+
+        assertEquals(Timestamp.ofEpochSecond(1476075336L), parse(parser, "2016-10-10T13:55:36+0900"));
+        assertEquals(Timestamp.ofEpochSecond(1476075336L), parse(parser, "2016-10-10T13:55:36+09:00"));
+        assertNull(parse(parser, "2016-10-10T13:55:36Z"));
+        assertNull(parse(parser, "2016-10-10 13:55:36+0900"));
+        assertNull(parse(parser, "2016-10-10T13:55:60+0900"));
+        assertNull(parse(parser, "2016-10-10T24:00:00+0900"));
+    }
+
+    @Test
+    public void defaultFormat()
+    {
+        FastTimestampParser parser = FastTimestampParser.of("%Y-%m-%d %H:%M:%S.%N %z", DateTimeZone.UTC);
+
+        assertEquals(Timestamp.ofEpochSecond(1463084053L, 500000000), parse(parser, "2016-05-12 20:14:13.5 +0000"));
+        assertEquals(Timestamp.ofEpochSecond(1463084053L, 123456789), parse(parser, "2016-05-12 20:14:13.123456789 +0000"));
+        assertEquals(Timestamp.ofEpochSecond(-1L, 500000000), parse(parser, "1969-12-31 23:59:59.5 +0000"));
+        assertEquals(Timestamp.ofEpochSecond(951782400L, 500000000), parse(parser, "2000-02-29 00:00:00.5 +0000"));
+        assertNull(parse(parser, "2001-02-29 00:00:00.5 +0000"));
+        assertNull(parse(parser, "2016-05-12 20:14:13.1234567890 +0000"));
+        assertNull(parse(parser, "2016-05-12 20:14:13 +0000"));
+        assertNull(parse(parser, "2016-05-12 20:14:13. +0000"));
+    }
+
+    @Test
+    public void syslog()
+    {
+        FastTimestampParser parser = FastTimestampParser.of("%b %d %H:%M:%S", DateTimeZone.forOffsetHours(9));
+
+        assertEquals(Timestamp.ofEpochSecond(24296136L), parse(parser, "Oct  9 13:55:36"));
+        assertEquals(Timestamp.ofEpochSecond(24382536L), parse(parser, "Oct 10 13:55:36"));
+        assertNull(parse(parser, "Oct 9 13:55:36"));
+        assertNull(parse(parser, "Feb 30 13:55:36"));
+
+        assertNull(FastTimestampParser.of("%b %d %H:%M:%S", DateTimeZone.forID("America/Los_Angeles")));
+    }
+
+    @Test
+    public void sameAsGenericParser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forOffsetHours(9);
+
+        assertSame("%d/%b/%Y:%H:%M:%S %z", DateTimeZone.UTC,
+                "10/Oct/2016:13:55:36 -0700", "10/oct/2016:13:55:36 -07:00", "01/Jan/2000:00:00:00 +0000",
+                "29/Feb/2016:23:59:59 +0930", "31/Dec/1969:23:59:59 -00:30");
+        assertSame("%Y-%m-%dT%H:%M:%S%z", DateTimeZone.UTC,
+                "2016-10-10T13:55:36+0900", "2016-10-10T13:55:36+09:00", "2016-10-10T13:55:36-0330",
+                "2016-10-10T13:55:36-03:30", "1969-12-31T23:59:59+0000");
+        assertSame("%Y-%m-%d %H:%M:%S.%N %z", DateTimeZone.UTC,
+                "2016-05-12 20:14:13.5 +0000", "2016-05-12 20:14:13.12 +0900", "2016-05-12 20:14:13.123 -07:00",
+                "2016-05-12 20:14:13.123456 +0530", "2016-05-12 20:14:13.123456789 -0700", "1969-12-31 23:59:59.999 +0000");
+        assertSame("%b %d %H:%M:%S", tokyo,
+                "Oct  9 13:55:36", "Oct 10 13:55:36", "Jan  1 00:00:00", "Dec 31 23:59:59", "feb 28 12:00:00");
+    }
+
+    @Test
+    public void fallBackOnNamedZones()
+    {
+        // the generic parser takes the zone names, the fixed layouts leave them to it
+        assertFallback("%d/%b/%Y:%H:%M:%S %z", "10/Oct/2016:13:55:36 PDT");
+        assertFallback("%d/%b/%Y:%H:%M:%S %z", "10/Oct/2016:13:55:36 UTC");
+        assertFallback("%Y-%m-%dT%H:%M:%S%z", "2016-10-10T13:55:36Z");
+        assertFallback("%Y-%m-%d %H:%M:%S.%N %z", "2016-05-12 20:14:13.5 JST");
+    }
+
+    @Test
+    public void unsupportedFormat()
+    {
+        assertNull(FastTimestampParser.of("%Y/%m/%d", DateTimeZone.UTC));
+    }
+
+    @Test
+    public void daysFromCivil()
+    {
+        assertEquals(0, FastTimestampParser.daysFromCivil(1970, 1, 1));
+        assertEquals(-1, FastTimestampParser.daysFromCivil(1969, 12, 31));
+        assertEquals(11016, FastTimestampParser.daysFromCivil(2000, 2, 29));
+        assertEquals(-719162, FastTimestampParser.daysFromCivil(1, 1, 1));
+    }
+
+    /**
+     * Asserts that the fixed layout of {@code format} parses every value, to the same timestamp as
+     * the generic parser.
+     */
+    private void assertSame(String format, DateTimeZone timeZone, String... values)
+    {
+        FastTimestampParser fast = FastTimestampParser.of(format, timeZone);
+        TimestampParser generic = new TimestampParser(jruby, format, timeZone);
+        for (String value : values) {
+            Timestamp timestamp = parse(fast, value);
+            assertNotNull(value, timestamp);
+            assertEquals(value, generic.parse(value), timestamp);
+        }
+    }
+
+    private void assertFallback(String format, String value)
+    {
+        assertNull(value, parse(FastTimestampParser.of(format, DateTimeZone.UTC), value));
+        assertNotNull(value, new TimestampParser(jruby, format, DateTimeZone.UTC).parse(value));
+    }
+
+    private Timestamp parse(FastTimestampParser parser, String value)
+    {
+        byte[] bytes = ("[" + value + "]").getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 1, bytes.length - 1);
+    }
+}
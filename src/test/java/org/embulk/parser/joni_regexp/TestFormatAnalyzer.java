@@ -0,0 +1,107 @@
+package org.embulk.parser.joni_regexp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestFormatAnalyzer
+{
+    @Test
+    public void apacheCommonLog()
+    {
+        FormatAnalyzer.Result result = FormatAnalyzer.analyze("^(?<host>[^ ]*) [^ ]* (?<user>[^ ]*) \\[(?<time>[^\\]]*)\\] \"(?<method>\\S+)(?: +(?<path>[^ ]*) +\\S*)?\" (?<code>[^ ]*) (?<size>[^ ]*)$");
+
+        assertEquals("^(?<host>[^ ]*+) [^ ]*+ (?<user>[^ ]*+) \\[(?<time>[^\\]]*+)\\] \"(?<method>\\S+)(?: +(?<path>[^ ]*+) ++\\S*)?\" (?<code>[^ ]*+) (?<size>[^ ]*)$",
+                result.getOptimized());
+        assertTrue(result.isRewritten());
+        assertEquals(0, result.getWarnings().size());
+    }
+
+    @Test
+    public void keepRepeatsThatMayGiveBack()
+    {
+        assertNotRewritten("^(?<a>.*) (?<b>.*) ");
+        assertNotRewritten("^(?<a>[a-z]*)[a-c]");
+        assertNotRewritten("^(?<a>\\w*)あ");
+        assertNotRewritten("^(?<a>a*?)b");
+        assertNotRewritten("^(?<a>[^ ]*)\\b");
+        assertNotRewritten("^(?<a>[^ ]*)(?= )");
+    }
+
+    @Test
+    public void followSetThroughGroups()
+    {
+        assertEquals("^(?<a>a*+)(?<b>b?+)c", FormatAnalyzer.analyze("^(?<a>a*)(?<b>b?)c").getOptimized());
+        assertEquals("^(?<a>a*)(?:b|a)", FormatAnalyzer.analyze("^(?<a>a*)(?:b|a)").getOptimized());
+        // a repeated group can be followed by its own first character
+        assertNotRewritten("^(?:,(?<a>[^x]*))*x");
+        assertEquals("^(?:,(?<a>[0-9]*+))*x", FormatAnalyzer.analyze("^(?:,(?<a>[0-9]*))*x").getOptimized());
+    }
+
+    @Test
+    public void intervalsBecomeAtomic()
+    {
+        assertEquals("^(?<a>(?>[0-9]{1,3}))\\.", FormatAnalyzer.analyze("^(?<a>[0-9]{1,3})\\.").getOptimized());
+        assertEquals("^(?<a>x?+(?>[0-9]{2,}))\\.", FormatAnalyzer.analyze("^(?<a>x?[0-9]{2,})\\.").getOptimized());
+        assertNotRewritten("^(?<a>[0-9]{3})\\.");
+        assertNotRewritten("^(?<a>(?>[0-9]{1,3}))\\.");
+    }
+
+    @Test
+    public void exactIntervalFollowedByQuestionMark()
+    {
+        // [0-9]{3}? is (?:[0-9]{3})? in the Ruby syntax, so the x can follow [a-z]*
+        assertNotRewritten("^(?<a>[a-z]*)[0-9]{3}?x");
+        assertNotRewritten("^(?<a>x{3}?)b");
+    }
+
+    @Test
+    public void nestedRepeat()
+    {
+        List<String> warnings = FormatAnalyzer.analyze("^(?<a>(?:a+)+)b").getWarnings();
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).startsWith("\"(?:a+)+\" at offset 6"));
+
+        assertEquals(0, FormatAnalyzer.analyze("^(?<a>(?>a+)+)b").getWarnings().size());
+    }
+
+    @Test
+    public void leadingDotStar()
+    {
+        List<String> warnings = FormatAnalyzer.analyze("(?<a>.*) (?<b>[0-9]+)$").getWarnings();
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).startsWith("\".*\" at offset 5"));
+
+        assertEquals(0, FormatAnalyzer.analyze("^(?<a>.*) (?<b>[0-9]+)$").getWarnings().size());
+    }
+
+    @Test
+    public void adjacentOverlappingRepeats()
+    {
+        List<String> warnings = FormatAnalyzer.analyze("^(?<a>[^ ]*)(?<b>[a-z]*)$").getWarnings();
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).startsWith("\"[^ ]*\" and \"[a-z]*\""));
+
+        assertEquals(0, FormatAnalyzer.analyze("^(?<a>[0-9]*)(?<b>[a-z]*)$").getWarnings().size());
+    }
+
+    @Test
+    public void unsupportedSyntax()
+    {
+        assertNotRewritten("(?i)^(?<a>a*)b");
+        assertNotRewritten("^(?<a>a*)\\k<a>b");
+        assertNotRewritten("^(?<a>[[:alpha:]]*) ");
+        assertNotRewritten("^(?<a>a*)b(");
+    }
+
+    private static void assertNotRewritten(String format)
+    {
+        FormatAnalyzer.Result result = FormatAnalyzer.analyze(format);
+        assertEquals(format, result.getOptimized());
+        assertFalse(result.isRewritten());
+    }
+}
@@ -0,0 +1,72 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestFormatMatcher
+{
+    private final Schema schema = new Schema(ImmutableList.of(new Column(0, "a", STRING), new Column(1, "b", STRING)));
+    private final FormatList formats = new FormatList(ImmutableList.of("^(?<a>\\w+)$", "^(?<b>b[\\w ]*)$"));
+
+    @Test
+    public void firstMatchWins()
+    {
+        FormatMatcher matcher = FormatMatcher.build(formats, schema, MatchMode.AUTO, false, true);
+
+        assertTrue(search(matcher, "abc"));
+        assertEquals(0, matcher.getFormatIndex());
+        assertEquals(1, matcher.getUnmatchedColumns().length);
+        assertEquals("b", matcher.getUnmatchedColumns()[0].getName());
+
+        assertTrue(search(matcher, "b c"));
+        assertEquals(1, matcher.getFormatIndex());
+
+        assertFalse(search(matcher, "a b"));
+    }
+
+    @Test
+    public void declaredOrder()
+    {
+        FormatMatcher matcher = FormatMatcher.build(formats, schema, MatchMode.AUTO, false, true);
+
+        for (int i = 0; i < 3; i++) {
+            search(matcher, "b c");
+        }
+        assertTrue(search(matcher, "bc"));
+        assertEquals(0, matcher.getFormatIndex());
+    }
+
+    @Test
+    public void adaptiveOrder()
+    {
+        FormatMatcher matcher = FormatMatcher.build(formats, schema, MatchMode.AUTO, true, true);
+
+        assertTrue(search(matcher, "bc"));
+        assertEquals(0, matcher.getFormatIndex());
+
+        // the second regex gets more hits and is tried first
+        for (int i = 0; i < 3; i++) {
+            search(matcher, "b c");
+        }
+        assertTrue(search(matcher, "bc"));
+        assertEquals(1, matcher.getFormatIndex());
+
+        assertEquals(1, matcher.getHits(0));
+        assertEquals(4, matcher.getHits(1));
+    }
+
+    private static boolean search(FormatMatcher matcher, String line)
+    {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return matcher.search(bytes, 0, bytes.length);
+    }
+}
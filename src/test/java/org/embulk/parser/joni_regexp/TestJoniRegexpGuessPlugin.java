@@ -0,0 +1,164 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestJoniRegexpGuessPlugin
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void guessApacheLog()
+    {
+        ConfigSource config = Exec.newConfigSource();
+        config.getNestedOrSetEmpty("parser")
+                .set("type", "joni_regexp")
+                .set("format", "^(?<host>[^ ]*) [^ ]* (?<user>[^ ]*) \\[(?<time>[^\\]]*)\\] \"(?<method>\\S+)(?: +(?<path>[^ ]*) +\\S*)?\" (?<code>[^ ]*) (?<size>[^ ]*)$");
+        String sample = "224.126.227.109 - - [13/Feb/2017:20:04:52 +0900] \"GET /category/games HTTP/1.1\" 200 85\n"
+                + "not a log line\n"
+                + "128.27.132.24 - bob [13/Feb/2017:20:04:53 +0900] \"GET /category/health HTTP/1.1\" 304 -\n"
+                + "128.27.132.24 - bob [13/Feb/2017:20:04:5";
+
+        ConfigDiff guessed = new JoniRegexpGuessPlugin().guess(config, Buffer.wrap(sample.getBytes(StandardCharsets.UTF_8)));
+
+        ConfigDiff parser = guessed.getNested("parser");
+        assertEquals("joni_regexp", parser.get(String.class, "type"));
+        List<?> columns = parser.get(List.class, "columns");
+        assertEquals(ImmutableList.of(
+                ImmutableMap.of("name", "host", "type", "string"),
+                ImmutableMap.of("name", "user", "type", "string"),
+                ImmutableMap.of("name", "time", "type", "timestamp", "format", "%d/%b/%Y:%H:%M:%S %z"),
+                ImmutableMap.of("name", "method", "type", "string"),
+                ImmutableMap.of("name", "path", "type", "string"),
+                ImmutableMap.of("name", "code", "type", "long"),
+                ImmutableMap.of("name", "size", "type", "string")), columns);
+    }
+
+    @Test
+    public void guessNothingForOtherConfigs()
+    {
+        assertGuessNothing(Exec.newConfigSource());
+        assertGuessNothing(parserConfig("csv", "(?<a>.*)"));
+        assertGuessNothing(parserConfig("joni_regexp", null));
+        assertGuessNothing(parserConfig("joni_regexp", "(?<a>[a-"));
+
+        // no label in the sample
+        ConfigSource ltsv = parserConfig("joni_regexp", null);
+        ltsv.getNested("parser").set("preset", "ltsv");
+        assertGuessNothing(ltsv);
+    }
+
+    @Test
+    public void guessLtsvLabels()
+    {
+        ConfigSource config = parserConfig("joni_regexp", null);
+        config.getNested("parser").set("preset", "ltsv");
+        String sample = "host:127.0.0.1\tstatus:200\treq:GET / HTTP/1.1\n"
+                + "status:304\thost:127.0.0.2\thttp.host:example.com\tsize:85\n"
+                + "host:127.0.0.3\tsta";
+
+        ConfigDiff guessed = new JoniRegexpGuessPlugin().guess(config, Buffer.wrap(sample.getBytes(StandardCharsets.UTF_8)));
+
+        List<?> columns = guessed.getNested("parser").get(List.class, "columns");
+        assertEquals(ImmutableList.of(
+                ImmutableMap.of("name", "host", "type", "string"),
+                ImmutableMap.of("name", "status", "type", "long"),
+                ImmutableMap.of("name", "req", "type", "string"),
+                ImmutableMap.of("name", "size", "type", "long")), columns);
+    }
+
+    @Test
+    public void orderColumnsByGroup()
+    {
+        Schema schema = JoniRegexpGuessPlugin.captureSchema(
+                new FormatList(ImmutableList.of("(?<b>\\d+)-(?<a>\\d+)-(?<z>\\d+)", "(?<c>x)(?<a>y)")), LineEncoding.UTF8);
+
+        assertEquals(4, schema.size());
+        assertEquals("b", schema.getColumnName(0));
+        assertEquals("a", schema.getColumnName(1));
+        assertEquals("z", schema.getColumnName(2));
+        assertEquals("c", schema.getColumnName(3));
+    }
+
+    @Test
+    public void guessTypes()
+    {
+        assertType("boolean", "true", "False", "yes", "OFF");
+        assertType("long", "0", "-12", "+345", "9223372036854775807");
+        assertType("double", "1.5", "-0.25", "3", "1e10", "2.5E-3");
+        assertType("json", "{\"a\":1}", "[1,2]");
+        assertType("string", "1", "0", "y");
+        assertType("string", "007", "12");
+        assertType("double", "9223372036854775808");
+        assertType("string", "NaN", "1.5");
+        assertType("string", "1.", "2");
+        assertType("string", "{\"a\":", "{}");
+        assertType("string", "");
+        assertType("string");
+    }
+
+    @Test
+    public void guessTimestampFormats()
+    {
+        assertTimestamp("%d/%b/%Y:%H:%M:%S %z", "10/Oct/2016:13:55:36 -0700", "13/Feb/2017:20:04:52 +0900");
+        assertTimestamp("%Y-%m-%dT%H:%M:%S%z", "2016-10-10T13:55:36+0900", "2016-10-10T13:55:36+09:00");
+        assertTimestamp("%Y-%m-%d %H:%M:%S.%N %z", "2016-10-10 13:55:36.123 +0900");
+        assertTimestamp("%Y-%m-%d %H:%M:%S", "2016-10-10 13:55:36", "2009-6-25 00:00:00");
+        assertTimestamp("%Y-%m-%dT%H:%M:%S", "2016-10-10T13:55:36");
+        assertTimestamp("%Y/%m/%d %H:%M:%S", "2016/10/10 13:55:36");
+        assertTimestamp("%b %d %H:%M:%S", "Oct 10 13:55:36", "Feb  3 01:02:03");
+        assertTimestamp("%Y-%m-%d", "2016-10-10");
+        assertTimestamp(null, "2016-10-10", "2016-10-10 13:55:36");
+        assertTimestamp(null, "2016-13-10");
+    }
+
+    private static ConfigSource parserConfig(String type, String format)
+    {
+        ConfigSource config = Exec.newConfigSource();
+        ConfigSource parser = config.getNestedOrSetEmpty("parser").set("type", type);
+        if (format != null) {
+            parser.set("format", format);
+        }
+        return config;
+    }
+
+    private static void assertGuessNothing(ConfigSource config)
+    {
+        ConfigDiff guessed = new JoniRegexpGuessPlugin().guess(config, Buffer.wrap("a\n".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(guessed.isEmpty());
+    }
+
+    private static void assertType(String expected, String... values)
+    {
+        Map<String, String> column = JoniRegexpGuessPlugin.guessColumn("c", ImmutableList.copyOf(values));
+        assertEquals(expected, column.get("type"));
+    }
+
+    private static void assertTimestamp(String expected, String... values)
+    {
+        String format = TimestampFormatGuess.guess(ImmutableList.copyOf(values));
+        if (expected == null) {
+            assertNull(format);
+        }
+        else {
+            assertEquals(expected, format);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.embulk.parser.joni_regexp;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
@@ -25,14 +26,18 @@ import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.msgpack.value.Value;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.embulk.spi.type.Types.BOOLEAN;
@@ -41,6 +46,7 @@ import static org.embulk.spi.type.Types.JSON;
 import static org.embulk.spi.type.Types.LONG;
 import static org.embulk.spi.type.Types.STRING;
 import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 import static org.msgpack.value.ValueFactory.newArray;
 import static org.msgpack.value.ValueFactory.newFloat;
@@ -68,6 +74,9 @@ public class TestJoniRegexpParserPlugin
     @Rule
     public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
 //    TODO use TestingEmbulk
 //    @Rule
 //    public TestingEmbulk embulk = TestingEmbulk.builder().build();
@@ -231,6 +240,240 @@ public class TestJoniRegexpParserPlugin
         }
     }
 
+    @Test
+    public void checkUnmatchedOptionalGroup()
+            throws Exception
+    {
+        SchemaConfig schema = schema(
+                column("method", STRING), column("path", STRING), column("code", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<method>\\S+)(?: +(?<path>[^ ]*))? (?<code>\\d+)$");
+
+        transaction(config, fileInput(
+                "GET /index.html 200",
+                "OPTIONS 204"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+
+        Object[] record;
+        {
+            record = records.get(0);
+            assertEquals("GET", record[0]);
+            assertEquals("/index.html", record[1]);
+            assertEquals(200L, record[2]);
+        }
+        {
+            record = records.get(1);
+            assertEquals("OPTIONS", record[0]);
+            assertEquals(null, record[1]);
+            assertEquals(204L, record[2]);
+        }
+    }
+
+    @Test
+    public void checkMultipleFormats()
+            throws Exception
+    {
+        SchemaConfig schema = schema(
+                column("host", STRING), column("code", LONG), column("message", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", ImmutableList.of(
+                        "^ACCESS (?<host>\\S+) (?<code>\\d+)$",
+                        "^ERROR (?<message>.*)$"));
+
+        transaction(config, fileInput(
+                "ACCESS example.com 200",
+                "ERROR connection refused",
+                "HEALTH ok",
+                "ACCESS example.org 404"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(3, records.size());
+
+        Object[] record;
+        {
+            record = records.get(0);
+            assertEquals("example.com", record[0]);
+            assertEquals(200L, record[1]);
+            assertEquals(null, record[2]);
+        }
+        {
+            record = records.get(1);
+            assertEquals(null, record[0]);
+            assertEquals(null, record[1]);
+            assertEquals("connection refused", record[2]);
+        }
+        {
+            record = records.get(2);
+            assertEquals("example.org", record[0]);
+            assertEquals(404L, record[1]);
+            assertEquals(null, record[2]);
+        }
+    }
+
+    @Test
+    public void checkOverlappingFormatsInDeclaredOrder()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING), column("line", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", ImmutableList.of(
+                        "^ACCESS (?<host>\\S+)$",
+                        "^(?<line>.*)$"));
+
+        transaction(config, fileInput(
+                "other 1",
+                "other 2",
+                "other 3",
+                "ACCESS example.com"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(4, records.size());
+        assertEquals("example.com", records.get(3)[0]);
+        assertEquals(null, records.get(3)[1]);
+    }
+
+    @Test(expected = SchemaConfigException.class)
+    public void checkMultipleFormatsUnknownColumn()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", ImmutableList.of("^(?<host>\\S+)$", "^(?<unknown>\\S+)$"));
+
+        transaction(config, fileInput(""));
+    }
+
+    @Test
+    public void checkAnchoredMatchMode()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\d+)")
+                .set("match_mode", "anchored");
+
+        transaction(config, fileInput(
+                "foo=1",
+                "# bar=2"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(1, records.size());
+        assertEquals("foo", records.get(0)[0]);
+        assertEquals(1L, records.get(0)[1]);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkUnknownMatchMode()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)")
+                .set("match_mode", "fuzzy");
+
+        transaction(config, fileInput(""));
+    }
+
+    @Test
+    public void checkReadAhead()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\d+)")
+                .set("read_ahead", true)
+                .set("read_ahead_queue_size", 1);
+
+        transaction(config, fileInput(
+                "foo=1",
+                "bar=2",
+                "baz=3"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(3, records.size());
+        assertEquals("foo", records.get(0)[0]);
+        assertEquals("bar", records.get(1)[0]);
+        assertEquals("baz", records.get(2)[0]);
+        assertEquals(3L, records.get(2)[1]);
+    }
+
+    @Test
+    public void checkParallelism()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\d+)")
+                .set("parallelism", 4);
+
+        String[] lines = new String[LineBatch.MAX_LINES * 10 + 1];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = i % 100 == 99 ? "# skipped" : "key=" + i;
+        }
+        transaction(config, fileInput(lines));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(lines.length - lines.length / 100, records.size());
+        int index = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (i % 100 != 99) {
+                assertEquals((long) i, records.get(index++)[1]);
+            }
+        }
+    }
+
+    @Test
+    public void checkParallelismWithoutPreservingOrder()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\d+)")
+                .set("parallelism", 4)
+                .set("preserve_order", false);
+
+        String[] lines = new String[LineBatch.MAX_LINES * 10 + 1];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "key=" + i;
+        }
+        transaction(config, fileInput(lines));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        Set<Long> values = new HashSet<>();
+        for (Object[] record : records) {
+            values.add((Long) record[1]);
+        }
+        assertEquals(lines.length, records.size());
+        assertEquals(lines.length, values.size());
+    }
+
+    @Test(expected = DataException.class)
+    public void checkParallelismStopOnInvalidRecord()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\d+)")
+                .set("parallelism", 2)
+                .set("stop_on_invalid_record", true);
+
+        transaction(config, fileInput(
+                "foo=1",
+                "# bar=2"));
+    }
+
     @Test(expected = DataException.class)
     public void checkInvalidFormat()
             throws Exception
@@ -246,6 +489,241 @@ public class TestJoniRegexpParserPlugin
                 "2017-02-19 This is a test."));
     }
 
+    @Test
+    public void checkRejectedLinesPath()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        String path = new File(folder.getRoot(), "rejects").getPath();
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\S+)")
+                .set("rejected_lines_path", path)
+                .set("skip_conversion_errors", true);
+
+        transaction(config, fileInput(
+                "foo=1",
+                "bar=two",
+                "# baz",
+                "qux=4"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals("foo", records.get(0)[0]);
+        assertEquals("qux", records.get(1)[0]);
+        assertEquals(4L, records.get(1)[1]);
+
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().startsWith("rejects."));
+        assertEquals("bar=two\n# baz\n", new String(Files.toByteArray(files[0]), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = DataException.class)
+    public void checkRejectedLinesPathKeepsConversionErrors()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("key", STRING), column("value", LONG));
+
+        String path = new File(folder.getRoot(), "rejects").getPath();
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<key>[a-z]+)=(?<value>\\S+)")
+                .set("rejected_lines_path", path);
+
+        transaction(config, fileInput(
+                "foo=1",
+                "bar=two"));
+    }
+
+    @Test
+    public void checkMatchTimeout()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "(?<a>(a|aa)+)$")
+                .set("match_timeout_ms", 50);
+
+        transaction(config, fileInput(
+                "aaa",
+                "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!",
+                "aaaa"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals("aaa", records.get(0)[0]);
+        assertEquals("aaaa", records.get(1)[0]);
+    }
+
+    @Test
+    public void checkMatchTimeoutInWhere()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>\\S+)$")
+                .set("where", ImmutableList.of(ImmutableMap.of("name", "a", "op", "!~", "value", "(a|aa)+$")))
+                .set("match_timeout_ms", 50);
+
+        transaction(config, fileInput(
+                "bbb",
+                "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!",
+                "ccc"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals("bbb", records.get(0)[0]);
+        assertEquals("ccc", records.get(1)[0]);
+    }
+
+    @Test
+    public void checkMatchTimeoutInFirstline()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "\\A(?<a>[\\s\\S]*)\\z")
+                .set("firstline", "^(a|aa)+$")
+                .set("match_timeout_ms", 50);
+
+        transaction(config, fileInput(
+                "aaa",
+                "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!",
+                "aaaa"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals("aaa\naaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!", records.get(0)[0]);
+        assertEquals("aaaa", records.get(1)[0]);
+    }
+
+    @Test
+    public void checkMultiline()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("time", STRING), column("level", STRING), column("message", STRING), column("trace", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<time>\\S+ \\S+) (?<level>[A-Z]+) (?<message>[^\\n]*)(?:\\n(?<trace>[\\s\\S]*))?\\z")
+                .set("firstline", "^\\d{4}-\\d{2}-\\d{2} ")
+                .set("read_ahead", true);
+
+        transaction(config, fileInput(
+                "2017-02-13 20:04:52 ERROR request failed",
+                "java.lang.IllegalStateException: broken",
+                "\tat Foo.bar(Foo.java:1)",
+                "2017-02-13 20:04:53 INFO ok"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals("2017-02-13 20:04:52", records.get(0)[0]);
+        assertEquals("request failed", records.get(0)[2]);
+        assertEquals("java.lang.IllegalStateException: broken\n\tat Foo.bar(Foo.java:1)", records.get(0)[3]);
+        assertEquals("ok", records.get(1)[2]);
+        assertEquals(null, records.get(1)[3]);
+    }
+
+    @Test
+    public void checkNativeEncoding()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING), column("b", STRING));
+
+        // the second byte of "ソ" and "表" in Shift_JIS is a backslash
+        for (String encoding : new String[] {"native", "utf8"}) {
+            ConfigSource config = this.config.deepCopy().set("columns", schema)
+                    .set("format", "^(?<a>[^\\\\、]*)(?:\\\\|、)(?<b>.*)$")
+                    .set("charset", "Shift_JIS")
+                    .set("match_encoding", encoding);
+
+            recreatePageOutput();
+            transaction(config, fileInput(Charset.forName("Shift_JIS"),
+                    "ソ表\\x",
+                    "東京、大阪"));
+
+            List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+            assertEquals(2, records.size());
+            assertEquals("ソ表", records.get(0)[0]);
+            assertEquals("x", records.get(0)[1]);
+            assertEquals("東京", records.get(1)[0]);
+            assertEquals("大阪", records.get(1)[1]);
+        }
+    }
+
+    @Test
+    public void checkAsciiEncoding()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING), column("b", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>[^ ]*) (?<b>\\S*)$")
+                .set("match_encoding", "ascii");
+
+        transaction(config, fileInput("東京 大阪"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(1, records.size());
+        assertEquals("東京", records.get(0)[0]);
+        assertEquals("大阪", records.get(0)[1]);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkUnencodableFormat()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>[^、]*)、")
+                .set("charset", "ISO-8859-1");
+
+        transaction(config, fileInput(Charset.forName("ISO-8859-1"), "a"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkNonAsciiFormatWithAsciiEncoding()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>[^、]*)、")
+                .set("match_encoding", "ascii");
+
+        transaction(config, fileInput("a"));
+    }
+
+    @Test
+    public void checkOptimizeFormat()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING), column("b", LONG));
+
+        for (boolean optimize : new boolean[] {true, false}) {
+            ConfigSource config = this.config.deepCopy().set("columns", schema)
+                    .set("format", "^(?<a>[^,]*),(?<b>[0-9]{1,3})$")
+                    .set("optimize_format", optimize);
+
+            recreatePageOutput();
+            transaction(config, fileInput(
+                    "a,1",
+                    ",123",
+                    "b,1234",
+                    "c,d,2"));
+
+            List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+            assertEquals(2, records.size());
+            assertEquals("a", records.get(0)[0]);
+            assertEquals(1L, records.get(0)[1]);
+            assertEquals("", records.get(1)[0]);
+            assertEquals(123L, records.get(1)[1]);
+        }
+    }
+
     @Test
     public void checkAllColumnTypes()
             throws Exception
@@ -283,6 +761,257 @@ public class TestJoniRegexpParserPlugin
         }
     }
 
+    @Test
+    public void checkDictionary()
+            throws Exception
+    {
+        SchemaConfig schema = schema(
+                column("method", STRING, config().set("dictionary", true)),
+                column("code", LONG, config().set("dictionary", true)),
+                column("ok", BOOLEAN), column("time", TIMESTAMP, config().set("format", "%Y-%m-%d %H:%M:%S")));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<method>[A-Z]+) (?<code>[0-9]+) (?<ok>[a-z]+) (?<time>.*)$")
+                .set("default_dictionary", true);
+
+        transaction(config, fileInput(
+                "GET 200 true 2017-02-13 20:04:52",
+                "POST 404 false 2017-02-13 20:04:52",
+                "GET 200 true 2017-02-13 20:04:53",
+                "POST 404 false 2017-02-13 20:04:52"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(4, records.size());
+        Object[][] expected = {
+                {"GET", 200L, true, Timestamp.ofEpochSecond(1487016292L)},
+                {"POST", 404L, false, Timestamp.ofEpochSecond(1487016292L)},
+                {"GET", 200L, true, Timestamp.ofEpochSecond(1487016293L)},
+                {"POST", 404L, false, Timestamp.ofEpochSecond(1487016292L)},
+        };
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], records.get(i));
+        }
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkNegativeTimestampCacheSize()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>.*)$")
+                .set("timestamp_cache_size", -1);
+
+        transaction(config, fileInput("a"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkInvalidDictionarySize()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("a", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<a>.*)$")
+                .set("dictionary_size", 0);
+
+        transaction(config, fileInput("a"));
+    }
+
+    @Test
+    public void checkInvalidJson()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("id", LONG), column("payload", JSON));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<id>[0-9]+) (?<payload>.*)$")
+                .set("skip_conversion_errors", true);
+
+        transaction(config, fileInput(
+                "1 {\"a\":[1,2.5,\"x\"]}",
+                "2 {\"a\":",
+                "3 \"\\u6771\\u4eac\""));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertEquals(1L, records.get(0)[0]);
+        assertEquals(newMap(newString("a"), newArray(newInteger(1), newFloat(2.5), newString("x"))), records.get(0)[1]);
+        assertEquals(3L, records.get(1)[0]);
+        assertEquals(newString("東京"), records.get(1)[1]);
+    }
+
+    @Test(expected = DataException.class)
+    public void checkInvalidJsonFailsByDefault()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("id", LONG), column("payload", JSON));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<id>[0-9]+) (?<payload>.*)$");
+
+        transaction(config, fileInput("2 {\"a\":"));
+    }
+
+    @Test
+    public void checkPreset()
+            throws Exception
+    {
+        ConfigSource config = this.config.deepCopy().set("preset", "apache_combined");
+
+        transaction(config, fileInput(
+                "224.126.227.109 - - [13/Feb/2017:20:04:52 +0900] \"GET /category/games HTTP/1.1\" 200 85 \"-\" \"curl\"",
+                "224.126.227.109 - bob [13/Feb/2017:20:04:53 +0900] \"HEAD / HTTP/1.1\" 304 - \"/a\" \"curl\""));
+
+        List<Object[]> records = Pages.toObjects(Preset.expand(config).get(SchemaConfig.class, "columns").toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertArrayEquals(new Object[] {"224.126.227.109", "-", Timestamp.ofEpochSecond(1486983892L), "GET", "/category/games", 200L, 85L, "-", "curl"},
+                records.get(0));
+        assertArrayEquals(new Object[] {"224.126.227.109", "bob", Timestamp.ofEpochSecond(1486983893L), "HEAD", "/", 304L, null, "/a", "curl"},
+                records.get(1));
+    }
+
+    @Test
+    public void checkSyslogRfc3164Preset()
+            throws Exception
+    {
+        ConfigSource config = this.config.deepCopy().set("preset", "syslog_rfc3164");
+
+        transaction(config, fileInput("<34>Feb  3 01:02:03 mymachine su[123]: 'su root' failed"));
+
+        List<Object[]> records = Pages.toObjects(Preset.expand(config).get(SchemaConfig.class, "columns").toSchema(), output.pages);
+        assertEquals(1, records.size());
+        assertArrayEquals(new Object[] {34L, "Feb  3 01:02:03", "mymachine", "su", 123L, "'su root' failed"}, records.get(0));
+    }
+
+    @Test
+    public void checkSyslogRfc5424Preset()
+            throws Exception
+    {
+        ConfigSource config = this.config.deepCopy().set("preset", "syslog_rfc5424");
+
+        transaction(config, fileInput(
+                "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 - An application event",
+                "<34>1 2003-10-11T22:14:15Z mymachine.example.com su - ID47 - 'su root' failed"));
+
+        List<Object[]> records = Pages.toObjects(Preset.expand(config).get(SchemaConfig.class, "columns").toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertArrayEquals(new Object[] {165L, "2003-10-11T22:14:15.003Z", "mymachine.example.com", "evntslog", "-", "ID47", "-", "An application event"},
+                records.get(0));
+        assertArrayEquals(new Object[] {34L, "2003-10-11T22:14:15Z", "mymachine.example.com", "su", "-", "ID47", "-", "'su root' failed"},
+                records.get(1));
+    }
+
+    @Test
+    public void checkLtsvPreset()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING), column("status", LONG), column("size", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("preset", "ltsv");
+
+        transaction(config, fileInput(
+                "status:200\thost:127.0.0.1\tsize:85",
+                "host:127.0.0.2\treq:GET / HTTP/1.1\tstatus:304"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertArrayEquals(new Object[] {"127.0.0.1", 200L, 85L}, records.get(0));
+        assertArrayEquals(new Object[] {"127.0.0.2", 304L, null}, records.get(1));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkLtsvPresetWithoutColumns()
+            throws Exception
+    {
+        transaction(this.config.deepCopy().set("preset", "ltsv"), fileInput(""));
+    }
+
+    @Test
+    public void checkSkipGroups()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING), column("code", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<host>[^ ]*) (?<ident>[^ ]*) (?<code>[0-9]*)$")
+                .set("skip_groups", ImmutableList.of("ident"));
+
+        transaction(config, fileInput("127.0.0.1 - 200", "127.0.0.2 x 404"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertArrayEquals(new Object[] {"127.0.0.1", 200L}, records.get(0));
+        assertArrayEquals(new Object[] {"127.0.0.2", 404L}, records.get(1));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkSkipGroupsOfColumn()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<host>[^ ]*)$")
+                .set("skip_groups", ImmutableList.of("host"));
+
+        transaction(config, fileInput(""));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkUnknownSkipGroups()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("host", STRING));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<host>[^ ]*)$")
+                .set("skip_groups", ImmutableList.of("ident"));
+
+        transaction(config, fileInput(""));
+    }
+
+    @Test
+    public void checkWhere()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("method", STRING), column("code", LONG), column("time", TIMESTAMP, config().set("format", "%Y-%m-%d")));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<method>[A-Z]+) (?<code>[^ ]+) (?<time>.*)$")
+                .set("where", ImmutableList.of(
+                        ImmutableMap.of("name", "code", "op", ">=", "value", 500),
+                        ImmutableMap.of("name", "method", "op", "!=", "value", "HEAD")));
+
+        // the dropped lines are not converted, so their invalid times do not fail the task
+        transaction(config, fileInput(
+                "GET 200 invalid",
+                "GET 503 2017-02-13",
+                "HEAD 500 invalid",
+                "POST - invalid",
+                "POST 500 2017-02-14"));
+
+        List<Object[]> records = Pages.toObjects(schema.toSchema(), output.pages);
+        assertEquals(2, records.size());
+        assertArrayEquals(new Object[] {"GET", 503L, Timestamp.ofEpochSecond(1486944000L)}, records.get(0));
+        assertArrayEquals(new Object[] {"POST", 500L, Timestamp.ofEpochSecond(1487030400L)}, records.get(1));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void checkWhereOnUnknownColumn()
+            throws Exception
+    {
+        SchemaConfig schema = schema(column("code", LONG));
+
+        ConfigSource config = this.config.deepCopy().set("columns", schema)
+                .set("format", "^(?<code>.*)$")
+                .set("where", ImmutableList.of(ImmutableMap.of("name", "status", "op", "==", "value", 200)));
+
+        transaction(config, fileInput(""));
+    }
+
     @Test
     public void checkDefaultValues()
     {
@@ -393,13 +1122,19 @@ public class TestJoniRegexpParserPlugin
 
     private FileInput fileInput(String... lines)
             throws Exception
+    {
+        return fileInput(StandardCharsets.UTF_8, lines);
+    }
+
+    private FileInput fileInput(Charset charset, String... lines)
+            throws Exception
     {
         StringBuilder sb = new StringBuilder();
         for (String line : lines) {
             sb.append(line).append("\n");
         }
 
-        ByteArrayInputStream in = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+        ByteArrayInputStream in = new ByteArrayInputStream(sb.toString().getBytes(charset));
         return new InputStreamFileInput(runtime.getBufferAllocator(), provider(in));
     }
 
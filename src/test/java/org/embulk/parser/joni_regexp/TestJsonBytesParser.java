@@ -0,0 +1,159 @@
+package org.embulk.parser.joni_regexp;
+
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestJsonBytesParser
+{
+    private final JsonBytesParser parser = new JsonBytesParser();
+
+    @Test
+    public void parseScalars()
+    {
+        assertEquals(ValueFactory.newNil(), parse("null"));
+        assertEquals(ValueFactory.newBoolean(true), parse("true"));
+        assertEquals(ValueFactory.newBoolean(false), parse(" false "));
+        assertEquals(ValueFactory.newInteger(0), parse("0"));
+        assertEquals(ValueFactory.newInteger(-42), parse("-42"));
+        assertEquals(ValueFactory.newInteger(999999999999999999L), parse("999999999999999999"));
+        assertEquals(ValueFactory.newInteger(Long.MIN_VALUE), parse("-9223372036854775808"));
+        assertEquals(ValueFactory.newInteger(new BigInteger("123456789012345678901234567890")), parse("123456789012345678901234567890"));
+        assertEquals(ValueFactory.newFloat(1.5), parse("1.5"));
+        assertEquals(ValueFactory.newFloat(-0.25e-3), parse("-0.25e-3"));
+        assertEquals(ValueFactory.newFloat(1e10), parse("1E+10"));
+        assertEquals(ValueFactory.newString("abc"), parse("\"abc\""));
+    }
+
+    @Test
+    public void parseContainers()
+    {
+        Value expected = ValueFactory.newMap(
+                ValueFactory.newString("a"), ValueFactory.newInteger(1),
+                ValueFactory.newString("b"), ValueFactory.newArray(
+                        ValueFactory.newBoolean(true),
+                        ValueFactory.newNil(),
+                        ValueFactory.newMap(new Value[0]),
+                        ValueFactory.newArray()),
+                ValueFactory.newString("c"), ValueFactory.newMap(
+                        ValueFactory.newString("d"), ValueFactory.newString("e")));
+
+        assertEquals(expected, parse("{\"a\":1,\"b\":[true,null,{},[]],\"c\":{\"d\":\"e\"}}"));
+        assertEquals(expected, parse(" { \"a\" : 1 , \"b\" : [ true , null , { } , [ ] ] ,\n\t\"c\" : { \"d\" : \"e\" } } "));
+    }
+
+    @Test
+    public void parseEscapesAndMultibyte()
+    {
+        assertEquals(ValueFactory.newString("a\"b\\c/d\b\f\n\r\te"), parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\te\""));
+        assertEquals(ValueFactory.newString("\u00e9\ud83d\ude00"), parse("\"\\u00E9\\ud83d\\ude00\""));
+        assertEquals(ValueFactory.newString("東京\n大阪"), parse("\"東京\\n大阪\""));
+        assertEquals(ValueFactory.newString("東京"), parse("\"東京\""));
+    }
+
+    @Test
+    public void acceptWhatEmbulkJsonParserAccepts()
+    {
+        assertEquals(ValueFactory.newString("a\tb\nc\u0001"), parse("\"a\tb\nc\u0001\""));
+        assertEquals(ValueFactory.newString("東\t京"), parse("\"東\t京\""));
+        // ImmutableDoubleValueImpl compares with ==, which is false for NaN
+        assertTrue(Double.isNaN(parse("NaN").asFloatValue().toDouble()));
+        assertEquals(ValueFactory.newFloat(Double.POSITIVE_INFINITY), parse("Infinity"));
+        assertEquals(ValueFactory.newFloat(Double.POSITIVE_INFINITY), parse("+Infinity"));
+        assertEquals(ValueFactory.newFloat(Double.POSITIVE_INFINITY), parse("+INF"));
+        assertEquals(ValueFactory.newFloat(Double.NEGATIVE_INFINITY), parse("-Infinity"));
+        assertEquals(ValueFactory.newArray(ValueFactory.newFloat(Double.NEGATIVE_INFINITY), ValueFactory.newInteger(1)), parse("[-INF, 1]"));
+    }
+
+    @Test
+    public void parseInOtherCharset()
+    {
+        Charset sjis = Charset.forName("Shift_JIS");
+        JsonBytesParser sjisParser = new JsonBytesParser(sjis);
+        // the second byte of ソ is 0x5C, the byte of a backslash
+        byte[] bytes = "{\"ソ\":\"表\"}".getBytes(sjis);
+
+        assertEquals(ValueFactory.newMap(ValueFactory.newString("ソ"), ValueFactory.newString("表")),
+                sjisParser.parse(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void parseByteRange()
+    {
+        byte[] bytes = "id=1 payload={\"x\":[1,2]} end".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(ValueFactory.newMap(ValueFactory.newString("x"), ValueFactory.newArray(ValueFactory.newInteger(1), ValueFactory.newInteger(2))),
+                parser.parse(bytes, 13, 24));
+    }
+
+    @Test
+    public void reuseAfterError()
+    {
+        assertInvalid("[1,[2,{\"a\":");
+        assertEquals(ValueFactory.newArray(ValueFactory.newInteger(1), ValueFactory.newArray(ValueFactory.newInteger(2))), parse("[1,[2]]"));
+    }
+
+    @Test
+    public void rejectInvalidJson()
+    {
+        assertInvalid("");
+        assertInvalid(" ");
+        assertInvalid("{");
+        assertInvalid("{\"a\"}");
+        assertInvalid("{\"a\":1,}");
+        assertInvalid("{a:1}");
+        assertInvalid("[1,]");
+        assertInvalid("[1 2]");
+        assertInvalid("\"abc");
+        assertInvalid("\"\\x\"");
+        assertInvalid("\"\\u12\"");
+        assertInvalid("01");
+        assertInvalid("-");
+        assertInvalid("1.");
+        assertInvalid(".5");
+        assertInvalid("+1");
+        assertInvalid("1e");
+        assertInvalid("NaN1");
+        assertInvalid("INF");
+        assertInvalid("-Inf");
+        assertInvalid("+");
+        assertInvalid("tru");
+        assertInvalid("nulls");
+        assertInvalid("{} {}");
+    }
+
+    @Test
+    public void rejectDeepNesting()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= JsonBytesParser.MAX_DEPTH; i++) {
+            sb.append('[');
+        }
+        assertInvalid(sb.toString());
+    }
+
+    private Value parse(String json)
+    {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+
+    private void assertInvalid(String json)
+    {
+        try {
+            parse(json);
+            fail("accepted " + json);
+        }
+        catch (JsonRecordValidateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("invalid JSON at offset "));
+        }
+    }
+}
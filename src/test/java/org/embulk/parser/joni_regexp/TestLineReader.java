@@ -0,0 +1,142 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+import org.embulk.spi.util.ListFileInput;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLineReader
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void splitOnEveryNewlineKind()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(ImmutableList.of("a\nbb\r\nccc\rdddd")));
+        assertEquals(ImmutableList.of("a", "bb", "ccc", "dddd"), lines);
+    }
+
+    @Test
+    public void keepEmptyLines()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(ImmutableList.of("\n\na\n\n")));
+        assertEquals(ImmutableList.of("", "", "a", ""), lines);
+    }
+
+    @Test
+    public void joinLinesSpanningBuffers()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(ImmutableList.of("abc", "def\nghi", "jklmnopqrstu", "vwxyz\n")));
+        assertEquals(ImmutableList.of("abcdef", "ghijklmnopqrstuvwxyz"), lines);
+    }
+
+    @Test
+    public void crlfSplitAcrossBuffers()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(ImmutableList.of("abc\r", "\ndef\r", "", "\n")));
+        assertEquals(ImmutableList.of("abc", "def"), lines);
+    }
+
+    @Test
+    public void neverJoinLinesAcrossFiles()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(
+                ImmutableList.of("abc\ndef"),
+                ImmutableList.<String>of(),
+                ImmutableList.of("ghi\r"),
+                ImmutableList.of("\njkl\n")));
+        assertEquals(ImmutableList.of("abc", "def", "ghi", "", "jkl"), lines);
+    }
+
+    @Test
+    public void markFirstLinesOfFiles()
+    {
+        List<String> lines = readLines("UTF-8", ImmutableList.of(
+                ImmutableList.of("abc\ndef"),
+                ImmutableList.<String>of(),
+                ImmutableList.of("ghi\r"),
+                ImmutableList.of("\njkl\n")), true);
+        assertEquals(ImmutableList.of("^abc", "def", "^ghi", "^", "jkl"), lines);
+    }
+
+    @Test
+    public void transcodeToUtf8()
+    {
+        List<String> lines = readLines("Shift_JIS", ImmutableList.of(ImmutableList.of("マイケル\nジャクソン\n")));
+        assertEquals(ImmutableList.of("マイケル", "ジャクソン"), lines);
+    }
+
+    @Test
+    public void indexOfNewline()
+    {
+        byte[] bytes = "0123456789abcdef\r0123\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer words = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(16, LineReader.indexOfNewline(bytes, words, 0, bytes.length));
+        assertEquals(21, LineReader.indexOfNewline(bytes, words, 17, bytes.length));
+        assertEquals(-1, LineReader.indexOfNewline(bytes, words, 0, 16));
+        assertEquals(-1, LineReader.indexOfNewline(bytes, words, 17, 21));
+    }
+
+    @Test
+    public void asciiCompatibleCharsets()
+    {
+        assertTrue(LineReader.isAsciiCompatible(StandardCharsets.UTF_8));
+        assertTrue(LineReader.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        assertTrue(LineReader.isAsciiCompatible(java.nio.charset.Charset.forName("EUC-JP")));
+        assertFalse(LineReader.isAsciiCompatible(StandardCharsets.UTF_16));
+    }
+
+    private List<String> readLines(String charset, List<List<String>> files)
+    {
+        return readLines(charset, files, false);
+    }
+
+    /**
+     * @param markFileStarts prefix the first lines of files with '^'
+     */
+    private List<String> readLines(String charset, List<List<String>> files, boolean markFileStarts)
+    {
+        ConfigSource config = Exec.newConfigSource()
+                .set("columns", ImmutableList.of(
+                        ImmutableMap.of(
+                                "name", "name",
+                                "type", "string")))
+                .set("format", "(?<name>.*)")
+                .set("charset", charset);
+        JoniRegexpParserPlugin.PluginTask task = config.loadConfig(JoniRegexpParserPlugin.PluginTask.class);
+
+        List<List<Buffer>> buffers = new ArrayList<>();
+        for (List<String> file : files) {
+            List<Buffer> fileBuffers = new ArrayList<>();
+            for (String chunk : file) {
+                fileBuffers.add(Buffer.copyOf(chunk.getBytes(task.getCharset())));
+            }
+            buffers.add(fileBuffers);
+        }
+
+        List<String> lines = new ArrayList<>();
+        try (LineReader reader = new LineReader(new ListFileInput(buffers), task)) {
+            while (reader.nextLine()) {
+                String line = new String(reader.getBytes(), reader.getBegin(), reader.getEnd() - reader.getBegin(), StandardCharsets.UTF_8);
+                lines.add(markFileStarts && reader.isFileStart() ? "^" + line : line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,124 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLiteralPrefilter
+{
+    @Test
+    public void apacheCombinedLog()
+    {
+        LiteralPrefilter prefilter = LiteralPrefilter.analyze("^(?<host>[^ ]*) [^ ]* (?<user>[^ ]*) \\[(?<time>[^\\]]*)\\] \"(?<method>\\S+)(?: +(?<path>[^ ]*) +\\S*)?\" (?<code>[^ ]*) (?<size>[^ ]*)(?: \"(?<referer>[^\\\"]*)\" \"(?<agent>[^\\\"]*)\")?$");
+
+        assertEquals(ImmutableList.of("] \"", " ["), prefilter.getLiterals());
+        assertEquals(11, prefilter.getMinLength());
+        assertTrue(mayMatch(prefilter, "224.126.227.109 - - [13/Feb/2017:20:04:52 +0900] \"GET /category/games HTTP/1.1\" 200 85"));
+        assertFalse(mayMatch(prefilter, "2017-02-13 20:04:52 health check ok"));
+        assertFalse(mayMatch(prefilter, "short"));
+    }
+
+    @Test
+    public void quantifiers()
+    {
+        assertEquals(ImmutableList.of("ab", "c"), LiteralPrefilter.analyze("(?<a>ab+c)").getLiterals());
+        assertEquals(ImmutableList.of("a", "c"), LiteralPrefilter.analyze("(?<a>ab*c)").getLiterals());
+        assertEquals(4, LiteralPrefilter.analyze("(?<a>ab{2}c)").getMinLength());
+        assertEquals(ImmutableList.of("ab", "c"), LiteralPrefilter.analyze("(?:ab)+(?<a>c)").getLiterals());
+        assertEquals(ImmutableList.of("c"), LiteralPrefilter.analyze("(?:ab)?(?<a>c)").getLiterals());
+        assertEquals(ImmutableList.of("a{1,b"), LiteralPrefilter.analyze("(?<a>a{1,b)").getLiterals());
+    }
+
+    @Test
+    public void rubyIntervalSuffixes()
+    {
+        // x{3}? is (?:x{3})? in the Ruby syntax, so the x are optional
+        LiteralPrefilter prefilter = LiteralPrefilter.analyze("^(?<a>x{3}?)b");
+        assertEquals(ImmutableList.of("b"), prefilter.getLiterals());
+        assertEquals(1, prefilter.getMinLength());
+        assertTrue(mayMatch(prefilter, "b"));
+
+        // a{1}+ is (?:a{1})+, so more a can come before the b
+        prefilter = LiteralPrefilter.analyze("(?<a>a{1}+b)");
+        assertEquals(2, prefilter.getMinLength());
+        assertTrue(mayMatch(prefilter, "aab"));
+    }
+
+    @Test
+    public void escapes()
+    {
+        assertEquals(ImmutableList.of("a.b"), LiteralPrefilter.analyze("(?<a>a\\.b)").getLiterals());
+        assertEquals(ImmutableList.of("abc"), LiteralPrefilter.analyze("(?<a>\\x61b\\u0063)").getLiterals());
+        assertEquals(ImmutableList.of("a\tb"), LiteralPrefilter.analyze("(?<a>a\\tb)").getLiterals());
+        assertEquals(ImmutableList.of("b"), LiteralPrefilter.analyze("(?<a>\\d+)b").getLiterals());
+    }
+
+    @Test
+    public void alternation()
+    {
+        LiteralPrefilter prefilter = LiteralPrefilter.analyze("(?<a>ab|cd)e");
+        assertEquals(ImmutableList.of("e"), prefilter.getLiterals());
+        assertEquals(3, prefilter.getMinLength());
+
+        prefilter = LiteralPrefilter.analyze("(?<a>a)|(?<b>bc)");
+        assertEquals(ImmutableList.<String>of(), prefilter.getLiterals());
+        assertEquals(1, prefilter.getMinLength());
+    }
+
+    @Test
+    public void lookaround()
+    {
+        assertEquals(ImmutableList.of("y"), LiteralPrefilter.analyze("(?<a>(?<!x)y)").getLiterals());
+        assertEquals(ImmutableList.of("a"), LiteralPrefilter.analyze("(?<a>(?=ab)a)").getLiterals());
+    }
+
+    @Test
+    public void multibyte()
+    {
+        LiteralPrefilter prefilter = LiteralPrefilter.analyze("(?<a>\\S+)：(?<b>\\S+)");
+        assertEquals(ImmutableList.of("："), prefilter.getLiterals());
+        assertEquals(5, prefilter.getMinLength());
+        assertTrue(mayMatch(prefilter, "名前：値"));
+        assertFalse(mayMatch(prefilter, "名前:値"));
+    }
+
+    @Test
+    public void unsupported()
+    {
+        assertNull(LiteralPrefilter.analyze("(?<a>a*)"));
+        assertNull(LiteralPrefilter.analyze("(?<x>.)\\k<x>"));
+        assertNull(LiteralPrefilter.analyze("(?<a>(?i)ab)"));
+        assertNull(LiteralPrefilter.analyze("(?<a>a)\\1"));
+    }
+
+    @Test
+    public void horspool()
+    {
+        LiteralPrefilter.Horspool horspool = new LiteralPrefilter.Horspool(bytes(" HTTP/"));
+        byte[] text = bytes("\"GET /index.html HTTP/1.1\" 200");
+        assertEquals(16, horspool.indexOf(text, 0, text.length));
+        assertEquals(-1, horspool.indexOf(text, 0, 21));
+        assertEquals(-1, horspool.indexOf(text, 17, text.length));
+
+        LiteralPrefilter.Horspool single = new LiteralPrefilter.Horspool(bytes("\""));
+        assertEquals(0, single.indexOf(text, 0, text.length));
+        assertEquals(25, single.indexOf(text, 1, text.length));
+    }
+
+    private static boolean mayMatch(LiteralPrefilter prefilter, String line)
+    {
+        byte[] bytes = ("[" + line + "]").getBytes(StandardCharsets.UTF_8);
+        return prefilter.mayMatch(bytes, 1, bytes.length - 1);
+    }
+
+    private static byte[] bytes(String str)
+    {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
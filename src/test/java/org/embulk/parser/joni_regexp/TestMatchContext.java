@@ -0,0 +1,168 @@
+package org.embulk.parser.joni_regexp;
+
+import org.jcodings.specific.UTF8Encoding;
+import org.joni.Option;
+import org.joni.Regex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestMatchContext
+{
+    @Test
+    public void reuseMatcherAcrossLines()
+    {
+        MatchContext context = context("^(?<key>[^=]*)=(?<value>.*)$");
+        byte[] bytes = "xx\nfoo=bar\nhoge=fuga\ninvalid\n".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 3, 10));
+        assertEquals("foo", capture(context, 1));
+        assertEquals("bar", capture(context, 2));
+
+        assertTrue(context.search(bytes, 11, 20));
+        assertEquals("hoge", capture(context, 1));
+        assertEquals("fuga", capture(context, 2));
+
+        assertFalse(context.search(bytes, 21, 28));
+    }
+
+    @Test
+    public void growLineBuffer()
+    {
+        MatchContext context = context("^(?<a>a+)(?<b>b+)$");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            line.append('a');
+        }
+        line.append("bb");
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 0, bytes.length));
+        assertEquals(5000, context.captureEnd(1) - context.captureBegin(1));
+        assertEquals("bb", capture(context, 2));
+    }
+
+    @Test
+    public void emptyLine()
+    {
+        MatchContext context = context("^(?<a>a*)$");
+        byte[] bytes = "a\n".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 2, 2));
+        assertEquals("", capture(context, 1));
+    }
+
+    @Test
+    public void unmatchedGroup()
+    {
+        MatchContext context = context("(?<a>a)|(?<b>b)");
+        byte[] bytes = "b".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 0, bytes.length));
+        assertEquals(-1, context.captureBegin(1));
+        assertEquals(-1, context.captureEnd(1));
+        assertEquals("b", capture(context, 2));
+    }
+
+    @Test
+    public void lookBehindAtLineStart()
+    {
+        MatchContext context = context("(?<!\\s)(?<a>a)");
+        byte[] bytes = "x\na".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 2, 3));
+        assertEquals("a", capture(context, 1));
+    }
+
+    @Test
+    public void canReuseMatcher()
+    {
+        assertTrue(MatchContext.canReuseMatcher("^(?<a>a)$"));
+        assertFalse(MatchContext.canReuseMatcher("\\A(?<a>a)"));
+        assertFalse(MatchContext.canReuseMatcher("(?<=x)(?<a>a)"));
+        assertFalse(MatchContext.canReuseMatcher("(?<!x)(?<a>a)"));
+    }
+
+    @Test
+    public void anchoredMatch()
+    {
+        MatchContext context = context("(?<key>[a-z]+)=(?<value>\\d+)", true);
+        byte[] bytes = "foo=1 bar=2\n1 bar=2\n".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(context.search(bytes, 0, 11));
+        assertEquals("foo", capture(context, 1));
+        assertEquals("1", capture(context, 2));
+
+        // search would find "bar=2"
+        assertFalse(context.search(bytes, 12, 19));
+    }
+
+    @Test
+    public void anchoredMatchWithFreshMatcher()
+    {
+        MatchContext context = context("\\A(?<a>a+)", true);
+        byte[] bytes = "xaa\naa".getBytes(StandardCharsets.UTF_8);
+
+        assertFalse(context.search(bytes, 0, 3));
+        assertTrue(context.search(bytes, 4, 6));
+        assertEquals("aa", capture(context, 1));
+    }
+
+    @Test
+    public void isStartAnchored()
+    {
+        assertTrue(MatchContext.isStartAnchored("^(?<a>a)$"));
+        assertTrue(MatchContext.isStartAnchored("\\A(?<a>a)"));
+        assertTrue(MatchContext.isStartAnchored("^(?:a|b)(?<a>c)"));
+        assertTrue(MatchContext.isStartAnchored("^(?<a>[^|]*)\\|(?<b>.*)$"));
+        assertFalse(MatchContext.isStartAnchored("(?<a>a)$"));
+        assertFalse(MatchContext.isStartAnchored("^a|(?<a>b)"));
+        assertFalse(MatchContext.isStartAnchored("(?<a>^a)"));
+    }
+
+    @Test
+    public void timeoutWithWatchdog()
+    {
+        MatchContext context = context("(?<a>(a|aa)+)$");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            line.append('a');
+        }
+        byte[] slow = line.append('!').toString().getBytes(StandardCharsets.UTF_8);
+        byte[] fast = "aaa".getBytes(StandardCharsets.UTF_8);
+
+        try (MatchWatchdog watchdog = new MatchWatchdog(50)) {
+            context.setGuard(watchdog.register());
+
+            assertFalse(context.search(slow, 0, slow.length));
+            assertTrue(context.isTimedOut());
+            assertFalse(Thread.currentThread().isInterrupted());
+
+            assertTrue(context.search(fast, 0, fast.length));
+            assertFalse(context.isTimedOut());
+            assertEquals("aaa", capture(context, 1));
+        }
+    }
+
+    private MatchContext context(String format)
+    {
+        return context(format, false);
+    }
+
+    private MatchContext context(String format, boolean anchored)
+    {
+        byte[] pattern = format.getBytes(StandardCharsets.UTF_8);
+        Regex regex = new Regex(pattern, 0, pattern.length, Option.NONE, UTF8Encoding.INSTANCE);
+        return new MatchContext(regex, format, anchored);
+    }
+
+    private String capture(MatchContext context, int group)
+    {
+        int begin = context.captureBegin(group);
+        return new String(context.getBytes(), begin, context.captureEnd(group) - begin, StandardCharsets.UTF_8);
+    }
+}
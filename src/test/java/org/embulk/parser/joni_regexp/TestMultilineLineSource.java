@@ -0,0 +1,163 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMultilineLineSource
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void groupContinuationLines()
+    {
+        List<String> lines = ImmutableList.of(
+                "2017-02-13 20:04:52 ERROR failed",
+                "java.lang.IllegalStateException: broken",
+                "\tat Foo.bar(Foo.java:1)",
+                "",
+                "2017-02-13 20:04:53 INFO ok",
+                "2017-02-13 20:04:54 ERROR failed again",
+                "\tat Foo.baz(Foo.java:2)");
+
+        assertEquals(ImmutableList.of(
+                "2017-02-13 20:04:52 ERROR failed\njava.lang.IllegalStateException: broken\n\tat Foo.bar(Foo.java:1)\n",
+                "2017-02-13 20:04:53 INFO ok",
+                "2017-02-13 20:04:54 ERROR failed again\n\tat Foo.baz(Foo.java:2)"),
+                readRecords(lines, "^\\d{4}-", 100));
+    }
+
+    @Test
+    public void linesBeforeFirstRecord()
+    {
+        assertEquals(ImmutableList.of("a\nb", "#1\nc", "#2"),
+                readRecords(ImmutableList.of("a", "b", "#1", "c", "#2"), "^#", 100));
+        assertEquals(ImmutableList.<String>of(), readRecords(ImmutableList.<String>of(), "^#", 100));
+    }
+
+    @Test
+    public void neverJoinLinesAcrossFiles()
+    {
+        List<String> lines = ImmutableList.of("^#1", "a", "#2", "b", "^c", "d", "#3", "^#4");
+        MultilineLineSource source = new MultilineLineSource(new ListLineSource(lines), "#", 100);
+
+        List<String> records = new ArrayList<>();
+        List<Boolean> fileStarts = new ArrayList<>();
+        try {
+            while (source.nextLine()) {
+                records.add(new String(source.getBytes(), source.getBegin(), source.getEnd() - source.getBegin(), StandardCharsets.UTF_8));
+                fileStarts.add(source.isFileStart());
+            }
+        }
+        finally {
+            source.close();
+        }
+        assertEquals(ImmutableList.of("^#1\na", "#2\nb", "^c\nd", "#3", "^#4"), records);
+        assertEquals(ImmutableList.of(true, false, true, false, true), fileStarts);
+    }
+
+    @Test
+    public void dropLinesBeyondMaxLines()
+    {
+        List<String> lines = ImmutableList.of("#1", "a", "b", "c", "#2", "d", "#3", "e", "f", "g", "h");
+        MultilineLineSource source = new MultilineLineSource(new ListLineSource(lines), "^#", 2);
+
+        assertEquals(ImmutableList.of("#1\na", "#2\nd", "#3\ne"), readRecords(source));
+        assertEquals(2, source.getTruncatedRecords());
+        assertEquals(5, source.getDroppedLines());
+    }
+
+    @Test
+    public void giveBackHugeBuffer()
+    {
+        char[] chars = new char[MultilineLineSource.RETAINED_CAPACITY];
+        Arrays.fill(chars, 'x');
+        String longLine = new String(chars);
+
+        List<String> lines = ImmutableList.of("#1", longLine, longLine, "#2", "a");
+        assertEquals(ImmutableList.of("#1\n" + longLine + "\n" + longLine, "#2\na"), readRecords(lines, "^#", 100));
+    }
+
+    private static List<String> readRecords(List<String> lines, String firstline, int maxLines)
+    {
+        return readRecords(new MultilineLineSource(new ListLineSource(lines), firstline, maxLines));
+    }
+
+    private static List<String> readRecords(LineSource source)
+    {
+        List<String> records = new ArrayList<>();
+        try {
+            while (source.nextLine()) {
+                records.add(new String(source.getBytes(), source.getBegin(), source.getEnd() - source.getBegin(), StandardCharsets.UTF_8));
+            }
+        }
+        finally {
+            source.close();
+        }
+        return records;
+    }
+
+    private static class ListLineSource
+            implements LineSource
+    {
+        private final List<String> lines;
+        private int index = -1;
+        private byte[] bytes;
+
+        ListLineSource(List<String> lines)
+        {
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean nextLine()
+        {
+            if (++index < lines.size()) {
+                bytes = lines.get(index).getBytes(StandardCharsets.UTF_8);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public int getBegin()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getEnd()
+        {
+            return bytes.length;
+        }
+
+        /**
+         * Lines starting with '^' are the first lines of files.
+         */
+        @Override
+        public boolean isFileStart()
+        {
+            return lines.get(index).startsWith("^");
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
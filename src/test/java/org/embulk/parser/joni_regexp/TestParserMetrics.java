@@ -0,0 +1,110 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestParserMetrics
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void addCountersToTotals()
+    {
+        ParserMetrics metrics = new ParserMetrics();
+        ParserMetrics.Counter first = metrics.newCounter();
+        ParserMetrics.Counter second = metrics.newCounter();
+
+        for (int i = 0; i < ParserMetrics.FLUSH_LINES; i++) {
+            first.countLine(10);
+            first.matchedLines++;
+            first.lineDone();
+        }
+        assertEquals(ParserMetrics.FLUSH_LINES, metrics.getLines());
+        assertEquals(ParserMetrics.FLUSH_LINES * 10, metrics.getBytes());
+
+        second.countLine(5);
+        second.unmatchedLines++;
+        second.filteredLines++;
+        second.lineDone();
+        assertEquals(ParserMetrics.FLUSH_LINES, metrics.getLines());
+
+        second.flush();
+        assertEquals(ParserMetrics.FLUSH_LINES + 1, metrics.getLines());
+        assertEquals(ParserMetrics.FLUSH_LINES * 10 + 5, metrics.getBytes());
+        assertEquals(ParserMetrics.FLUSH_LINES, metrics.getMatchedLines());
+        assertEquals(1, metrics.getUnmatchedLines());
+        assertEquals(1, metrics.getFilteredLines());
+        assertEquals((double) ParserMetrics.FLUSH_LINES / (ParserMetrics.FLUSH_LINES + 1), metrics.getMatchRatio(), 1e-9);
+
+        second.flush();
+        assertEquals(ParserMetrics.FLUSH_LINES + 1, metrics.getLines());
+    }
+
+    @Test
+    public void timeEverySampledLine()
+    {
+        ParserMetrics metrics = new ParserMetrics();
+        ParserMetrics.Counter counter = metrics.newCounter();
+
+        int timed = 0;
+        for (int i = 0; i < ParserMetrics.TIMING_INTERVAL * 3; i++) {
+            if (counter.countLine(1)) {
+                counter.matchNanos += 100;
+                timed++;
+            }
+        }
+        counter.flush();
+        assertEquals(3, timed);
+        assertEquals(300L * ParserMetrics.TIMING_INTERVAL, metrics.getMatchNanos());
+    }
+
+    @Test
+    public void registerMBeanWhileRunning()
+            throws Exception
+    {
+        ConfigSource config = Exec.newConfigSource()
+                .set("columns", ImmutableList.of(ImmutableMap.of("name", "name", "type", "string")))
+                .set("format", "(?<name>.*)")
+                .set("metrics_log_interval", 0);
+        JoniRegexpParserPlugin.PluginTask task = config.loadConfig(JoniRegexpParserPlugin.PluginTask.class);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.embulk.parser.joni_regexp:type=ParserMetrics,*");
+        int before = server.queryNames(pattern, null).size();
+
+        try (ParserMetrics metrics = ParserMetrics.start(task, 0)) {
+            ParserMetrics.Counter counter = metrics.newCounter();
+            counter.countLine(3);
+            counter.matchedLines++;
+            counter.flush();
+
+            Set<ObjectName> names = server.queryNames(pattern, null);
+            assertEquals(before + 1, names.size());
+            boolean found = false;
+            for (ObjectName name : names) {
+                if (Long.valueOf(1L).equals(server.getAttribute(name, "Lines"))) {
+                    found = true;
+                }
+            }
+            assertTrue(found);
+        }
+        assertEquals(before, server.queryNames(pattern, null).size());
+        assertFalse(task.getMetricsLogInterval() > 0);
+    }
+}
@@ -0,0 +1,196 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.config.ConfigException;
+import org.joni.NameEntry;
+import org.joni.Regex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TestPreset
+{
+    @Test
+    public void apacheCommon()
+    {
+        Map<String, String> captures = match(Preset.APACHE_COMMON,
+                "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326");
+
+        assertEquals("127.0.0.1", captures.get("host"));
+        assertEquals("frank", captures.get("user"));
+        assertEquals("10/Oct/2000:13:55:36 -0700", captures.get("time"));
+        assertEquals("GET", captures.get("method"));
+        assertEquals("/apache_pb.gif", captures.get("path"));
+        assertEquals("200", captures.get("code"));
+        assertEquals("2326", captures.get("size"));
+
+        assertNull(match(Preset.APACHE_COMMON, "127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"-\" 408 -").get("size"));
+        assertNull(match(Preset.APACHE_COMMON,
+                "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326 \"-\" \"curl\""));
+    }
+
+    @Test
+    public void apacheCombined()
+    {
+        Map<String, String> captures = match(Preset.APACHE_COMBINED,
+                "224.126.227.109 - - [13/Feb/2017:20:04:52 +0900] \"GET /category/games HTTP/1.1\" 200 85 \"/item/giftcards/4852\" \"Mozilla/5.0 (compatible; \\\"bot\\\")\"");
+
+        assertEquals("/category/games", captures.get("path"));
+        assertEquals("85", captures.get("size"));
+        assertEquals("/item/giftcards/4852", captures.get("referer"));
+        assertEquals("Mozilla/5.0 (compatible; \\\"bot\\\")", captures.get("agent"));
+    }
+
+    @Test
+    public void nginx()
+    {
+        String line = "93.184.216.34 - - [13/Feb/2017:20:04:52 +0900] \"POST /api HTTP/1.1\" 201 12 \"-\" \"curl/7.52.1\"";
+
+        assertNull(match(Preset.NGINX, line).get("http_x_forwarded_for"));
+        assertEquals("10.0.0.1", match(Preset.NGINX, line + " \"10.0.0.1\"").get("http_x_forwarded_for"));
+    }
+
+    @Test
+    public void syslogRfc3164()
+    {
+        Map<String, String> captures = match(Preset.SYSLOG_RFC3164,
+                "<34>Feb  3 01:02:03 mymachine su[123]: 'su root' failed for lonvick on /dev/pts/8");
+
+        assertEquals("34", captures.get("pri"));
+        assertEquals("Feb  3 01:02:03", captures.get("time"));
+        assertEquals("mymachine", captures.get("host"));
+        assertEquals("su", captures.get("ident"));
+        assertEquals("123", captures.get("pid"));
+        assertEquals("'su root' failed for lonvick on /dev/pts/8", captures.get("message"));
+
+        captures = match(Preset.SYSLOG_RFC3164, "Feb 13 20:04:52 host last message repeated 2 times");
+        assertNull(captures.get("pri"));
+        assertNull(captures.get("ident"));
+        assertEquals("last message repeated 2 times", captures.get("message"));
+    }
+
+    @Test
+    public void syslogRfc5424()
+    {
+        Map<String, String> captures = match(Preset.SYSLOG_RFC5424,
+                "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventID=\"10\\]11\"][x@1 a=\"b\"] An application event");
+
+        assertEquals("165", captures.get("pri"));
+        assertEquals("2003-10-11T22:14:15.003Z", captures.get("time"));
+        assertEquals("mymachine.example.com", captures.get("host"));
+        assertEquals("evntslog", captures.get("ident"));
+        assertEquals("-", captures.get("pid"));
+        assertEquals("ID47", captures.get("msgid"));
+        assertEquals("[exampleSDID@32473 iut=\"3\" eventID=\"10\\]11\"][x@1 a=\"b\"]", captures.get("extradata"));
+        assertEquals("An application event", captures.get("message"));
+
+        captures = match(Preset.SYSLOG_RFC5424, "<34>1 - - su - - -");
+        assertNull(captures.get("time"));
+        assertEquals("-", captures.get("extradata"));
+        assertNull(captures.get("message"));
+    }
+
+    @Test
+    public void ltsv()
+    {
+        String format = Preset.LTSV.getFormat(ImmutableList.of("host", "status", "size"));
+        Map<String, String> captures = match(format, "time:[13/Feb/2017:20:04:52 +0900]\tstatus:200\thost:127.0.0.1\treq:GET / HTTP/1.1");
+
+        assertEquals("127.0.0.1", captures.get("host"));
+        assertEquals("200", captures.get("status"));
+        assertNull(captures.get("size"));
+        assertEquals("", match(format, "host:").get("host"));
+        assertNull(match(format, "vhost:a\tsize_x:1").get("host"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void ltsvNeedsGroupNames()
+    {
+        Preset.LTSV.getFormat(ImmutableList.of("http.host"));
+    }
+
+    @Test
+    public void formatsNeedNoRewrite()
+    {
+        for (Preset preset : Preset.values()) {
+            String format = preset.getFormat(ImmutableList.of("a", "b"));
+            FormatAnalyzer.Result result = FormatAnalyzer.analyze(format);
+            assertFalse(preset.toString(), result.isRewritten());
+            assertEquals(preset.toString(), ImmutableList.of(), result.getWarnings());
+        }
+    }
+
+    @Test
+    public void columnsMatchGroups()
+    {
+        for (Preset preset : Preset.values()) {
+            List<String> groups = ImmutableList.copyOf(groupNames(JoniRegexpParserPlugin.buildRegex(preset.getFormat(ImmutableList.of("a")))));
+            List<String> names = new ArrayList<>();
+            for (Map<String, String> column : preset.getColumns()) {
+                names.add(column.get("name"));
+            }
+            assertEquals(preset.toString(), preset == Preset.LTSV ? ImmutableList.of("a") : names, groups);
+        }
+    }
+
+    @Test
+    public void of()
+    {
+        assertEquals(Preset.APACHE_COMBINED, Preset.of("apache_combined"));
+        assertEquals(Preset.SYSLOG_RFC5424, Preset.of("SYSLOG_RFC5424"));
+        assertEquals("nginx", Preset.NGINX.toString());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void unknownPreset()
+    {
+        Preset.of("iis");
+    }
+
+    private static Map<String, String> match(Preset preset, String line)
+    {
+        return match(preset.getFormat(ImmutableList.<String>of()), line);
+    }
+
+    /**
+     * @return the captures of the named groups, or null if the line does not match
+     */
+    private static Map<String, String> match(String format, String line)
+    {
+        Regex regex = JoniRegexpParserPlugin.buildRegex(format);
+        MatchContext context = new MatchContext(regex, format);
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (!context.search(bytes, 0, bytes.length)) {
+            return null;
+        }
+        Map<String, String> captures = new LinkedHashMap<>();
+        for (Iterator<NameEntry> entries = regex.namedBackrefIterator(); entries.hasNext(); ) {
+            NameEntry entry = entries.next();
+            int group = entry.getBackRefs()[0];
+            int begin = context.captureBegin(group);
+            captures.put(CapturePlan.captureName(entry),
+                    begin < 0 ? null : new String(context.getBytes(), begin, context.captureEnd(group) - begin, StandardCharsets.UTF_8));
+        }
+        return captures;
+    }
+
+    private static List<String> groupNames(Regex regex)
+    {
+        Map<Integer, String> names = new TreeMap<>();
+        for (Iterator<NameEntry> entries = regex.namedBackrefIterator(); entries.hasNext(); ) {
+            NameEntry entry = entries.next();
+            names.put(entry.getBackRefs()[0], CapturePlan.captureName(entry));
+        }
+        return ImmutableList.copyOf(names.values());
+    }
+}
@@ -0,0 +1,179 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReadAheadLineReader
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void keepLineOrderAcrossBatches()
+    {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < LineBatch.MAX_LINES * 5 + 3; i++) {
+            expected.add(i % 7 == 0 ? "" : "line " + i);
+        }
+
+        ListLineSource source = new ListLineSource(expected, null);
+        assertEquals(expected, readLines(new ReadAheadLineReader(source, 2, Exec.session())));
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void splitBatchesOnBytes()
+    {
+        char[] chars = new char[LineBatch.MAX_BYTES / 3];
+        Arrays.fill(chars, 'x');
+        String longLine = new String(chars);
+        char[] hugeChars = new char[LineBatch.MAX_BYTES * 2];
+        Arrays.fill(hugeChars, 'y');
+        String hugeLine = new String(hugeChars);
+        List<String> expected = ImmutableList.of(longLine, longLine, "a", longLine, hugeLine, "b", longLine);
+
+        assertEquals(expected, readLines(new ReadAheadLineReader(new ListLineSource(expected, null), 1, Exec.session())));
+    }
+
+    @Test
+    public void emptySource()
+    {
+        assertEquals(ImmutableList.<String>of(), readLines(new ReadAheadLineReader(new ListLineSource(ImmutableList.<String>of(), null), 1, Exec.session())));
+    }
+
+    @Test
+    public void rethrowErrorAfterPrecedingLines()
+    {
+        List<String> lines = new ArrayList<>();
+        try (LineSource reader = new ReadAheadLineReader(new ListLineSource(ImmutableList.of("a", "b"), new IllegalStateException("broken input")), 1, Exec.session())) {
+            while (reader.nextLine()) {
+                lines.add(lineString(reader));
+            }
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("broken input", ex.getMessage());
+        }
+        assertEquals(ImmutableList.of("a", "b"), lines);
+    }
+
+    @Test
+    public void closeBeforeConsumingAllLines()
+    {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < LineBatch.MAX_LINES * 10; i++) {
+            expected.add("line " + i);
+        }
+
+        ListLineSource source = new ListLineSource(expected, null);
+        try (LineSource reader = new ReadAheadLineReader(source, 1, Exec.session())) {
+            assertTrue(reader.nextLine());
+            assertEquals("line 0", lineString(reader));
+        }
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void passFileStarts()
+    {
+        List<String> lines = ImmutableList.of("^a", "b", "^c", "^d", "e");
+        List<Boolean> fileStarts = new ArrayList<>();
+        try (LineSource reader = new ReadAheadLineReader(new ListLineSource(lines, null), 1, Exec.session())) {
+            while (reader.nextLine()) {
+                fileStarts.add(reader.isFileStart());
+            }
+        }
+        assertEquals(ImmutableList.of(true, false, true, true, false), fileStarts);
+    }
+
+    private static List<String> readLines(LineSource reader)
+    {
+        List<String> lines = new ArrayList<>();
+        try (LineSource source = reader) {
+            while (source.nextLine()) {
+                lines.add(lineString(source));
+            }
+        }
+        return lines;
+    }
+
+    private static String lineString(LineSource source)
+    {
+        return new String(source.getBytes(), source.getBegin(), source.getEnd() - source.getBegin(), StandardCharsets.UTF_8);
+    }
+
+    private static class ListLineSource
+            implements LineSource
+    {
+        private final List<String> lines;
+        private final RuntimeException error;
+        private int index = -1;
+        private byte[] bytes;
+        volatile boolean closed;
+
+        ListLineSource(List<String> lines, RuntimeException error)
+        {
+            this.lines = lines;
+            this.error = error;
+        }
+
+        @Override
+        public boolean nextLine()
+        {
+            if (++index < lines.size()) {
+                // surround the line to check that only the slice is copied
+                bytes = ("[" + lines.get(index) + "]").getBytes(StandardCharsets.UTF_8);
+                return true;
+            }
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+
+        @Override
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public int getBegin()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getEnd()
+        {
+            return bytes.length - 1;
+        }
+
+        /**
+         * Lines starting with '^' are the first lines of files.
+         */
+        @Override
+        public boolean isFileStart()
+        {
+            return lines.get(index).startsWith("^");
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRecordFilter
+{
+    private static final FormatList FORMATS = new FormatList(ImmutableList.of(
+            "^(?<method>[A-Z]+) (?<path>[^ ]*) (?<code>[^ ]*) (?<size>[^ ]*)$",
+            "^(?<method>[A-Z]+) (?<path>[^ ]*)$"));
+    private static final Schema SCHEMA = new Schema(ImmutableList.of(
+            new Column(0, "method", Types.STRING),
+            new Column(1, "path", Types.STRING),
+            new Column(2, "code", Types.LONG),
+            new Column(3, "size", Types.DOUBLE)));
+
+    @Test
+    public void compareNumbers()
+    {
+        Filter filter = new Filter(where("code", ">=", 500));
+
+        assertTrue(filter.accept("GET / 500 1"));
+        assertTrue(filter.accept("GET / 503 1"));
+        assertFalse(filter.accept("GET / 404 1"));
+        assertTrue(filter.accept("GET / 500.5 1"));
+        assertFalse(filter.accept("GET / - 1"));
+        assertFalse(filter.accept("GET / NaN 1"));
+        assertFalse(filter.accept("GET / Infinity 1"));
+        assertTrue(filter.accept("GET / 5e2 1"));
+        assertTrue(filter.accept("GET / 9223372036854775807 1"));
+        assertTrue(filter.accept("GET / 99999999999999999999 1"));
+        assertFalse(filter.accept("GET / -99999999999999999999 1"));
+
+        filter = new Filter(where("code", "<", Long.MAX_VALUE));
+        assertTrue(filter.accept("GET / 9223372036854775806 1"));
+        assertFalse(filter.accept("GET / 9223372036854775807 1"));
+
+        filter = new Filter(where("size", "<", 1.5));
+        assertTrue(filter.accept("GET / 200 1.25"));
+        assertTrue(filter.accept("GET / 200 .5"));
+        assertFalse(filter.accept("GET / 200 1.5"));
+        assertFalse(filter.accept("GET / 200 -"));
+        assertFalse(filter.accept("GET / 200 -Infinity"));
+    }
+
+    @Test
+    public void detectNumbers()
+    {
+        for (String number : new String[] {"0", "-12", "+3", "1.5", "-.5", "5.", "1e10", "2.5E-3", "1e+3"}) {
+            assertTrue(number, isDecimal(number));
+        }
+        for (String text : new String[] {"", "-", "+", ".", "e3", "1e", "1e+", "1.2.3", "1,5", " 1", "NaN", "Infinity", "1d", "0x1p3"}) {
+            assertFalse(text, isDecimal(text));
+        }
+    }
+
+    @Test
+    public void compareText()
+    {
+        Filter filter = new Filter(where("method", "!=", "HEAD"));
+        assertTrue(filter.accept("GET / 200 1"));
+        assertFalse(filter.accept("HEAD / 200 1"));
+        assertTrue(filter.accept("HEADER / 200 1"));
+
+        filter = new Filter(where("path", ">=", "/b"));
+        assertTrue(filter.accept("GET /b 200 1"));
+        assertTrue(filter.accept("GET /c 200 1"));
+        assertTrue(filter.accept("GET /ä 200 1"));
+        assertFalse(filter.accept("GET /a/z 200 1"));
+        assertFalse(filter.accept("GET / 200 1"));
+
+        filter = new Filter(where("code", "==", 200));
+        assertTrue(filter.accept("GET / 200 1"));
+        assertFalse(filter.accept("GET / 0200 1"));
+    }
+
+    @Test
+    public void in()
+    {
+        Filter filter = new Filter(in("method", "in", "GET", "POST"));
+        assertTrue(filter.accept("GET / 200 1"));
+        assertTrue(filter.accept("POST / 200 1"));
+        assertFalse(filter.accept("PUT / 200 1"));
+
+        filter = new Filter(in("code", "not_in", 304, 404));
+        assertTrue(filter.accept("GET / 200 1"));
+        assertFalse(filter.accept("GET / 404 1"));
+    }
+
+    @Test
+    public void searchRegex()
+    {
+        Filter filter = new Filter(where("path", "=~", "^/api/"));
+        assertTrue(filter.accept("GET /api/users 200 1"));
+        assertFalse(filter.accept("GET /web/api/ 200 1"));
+
+        filter = new Filter(where("path", "!~", "\\.(?:png|css)$"));
+        assertTrue(filter.accept("GET /index.html 200 1"));
+        assertFalse(filter.accept("GET /a.png 200 1"));
+    }
+
+    @Test
+    public void requireEveryCondition()
+    {
+        Filter filter = new Filter(where("method", "==", "GET"), where("code", ">=", 500));
+        assertTrue(filter.accept("GET / 500 1"));
+        assertFalse(filter.accept("POST / 500 1"));
+        assertFalse(filter.accept("GET / 200 1"));
+    }
+
+    @Test
+    public void columnNotCapturedSatisfiesNothing()
+    {
+        assertFalse(new Filter(where("code", "!=", 200)).accept("GET /"));
+        assertFalse(new Filter(in("code", "not_in", 200)).accept("GET /"));
+        assertTrue(new Filter(where("path", "==", "/")).accept("GET /"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void unknownColumn()
+    {
+        new Filter(where("status", "==", 200));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void unknownOp()
+    {
+        where("code", "<>", 200);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void inNeedsValues()
+    {
+        where("code", "in", 200);
+    }
+
+    private static boolean isDecimal(String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return RecordFilter.isDecimal(bytes, 0, bytes.length);
+    }
+
+    private static WhereCondition where(String name, String op, Object value)
+    {
+        return new WhereCondition(name, op, value, null);
+    }
+
+    private static WhereCondition in(String name, String op, Object... values)
+    {
+        return new WhereCondition(name, op, null, Arrays.asList(values));
+    }
+
+    private static class Filter
+    {
+        private final FormatMatcher matcher = FormatMatcher.build(FORMATS, SCHEMA, MatchMode.AUTO, false, false);
+        private final RecordFilter filter;
+
+        Filter(WhereCondition... where)
+        {
+            List<WhereCondition> conditions = Arrays.asList(where);
+            this.filter = new RecordFilter(conditions, FORMATS, SCHEMA, LineEncoding.UTF8);
+        }
+
+        boolean accept(String line)
+        {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            assertTrue(matcher.search(bytes, 0, bytes.length));
+            return filter.accept(matcher.getFormatIndex(), matcher.getContext());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.collect.ImmutableList;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.joni.exception.SyntaxException;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestRegexCache
+{
+    private static final String FORMAT = "^(?<a>[0-9]++) (?<b>.*+)$";
+
+    @Test
+    public void shareCompiledRegex()
+    {
+        RegexCache cache = new RegexCache(4);
+        RegexCache.CompiledRegex first = cache.get(FORMAT, LineEncoding.UTF8);
+
+        assertSame(first, cache.get(FORMAT, LineEncoding.UTF8));
+        assertNotSame(first, cache.get(FORMAT + "x", LineEncoding.UTF8));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void keyOnEncoding()
+    {
+        RegexCache cache = new RegexCache(4);
+        LineEncoding latin1 = LineEncoding.of(Charset.forName("ISO-8859-1"), MatchEncoding.NATIVE);
+
+        RegexCache.CompiledRegex utf8 = cache.get(FORMAT, LineEncoding.UTF8);
+        RegexCache.CompiledRegex native8859 = cache.get(FORMAT, latin1);
+
+        assertNotSame(utf8, native8859);
+        assertSame(latin1.getEncoding(), native8859.getRegex().getEncoding());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+    {
+        RegexCache cache = new RegexCache(2);
+        RegexCache.CompiledRegex a = cache.get("(?<a>a)", LineEncoding.UTF8);
+        RegexCache.CompiledRegex b = cache.get("(?<b>b)", LineEncoding.UTF8);
+        assertSame(a, cache.get("(?<a>a)", LineEncoding.UTF8));
+        cache.get("(?<c>c)", LineEncoding.UTF8);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("(?<a>a)", LineEncoding.UTF8));
+        assertNotSame(b, cache.get("(?<b>b)", LineEncoding.UTF8));
+    }
+
+    @Test
+    public void keepCapturePlanOfLastSchema()
+    {
+        RegexCache.CompiledRegex compiled = new RegexCache(4).get(FORMAT, LineEncoding.UTF8);
+        Schema ab = schema("a", "b");
+        Schema ba = schema("b", "a");
+
+        CapturePlan plan = compiled.getCapturePlan(ab);
+        assertSame(plan, compiled.getCapturePlan(schema("a", "b")));
+        CapturePlan other = compiled.getCapturePlan(ba);
+        assertNotSame(plan, other);
+        assertEquals(1, other.getColumn(0).getIndex());
+    }
+
+    @Test
+    public void notCacheInvalidRegex()
+    {
+        RegexCache cache = new RegexCache(4);
+        try {
+            cache.get("(?<a>", LineEncoding.UTF8);
+            fail();
+        }
+        catch (SyntaxException ex) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+
+    private static Schema schema(String... names)
+    {
+        ImmutableList.Builder<Column> columns = ImmutableList.builder();
+        for (int i = 0; i < names.length; i++) {
+            columns.add(new Column(i, names[i], Types.STRING));
+        }
+        return new Schema(columns.build());
+    }
+}
@@ -0,0 +1,69 @@
+package org.embulk.parser.joni_regexp;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestRejectedLines
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void suppressWarningsOverLimit()
+    {
+        try (RejectedLines rejects = new RejectedLines(3, Optional.<File>absent())) {
+            for (int i = 0; i < 10; i++) {
+                unmatched(rejects, "line " + i);
+            }
+            assertEquals(7, rejects.getTotalSuppressed());
+            assertEquals(0, rejects.getWritten());
+        }
+    }
+
+    @Test
+    public void writeRejectedLines()
+            throws Exception
+    {
+        File file = new File(folder.getRoot(), "rejects.0");
+        try (RejectedLines rejects = new RejectedLines(0, Optional.of(file))) {
+            assertFalse(file.exists());
+
+            unmatched(rejects, "first");
+            byte[] bytes = "[second line]".getBytes(StandardCharsets.UTF_8);
+            rejects.conversionFailed(bytes, 1, bytes.length - 1, "invalid value");
+            unmatched(rejects, "");
+            unmatched(rejects, "名前");
+            assertEquals(4, rejects.getWritten());
+            assertEquals(4, rejects.getTotalSuppressed());
+        }
+        assertArrayEquals("first\nsecond line\n\n名前\n".getBytes(StandardCharsets.UTF_8), Files.toByteArray(file));
+    }
+
+    @Test
+    public void replaceExistingFile()
+            throws Exception
+    {
+        File file = new File(folder.getRoot(), "rejects.0");
+        Files.write("old\n".getBytes(StandardCharsets.UTF_8), file);
+        try (RejectedLines rejects = new RejectedLines(0, Optional.of(file))) {
+            unmatched(rejects, "new");
+        }
+        assertArrayEquals("new\n".getBytes(StandardCharsets.UTF_8), Files.toByteArray(file));
+    }
+
+    private static void unmatched(RejectedLines rejects, String line)
+    {
+        byte[] bytes = ("[" + line + "]").getBytes(StandardCharsets.UTF_8);
+        rejects.unmatched(bytes, 1, bytes.length - 1);
+    }
+}
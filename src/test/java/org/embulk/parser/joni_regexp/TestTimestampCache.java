@@ -0,0 +1,189 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.DataException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParser;
+import org.joda.time.DateTimeZone;
+import org.jruby.embed.ScriptingContainer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTimestampCache
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+    public ScriptingContainer jruby;
+
+    @Before
+    public void createResource()
+    {
+        jruby = new ScriptingContainer();
+    }
+
+    @Test
+    public void hitSameValue()
+    {
+        TimestampCache cache = cache("%d/%b/%Y:%H:%M:%S %z", 4);
+        Timestamp expected = Timestamp.ofEpochSecond(1476132936L);
+
+        assertEquals(expected, parse(cache, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(expected, parse(cache, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(expected, parse(cache, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void hitOlderEntry()
+    {
+        TimestampCache cache = cache("%d/%b/%Y:%H:%M:%S %z", 4);
+
+        parse(cache, "10/Oct/2016:13:55:36 -0700");
+        parse(cache, "10/Oct/2016:13:56:36 -0700");
+        assertEquals(Timestamp.ofEpochSecond(1476132936L), parse(cache, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void shiftSeconds()
+    {
+        TimestampCache cache = cache("%Y-%m-%d %H:%M:%S", 4);
+
+        parse(cache, "2016-10-10 20:55:36");
+        assertEquals(Timestamp.ofEpochSecond(1476132959L), parse(cache, "2016-10-10 20:55:59"));
+        assertEquals(Timestamp.ofEpochSecond(1476132900L), parse(cache, "2016-10-10 20:55:00"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // another minute
+        assertEquals(Timestamp.ofEpochSecond(1476132960L), parse(cache, "2016-10-10 20:56:00"));
+        assertEquals(2, cache.getMisses());
+
+        // the seconds are followed by the zone
+        cache = cache("%d/%b/%Y:%H:%M:%S %z", 4);
+        assertEquals(Timestamp.ofEpochSecond(1476132936L), parse(cache, "10/Oct/2016:13:55:36 -0700"));
+        assertEquals(Timestamp.ofEpochSecond(1476132959L), parse(cache, "10/Oct/2016:13:55:59 -0700"));
+        assertEquals(1, cache.getHits());
+
+        // another zone
+        assertEquals(Timestamp.ofEpochSecond(1476111359L), parse(cache, "10/Oct/2016:13:55:59 -0100"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void notShiftOtherFields()
+    {
+        // the minutes are the last two digits, and 00 agrees with the seconds of the parsed value
+        TimestampCache cache = cache("%Y-%m-%d:%H:%M", 4);
+
+        assertEquals(Timestamp.ofEpochSecond(1476132900L), parse(cache, "2016-10-10:20:55"));
+        assertEquals(Timestamp.ofEpochSecond(1476133200L), parse(cache, "2016-10-10:21:00"));
+        assertEquals(Timestamp.ofEpochSecond(1476133620L), parse(cache, "2016-10-10:21:07"));
+        assertEquals(0, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        // a full month name does not fit the three letters of %b
+        cache = cache("%d/%b/%Y:%H:%M:%S", 4);
+        parse(cache, "10/October/2016:13:55:36");
+        parse(cache, "10/October/2016:13:55:59");
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void secondsOffset()
+    {
+        assertEquals(17, TimestampCache.secondsOffset("%Y-%m-%d %H:%M:%S"));
+        assertEquals(17, TimestampCache.secondsOffset("%Y-%m-%dT%H:%M:%S.%N"));
+        assertEquals(17, TimestampCache.secondsOffset("%Y-%m-%d %H:%M:%S,%3N"));
+        assertEquals(17, TimestampCache.secondsOffset("%Y-%m-%d %H:%M:%S.%N %z"));
+        assertEquals(17, TimestampCache.secondsOffset("%F %T"));
+        assertEquals(18, TimestampCache.secondsOffset("%d/%b/%Y:%H:%M:%S %z"));
+        assertEquals(17, TimestampCache.secondsOffset("%Y-%m-%dT%H:%M:%S%:z"));
+        assertEquals(13, TimestampCache.secondsOffset("%b %d %H:%M:%S"));
+        assertEquals(18, TimestampCache.secondsOffset("[%Y-%m-%d %H:%M:%S %Z]"));
+        assertEquals(-1, TimestampCache.secondsOffset("%d:%H:%M"));
+        assertEquals(-1, TimestampCache.secondsOffset("%s"));
+        assertEquals(-1, TimestampCache.secondsOffset("%Y-%m-%-d %H:%M:%S"));
+        assertEquals(-1, TimestampCache.secondsOffset("%b %e %H:%M:%S"));
+        assertEquals(-1, TimestampCache.secondsOffset("%d %B %Y %H:%M:%S"));
+        assertEquals(-1, TimestampCache.secondsOffset("%H:%M:%S %Y-%m-%d"));
+    }
+
+    @Test
+    public void shiftSecondsBeforeZone()
+    {
+        TimestampCache cache = cache("%Y-%m-%d %H:%M:%S.%N %z", 4);
+
+        assertEquals(Timestamp.ofEpochSecond(1476132936L, 123000000), parse(cache, "2016-10-10 13:55:36.123 -0700"));
+        assertEquals(Timestamp.ofEpochSecond(1476132941L, 456000000), parse(cache, "2016-10-10 13:55:41.456 -0700"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shiftFraction()
+    {
+        TimestampCache cache = cache("%Y-%m-%d %H:%M:%S.%N", 4);
+
+        assertEquals(Timestamp.ofEpochSecond(1463084053, 500000000), parse(cache, "2016-05-12 20:14:13.5"));
+        assertEquals(Timestamp.ofEpochSecond(1463084054, 700000000), parse(cache, "2016-05-12 20:14:14.7"));
+        assertEquals(1, cache.getHits());
+
+        // the number of fraction digits differs
+        assertEquals(Timestamp.ofEpochSecond(1463084054, 123000000), parse(cache, "2016-05-12 20:14:14.123"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(Timestamp.ofEpochSecond(1463084059, 456000000), parse(cache, "2016-05-12 20:14:19.456"));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void disabled()
+    {
+        TimestampCache cache = cache("%d/%b/%Y:%H:%M:%S %z", 0);
+
+        parse(cache, "10/Oct/2016:13:55:36 -0700");
+        parse(cache, "10/Oct/2016:13:55:36 -0700");
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void invalidValue()
+    {
+        TimestampCache cache = cache("%d/%b/%Y:%H:%M:%S %z", 4);
+
+        parse(cache, "10/Oct/2016:13:55:36 -0700");
+        try {
+            parse(cache, "10/Oct/2016:13:55:xx -0700");
+            fail();
+        }
+        catch (Throwable t) {
+            assertTrue(t instanceof DataException);
+        }
+    }
+
+    private TimestampCache cache(String format, int size)
+    {
+        return new TimestampCache(parser(format), size, format);
+    }
+
+    private TimestampParser parser(String format)
+    {
+        return new TimestampParser(jruby, format, DateTimeZone.UTC);
+    }
+
+    private Timestamp parse(TimestampCache cache, String value)
+    {
+        byte[] bytes = ("[" + value + "]").getBytes(StandardCharsets.UTF_8);
+        return cache.parse(bytes, 1, bytes.length - 1);
+    }
+}
@@ -0,0 +1,109 @@
+package org.embulk.parser.joni_regexp;
+
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestValueDictionary
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private final ParserMetrics metrics = new ParserMetrics();
+    private final ParserMetrics.Counter counter = metrics.newCounter();
+
+    @Test
+    public void returnPutValue()
+    {
+        ValueDictionary dictionary = new ValueDictionary(4, 0.5, counter);
+        byte[] line = bytes("GET /index.html 200");
+
+        assertNull(dictionary.get(line, 0, 3));
+        String get = "GET";
+        dictionary.put(line, 0, 3, get);
+        assertNull(dictionary.get(line, 16, 19));
+        dictionary.put(line, 16, 19, 200L);
+
+        assertSame(get, dictionary.get(bytes("GET"), 0, 3));
+        assertEquals(200L, dictionary.get(bytes("x200"), 1, 4));
+        assertNull(dictionary.get(bytes("GE"), 0, 2));
+        assertEquals(5, dictionary.getLookups());
+        assertEquals(2, dictionary.getHits());
+
+        counter.flush();
+        assertEquals(5, metrics.getDictionaryLookups());
+        assertEquals(2, metrics.getDictionaryHits());
+    }
+
+    @Test
+    public void keepFirstValuesWhenFull()
+    {
+        ValueDictionary dictionary = new ValueDictionary(2, 0.0, counter);
+        for (String value : new String[] {"a", "b", "c"}) {
+            byte[] bytes = bytes(value);
+            assertNull(dictionary.get(bytes, 0, bytes.length));
+            dictionary.put(bytes, 0, bytes.length, value);
+        }
+
+        assertEquals(2, dictionary.size());
+        assertEquals("a", dictionary.get(bytes("a"), 0, 1));
+        assertEquals("b", dictionary.get(bytes("b"), 0, 1));
+        assertNull(dictionary.get(bytes("c"), 0, 1));
+    }
+
+    @Test
+    public void putOnlyAfterMiss()
+    {
+        ValueDictionary dictionary = new ValueDictionary(4, 0.0, counter);
+        byte[] bytes = bytes("a");
+
+        dictionary.put(bytes, 0, 1, "x");
+        assertNull(dictionary.get(bytes, 0, 1));
+        assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void disableOnLowHitRatio()
+    {
+        ValueDictionary dictionary = new ValueDictionary(16, 0.5, counter);
+        for (int i = 0; i < ValueDictionary.CHECK_INTERVAL; i++) {
+            byte[] bytes = bytes(String.valueOf(i));
+            if (dictionary.get(bytes, 0, bytes.length) == null) {
+                dictionary.put(bytes, 0, bytes.length, i);
+            }
+        }
+
+        assertTrue(dictionary.isDisabled());
+        assertNull(dictionary.get(bytes("0"), 0, 1));
+        assertEquals(ValueDictionary.CHECK_INTERVAL, dictionary.getLookups());
+    }
+
+    @Test
+    public void stayEnabledOnHighHitRatio()
+    {
+        ValueDictionary dictionary = new ValueDictionary(16, 0.5, counter);
+        String[] methods = {"GET", "POST", "PUT", "DELETE"};
+        for (int i = 0; i < ValueDictionary.CHECK_INTERVAL * 3; i++) {
+            byte[] bytes = bytes(methods[i % methods.length]);
+            if (dictionary.get(bytes, 0, bytes.length) == null) {
+                dictionary.put(bytes, 0, bytes.length, methods[i % methods.length]);
+            }
+        }
+
+        assertFalse(dictionary.isDisabled());
+        assertEquals(ValueDictionary.CHECK_INTERVAL * 3 - methods.length, dictionary.getHits());
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
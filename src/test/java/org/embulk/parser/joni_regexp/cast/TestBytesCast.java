@@ -0,0 +1,137 @@
+package org.embulk.parser.joni_regexp.cast;
+
+import org.embulk.spi.DataException;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBytesCast
+{
+    @Test
+    public void asBoolean()
+    {
+        for (String str : StringCast.TRUE_STRINGS) {
+            assertEquals(true, BytesCast.asBoolean(bytes(str), 0, str.length()));
+        }
+        for (String str : StringCast.FALSE_STRINGS) {
+            assertEquals(false, BytesCast.asBoolean(bytes(str), 0, str.length()));
+        }
+        byte[] bytes = bytes("[yes]");
+        assertEquals(true, BytesCast.asBoolean(bytes, 1, 4));
+        for (String str : new String[] {"foo", "", "tru", "truee", "ｙｅｓ"}) {
+            try {
+                asBoolean(str);
+                fail();
+            }
+            catch (Throwable t) {
+                assertTrue(t instanceof DataException);
+                assertEquals(String.format("cannot cast String to boolean: \"%s\"", str), t.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void asLong()
+    {
+        assertEquals(1, asLong("1"));
+        assertEquals(-1, asLong("-1"));
+        assertEquals(1, asLong("+1"));
+        assertEquals(7, asLong("007"));
+        assertEquals(Long.MAX_VALUE, asLong("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, asLong("-9223372036854775808"));
+        byte[] bytes = bytes("[456789]");
+        assertEquals(456789, BytesCast.asLong(bytes, 1, 7));
+        for (String str : new String[] {"1.5", "foo", "", "-", "+", "9223372036854775808", "-9223372036854775809", " 1"}) {
+            try {
+                asLong(str);
+                fail();
+            }
+            catch (Throwable t) {
+                assertTrue(t instanceof DataException);
+                assertEquals(String.format("cannot cast String to long: \"%s\"", str), t.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void asDouble()
+    {
+        String[] values = {
+                "1", "1.5", "-1.5", "+2.25", "0", "-0", "0.0", ".5", "5.", "123.456", "1e10", "1E-5", "-2.5e+3",
+                "0.1", "0.3", "3.141592653589793", "2.718281828459045", "0.000001234", "123456789012345",
+                "1234567890123456789", "12345678901234567890", "1e22", "1e23", "1e-22", "1e-23", "4.9e-324",
+                "1.7976931348623157e308", "1e400", "NaN", "-Infinity", " 1.5 ", "1.5d", "0x1p3",
+        };
+        for (String value : values) {
+            assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(asDouble(value)));
+        }
+        byte[] bytes = bytes("[123.456]");
+        assertEquals(123.456, BytesCast.asDouble(bytes, 1, 8), 0.0);
+        for (String str : new String[] {"foo", "", ".", "-", "1e", "1e+", "1.2.3", "1,5"}) {
+            try {
+                asDouble(str);
+                fail();
+            }
+            catch (Throwable t) {
+                assertTrue(t instanceof DataException);
+                assertEquals(String.format("cannot cast String to double: \"%s\"", str), t.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void decodeInCharset()
+    {
+        Charset sjis = Charset.forName("Shift_JIS");
+        byte[] bytes = "十".getBytes(sjis);
+        try {
+            BytesCast.asLong(bytes, 0, bytes.length, sjis);
+            fail();
+        }
+        catch (DataException ex) {
+            assertEquals("cannot cast String to long: \"十\"", ex.getMessage());
+        }
+        try {
+            BytesCast.asDouble(bytes, 0, bytes.length, sjis);
+            fail();
+        }
+        catch (DataException ex) {
+            assertEquals("cannot cast String to double: \"十\"", ex.getMessage());
+        }
+        try {
+            BytesCast.asBoolean(bytes, 0, bytes.length, sjis);
+            fail();
+        }
+        catch (DataException ex) {
+            assertEquals("cannot cast String to boolean: \"十\"", ex.getMessage());
+        }
+    }
+
+    private static byte[] bytes(String str)
+    {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean asBoolean(String str)
+    {
+        byte[] bytes = bytes(str);
+        return BytesCast.asBoolean(bytes, 0, bytes.length);
+    }
+
+    private static long asLong(String str)
+    {
+        byte[] bytes = bytes(str);
+        return BytesCast.asLong(bytes, 0, bytes.length);
+    }
+
+    private static double asDouble(String str)
+    {
+        byte[] bytes = bytes(str);
+        return BytesCast.asDouble(bytes, 0, bytes.length);
+    }
+}